@@ -10,11 +10,23 @@ import android.os.Environment;
 import android.test.mock.MockContext;
 import android.util.Log;
 
-import com.richsjeson.cache.disk.DiskLruCache;
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.CodecRegistry;
+import com.richsjeson.cache.codec.Codecs;
+import com.richsjeson.cache.disk.CacheEntry;
+import com.richsjeson.cache.disk.ShardedDiskLruCache;
 import com.richsjeson.cache.interf.CacheFacade;
+import com.richsjeson.cache.interf.CacheLoader;
 import com.richsjeson.cache.interf.DiskFacade;
 import com.richsjeson.cache.interf.SystemFacade;
-import com.richsjeson.cache.memory.LruCache;
+import com.richsjeson.cache.memory.EvictionPolicy;
+import com.richsjeson.cache.memory.HeapPressureSource;
+import com.richsjeson.cache.memory.MemoryEntry;
+import com.richsjeson.cache.memory.MemoryPressureController;
+import com.richsjeson.cache.memory.OffHeapCache;
+import com.richsjeson.cache.memory.SegmentedLruCache;
+import com.richsjeson.cache.memory.TrimMemoryPressureSource;
+import com.richsjeson.cache.stats.CacheStats;
 import com.richsjeson.cache.utils.BitmapUtils;
 import com.richsjeson.cache.utils.FileUtils;
 import com.richsjeson.cache.utils.MemoryUtils;
@@ -22,7 +34,24 @@ import com.richsjeson.cache.utils.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -46,16 +75,54 @@ public class CacheManager implements SystemFacade {
     private Context mContext;
 
     private CacheFacade mLRUCache;
+    /**
+     * 堆外内存缓存，只保存一级缓存淘汰的数据，不增加GC的压力。
+     * 写入时不经过堆外缓存，同一份数据不会同时占用两层内存；命中后移回一级缓存。
+     */
+    private OffHeapCache mOffHeapCache;
+
+    private static final long OFF_HEAP_SIZE = 32 * 1024 * 1024L;
+    /**
+     * 一级缓存中单个条目最多占所在段容量的百分比，段的容量随内存压力缩小时上限一起缩小。
+     * 更大的数据（例如大尺寸的位图）不进入一级缓存，由磁盘缓存提供，不会一次挤掉整个段。
+     */
+    private static final int MAX_ENTRY_PERCENT = 50;
+    /**
+     * 根据内存压力调整一级缓存的容量。
+     */
+    private final MemoryPressureController mPressureController;
 
     private static CacheManager manager;
     /**
-     * 硬盘缓存核心类。
+     * 硬盘缓存核心类，按key分片，不同分片的读写互不阻塞。
      */
     private DiskFacade mDiskLruCache;
 
+    private static final int DISK_SHARDS = 8;
+
     private int memoryTotal;
 
     private ConnectivityManager connectivity ;
+    /**
+     * 刷新数据使用的加载器，为空时不刷新。
+     */
+    private volatile CacheLoader mCacheLoader;
+    /**
+     * 写入后多久需要刷新，0表示不刷新。
+     */
+    private volatile long mRefreshAfterWrite;
+
+    private volatile Executor mRefreshExecutor;
+    /**
+     * 正在刷新的key，同一个key同时只刷新一次。
+     */
+    private final ConcurrentHashMap<String, Boolean> mRefreshing = new ConcurrentHashMap<String, Boolean>();
+
+    private static final int REFRESH_QUEUE_SIZE = 64;
+    /**
+     * 批量读取时并行读取磁盘文件的线程池。
+     */
+    private final ExecutorService mDiskReadExecutor;
 
     private CacheManager(Context mContext){
         //从虚拟机中获取应分配的缓存大小
@@ -64,11 +131,50 @@ public class CacheManager implements SystemFacade {
         if(memoryTotal<=0){
             memoryTotal=2*1024*1024;
         }
-        //给LRU分配缓存。
-        mLRUCache=new LruCache(memoryTotal / 2);
+        //给LRU分配缓存，按CPU核数分段加锁，读写不再争抢同一把锁。
+        //使用TinyLFU准入策略，避免顺序扫描把热点数据挤出缓存。
+        //容量按字节计算，占用虚拟机可用内存的1/8。
+        SegmentedLruCache lruCache=new SegmentedLruCache(memoryTotal / 8,
+                Runtime.getRuntime().availableProcessors() * 4, EvictionPolicy.Type.TINY_LFU);
+        //单个条目的上限按段的容量计算，段数仍由CPU核数决定
+        lruCache.setMaxEntryPercent(MAX_ENTRY_PERCENT);
+        //不可变的数据直接保存引用，命中时不需要反序列化
+        lruCache.setStoreByReference(true);
+        //过期时间以当前的系统时间为准
+        lruCache.setClock(this);
+        mLRUCache=lruCache;
+        mOffHeapCache=new OffHeapCache(OFF_HEAP_SIZE);
+        //一级缓存因容量不足淘汰的数据在淘汰的线程上同步转入堆外缓存，不再保留软引用的溢出区，
+        //同一份数据不会同时占用两层内存；过期的数据与带有效期的数据不转入
+        lruCache.setVictimCache(mOffHeapCache);
         this.mContext=mContext;
+        //堆的使用率与系统的onTrimMemory回调都会让一级缓存逐步缩小，压力解除后逐步恢复
+        TrimMemoryPressureSource trimMemory = new TrimMemoryPressureSource(this);
+        mPressureController = new MemoryPressureController(lruCache, new HeapPressureSource(), trimMemory);
+        trimMemory.setListener(new Runnable() {
+            @Override
+            public void run() {
+                mPressureController.poll();
+            }
+        });
+        mContext.registerComponentCallbacks(trimMemory);
+        mPressureController.start();
+        //磁盘读取主要是等待IO，线程数不需要超过CPU核数
+        int readThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor readPool = new ThreadPoolExecutor(readThreads, readThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CacheManager-disk-read");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        readPool.allowCoreThreadTimeOut(true);
+        mDiskReadExecutor = readPool;
         try {
-            mDiskLruCache= DiskLruCache.open(getDiskCacheDir(mContext, "cache_priv"), 1, 2, 2 * 1024 * 1024 * 1024L);
+            mDiskLruCache= ShardedDiskLruCache.open(getDiskCacheDir(mContext, "cache_priv"), 1, 2,
+                    2 * 1024 * 1024 * 1024L, DISK_SHARDS);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -86,11 +192,244 @@ public class CacheManager implements SystemFacade {
         return null;
     }
 
-    public synchronized void put(String key, Object value) {
-        //如果缓存中的数据已存在,那么就更新内存缓存
-        if (mLRUCache.getEntry(key) != null) {
-            MemoryUtils.put(mLRUCache,key,value);
+    public void put(String key, Object value) {
+        //内存缓存由分段锁保护，这里不再加全局锁
+        MemoryUtils.put(mLRUCache,key,value);
+        //堆外缓存中可能还有之前淘汰的旧数据
+        mOffHeapCache.remove(key);
+        putDisk(key, value);
+    }
+
+
+    /**
+     * @see <p>写入只在有效期内可读的数据，有效期由内存缓存的时间轮管理，
+     * 堆外缓存与磁盘缓存不保存过期时间，因此这类数据只写入一级缓存</p>
+     * @param timeToLive 有效期，毫秒
+     */
+    public void put(String key, Object value, long timeToLive) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive <= 0");
+        }
+        //先写入一级缓存，使正在转入堆外缓存的旧数据失效，再删除其他层中的旧数据，过期后不会被读出
+        MemoryUtils.put(mLRUCache, key, value, timeToLive);
+        mOffHeapCache.remove(key);
+        deleteDisk(key);
+    }
+
+    public Object get(String key) {
+        //如果内存缓存中已存在，直接返回，不经过磁盘缓存的锁
+        MemoryEntry entry = mLRUCache.getEntry(key);
+        Object value = entry != null ? MemoryUtils.get(entry) : null;
+        if (value != null) {
+            //数据超过刷新时间时，先返回当前的数据，再在后台重新加载
+            refreshIfStale(key, entry);
+            return value;
+        }
+        //从堆外缓存中读取，命中后移回一级缓存
+        value = MemoryUtils.get(mOffHeapCache, key);
+        if (value != null) {
+            MemoryUtils.put(mLRUCache, key, value);
+            mOffHeapCache.remove(key);
+            return value;
+        }
+        value = getDisk(key);
+        if (value instanceof String) {
+            //将磁盘中读取到的数据倒入内存缓存
+            MemoryUtils.put(mLRUCache, key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @see <p>批量读取，依次查找一级缓存、堆外缓存与磁盘缓存，每一层只查找上一层未命中的key，
+     * 磁盘文件在锁外并行读取，读到的数据批量倒入内存缓存</p>
+     * @param keys
+     * @return 命中的数据，顺序与keys一致
+     */
+    public Map<String, Object> getAll(Collection<String> keys) {
+        Map<String, Object> found = new HashMap<String, Object>(keys.size() * 4 / 3 + 1);
+        List<String> missing = new ArrayList<String>();
+        Map<String, MemoryEntry> entries = mLRUCache.getAll(keys);
+        for (String key : keys) {
+            MemoryEntry entry = entries.get(key);
+            Object value = entry != null ? MemoryUtils.get(entry) : null;
+            if (value != null) {
+                refreshIfStale(key, entry);
+                found.put(key, value);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Object> offHeap = MemoryUtils.getAll(mOffHeapCache, missing);
+            if (!offHeap.isEmpty()) {
+                mLRUCache.putAll(offHeap);
+                mOffHeapCache.removeAll(offHeap.keySet());
+                found.putAll(offHeap);
+                missing.removeAll(offHeap.keySet());
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Object> disk = getAllDisk(missing);
+            Map<String, String> strings = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, Object> value : disk.entrySet()) {
+                if (value.getValue() instanceof String) {
+                    strings.put(value.getKey(), (String) value.getValue());
+                }
+            }
+            if (!strings.isEmpty()) {
+                mLRUCache.putAll(strings);
+            }
+            found.putAll(disk);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>(found.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            Object value = found.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see <p>批量写入一级缓存与磁盘缓存，每一层只加锁一次，磁盘日志只刷新一次，
+     * 同时删除堆外缓存中淘汰过的旧数据</p>
+     * @param values
+     */
+    public void putAll(Map<String, ?> values) {
+        mLRUCache.putAll(values);
+        mOffHeapCache.removeAll(values.keySet());
+        putAllDisk(values);
+    }
+
+    /**
+     * @see <p>批量删除所有缓存中的数据</p>
+     * @param keys
+     */
+    public void removeAll(Collection<String> keys) {
+        mLRUCache.removeAll(keys);
+        mOffHeapCache.removeAll(keys);
+        removeAllDisk(keys);
+    }
+
+    /**
+     * @see <p>各层缓存统计信息的快照，读取时不加锁，不影响正在进行的读写</p>
+     * @return
+     */
+    public CacheStats stats() {
+        return new CacheStats(mLRUCache.stats(), mOffHeapCache.stats(), mDiskLruCache.stats());
+    }
+
+    /**
+     * @see <p>是否在各层的统计中记录读写延迟，默认不记录</p>
+     * @param recordLatency
+     */
+    public void setRecordLatency(boolean recordLatency) {
+        mLRUCache.setRecordLatency(recordLatency);
+        mOffHeapCache.setRecordLatency(recordLatency);
+        mDiskLruCache.setRecordLatency(recordLatency);
+    }
+
+    /**
+     * @see <p>设置刷新数据使用的加载器</p>
+     * @param cacheLoader
+     */
+    public void setCacheLoader(CacheLoader cacheLoader) {
+        mCacheLoader = cacheLoader;
+    }
+
+    /**
+     * @see <p>数据写入超过该时间后，下一次读取仍然立即返回当前的数据，同时在后台通过
+     * {@link CacheLoader}重新加载，加载结果按原有数据的有效期与所在的层写回；
+     * 加载期间数据被删除或重新写入时放弃加载结果</p>
+     * @param millis 毫秒，0表示不刷新
+     */
+    public void setRefreshAfterWrite(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis < 0");
+        }
+        mRefreshAfterWrite = millis;
+    }
+
+    /**
+     * @see <p>设置执行刷新的线程池，不设置时使用单个后台线程</p>
+     * @param executor
+     */
+    public void setRefreshExecutor(Executor executor) {
+        mRefreshExecutor = executor;
+    }
+
+    private void refreshIfStale(final String key, final MemoryEntry entry) {
+        final CacheLoader loader = mCacheLoader;
+        long refreshAfterWrite = mRefreshAfterWrite;
+        if (loader == null || refreshAfterWrite <= 0
+                || currentTimeMillis() - entry.getWriteTime() < refreshAfterWrite) {
+            return;
+        }
+        if (mRefreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        //一级缓存复用条目写入新数据，所以同时比较条目与写入时间
+        final long writeTime = entry.getWriteTime();
+        final long timeToLive = entry.getTimeToLive();
+        try {
+            refreshExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Object value = loader.load(key);
+                        MemoryEntry current = mLRUCache.getEntry(key);
+                        if (value == null || current != entry || current.getWriteTime() != writeTime) {
+                            return;
+                        }
+                        if (timeToLive > 0) {
+                            put(key, value, timeToLive);
+                        } else {
+                            put(key, value);
+                        }
+                    } catch (Exception e) {
+                        //加载失败时保留原有的数据，下一次读取时再次刷新
+                        e.printStackTrace();
+                    } finally {
+                        mRefreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //刷新任务过多时放弃本次刷新
+            mRefreshing.remove(key);
+        }
+    }
+
+    private Executor refreshExecutor() {
+        Executor executor = mRefreshExecutor;
+        if (executor == null) {
+            synchronized (mRefreshing) {
+                executor = mRefreshExecutor;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "CacheManager-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    pool.allowCoreThreadTimeOut(true);
+                    mRefreshExecutor = executor = pool;
+                }
+            }
         }
+        return executor;
+    }
+
+    /**
+     * @see <p>写入磁盘缓存，写入与提交在所在分片的锁内完成，不同分片的写入可以并行</p>
+     */
+    private void putDisk(String key, Object value) {
         //根据策略进行put,如果是图片，则将图片直接存放到DiskLruCache中，当要获取图片时，从DiskLruCache中获取,此bitmap是根据分辨率下的压缩后的大小
         if(value instanceof  String){
             //将数据写入文件
@@ -101,33 +440,142 @@ public class CacheManager implements SystemFacade {
         }
     }
 
+    private void putAllDisk(Map<String, ?> values) {
+        Map<String, String> strings = new LinkedHashMap<String, String>();
+        Map<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>();
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            if (value.getValue() instanceof String) {
+                strings.put(value.getKey(), (String) value.getValue());
+            } else if (value.getValue() instanceof Bitmap) {
+                bitmaps.put(value.getKey(), (Bitmap) value.getValue());
+            }
+        }
+        if (!strings.isEmpty()) {
+            StringUtils.putAll(mDiskLruCache, strings);
+        }
+        if (!bitmaps.isEmpty()) {
+            BitmapUtils.putAll(mDiskLruCache, bitmaps);
+        }
+    }
+
+    private void removeAllDisk(Collection<String> keys) {
+        List<String> files = new ArrayList<String>(keys.size());
+        for (String key : keys) {
+            files.add(FileUtils.generate(key));
+        }
+        try {
+            mDiskLruCache.removeAll(files);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-    public synchronized Object get(String key) {
-        //如果缓存中的数据已存在,那么就更新内存缓存
-        if (mLRUCache.getEntry(key) != null) {
-            return MemoryUtils.get(mLRUCache, key);
-        }else {
-            //根据策略进行put,如果是图片，则将图片直接存放到DiskLruCache中，当要获取图片时，从DiskLruCache中获取,此bitmap是根据分辨率下的压缩后的大小
-            Object ins=StringUtils.get(mDiskLruCache,key);
-            if(ins != null && ins instanceof InputStream){
+    /**
+     * @see <p>批量读取磁盘缓存：每个分片加锁一次查找条目，再由读取线程池并行读取文件</p>
+     */
+    private Map<String, Object> getAllDisk(List<String> keys) {
+        Map<String, String> files = new LinkedHashMap<String, String>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            files.put(FileUtils.generate(key), key);
+        }
+        Map<String, CacheEntry> entries;
+        try {
+            entries = mDiskLruCache.getAll(files.keySet());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyMap();
+        }
+
+        Map<String, Object> values = new HashMap<String, Object>(entries.size() * 4 / 3 + 1);
+        if (entries.size() == 1) {
+            //只有一个文件时直接在当前线程读取
+            Map.Entry<String, CacheEntry> entry = entries.entrySet().iterator().next();
+            Object value = readDisk(entry.getValue());
+            if (value != null) {
+                values.put(files.get(entry.getKey()), value);
+            }
+            return values;
+        }
+        List<String> readKeys = new ArrayList<String>(entries.size());
+        List<Callable<Object>> reads = new ArrayList<Callable<Object>>(entries.size());
+        for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+            final CacheEntry cacheEntry = entry.getValue();
+            readKeys.add(files.get(entry.getKey()));
+            reads.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return readDisk(cacheEntry);
+                }
+            });
+        }
+        try {
+            List<Future<Object>> results = mDiskReadExecutor.invokeAll(reads);
+            for (int i = 0; i < results.size(); i++) {
                 try {
-                    String content= FileUtils.readString((InputStream) ins);
-                    put(key,content);
-                    return  content;
-                } catch (IOException e) {
+                    Object value = results.get(i).get();
+                    if (value != null) {
+                        values.put(readKeys.get(i), value);
+                    }
+                } catch (ExecutionException e) {
                     e.printStackTrace();
-                    return null;
                 }
-            }else{
-                return BitmapUtils.get(mDiskLruCache,key);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        return values;
+    }
 
+    /**
+     * @see <p>读取已查找到的磁盘条目，按照提交时记录的编解码器解码。
+     * 旧版本日志中的数据没有记录编解码器：文本不是有效的图片，先按Bitmap解码，失败时再按字符串读取</p>
+     */
+    private static Object readDisk(CacheEntry cacheEntry) {
+        try {
+            if (cacheEntry.getCodecId() != Codecs.ID_NONE) {
+                return cacheEntry.read();
+            }
+            Codec<Bitmap> bitmapCodec = CodecRegistry.getDefault().codecFor(Codecs.ID_BITMAP);
+            try {
+                return cacheEntry.read(bitmapCodec);
+            } catch (IOException notBitmap) {
+                return cacheEntry.read(Codecs.STRING);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @see <p>删除磁盘缓存中的数据</p>
+     */
+    private void deleteDisk(String key) {
+        try {
+            mDiskLruCache.delete(FileUtils.generate(key));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @see <p>从磁盘缓存中读取数据</p>
+     */
+    private Object getDisk(String key) {
+        //根据策略进行put,如果是图片，则将图片直接存放到DiskLruCache中，当要获取图片时，从DiskLruCache中获取,此bitmap是根据分辨率下的压缩后的大小
+        try {
+            CacheEntry cacheEntry = mDiskLruCache.getEntry(FileUtils.generate(key));
+            return cacheEntry != null ? readDisk(cacheEntry) : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
 
     public void memoryAll() {
         mLRUCache.memoryAll();
+        mOffHeapCache.memoryAll();
 //        try {
 //            mDiskLruCache.clear();
 //        } catch (IOException e) {
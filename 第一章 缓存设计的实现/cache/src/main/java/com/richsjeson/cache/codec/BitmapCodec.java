@@ -0,0 +1,34 @@
+package com.richsjeson.cache.codec;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.IOException;
+
+/**
+ * @see <p>Bitmap的编解码器，以PNG格式无损压缩后直接写入缓冲区</p>
+ */
+public final class BitmapCodec implements Codec<Bitmap> {
+
+    @Override
+    public void encode(Bitmap value, ByteArrayBuffer out) throws IOException {
+        if (!value.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+            throw new IOException("failed to compress bitmap");
+        }
+    }
+
+    @Override
+    public Bitmap decode(byte[] data, int offset, int length) throws IOException {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, length);
+        if (bitmap == null) {
+            throw new IOException("failed to decode bitmap");
+        }
+        return bitmap;
+    }
+
+    @Override
+    public boolean isShareable() {
+        //Bitmap可以被recycle或修改像素，不能共享
+        return false;
+    }
+}
@@ -0,0 +1,166 @@
+package com.richsjeson.cache.codec;
+
+import com.richsjeson.cache.stats.StripedCounter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * @see <p>分级的字节数组池，用于编解码与磁盘读写的临时缓冲区
+ * 1）数组按大小分为1KB、4KB、16KB、64KB、256KB、1MB六级，申请时取能容纳所需长度的最小一级
+ * 2）每一级保存的数组个数有上限，合计不超过约4MB，归还时该级已满则丢弃，由GC回收
+ * 3）超过最大一级的请求直接分配，归还时也不保留，避免一次大的读写长期占用内存
+ * 4）每一级是一个有界的ArrayBlockingQueue，申请与归还都不阻塞，也不分配节点对象
+ * </p>
+ */
+public final class BufferPool {
+
+    static final int MIN_SIZE = 1 << 10;
+
+    static final int MAX_SIZE = 1 << 20;
+
+    /**
+     * @serialField <p>相邻两级之间的倍数为4</p>
+     */
+    private static final int TIER_SHIFT = 2;
+
+    private static final int TIERS = (Integer.numberOfTrailingZeros(MAX_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_SIZE)) / TIER_SHIFT + 1;
+
+    /**
+     * @serialField <p>每一级最多保存的字节数</p>
+     */
+    private static final int TIER_BYTES = 512 * 1024;
+
+    private static final int MAX_BUFFERS_PER_TIER = 64;
+
+    private static final int MIN_BUFFERS_PER_TIER = 2;
+
+    private static final BufferPool DEFAULT = new BufferPool();
+
+    private final ArrayBlockingQueue<byte[]>[] tiers;
+
+    private final StripedCounter hits = new StripedCounter();
+
+    private final StripedCounter misses = new StripedCounter();
+
+    private final StripedCounter discards = new StripedCounter();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool() {
+        tiers = new ArrayBlockingQueue[TIERS];
+        for (int i = 0; i < TIERS; i++) {
+            int count = TIER_BYTES / sizeOf(i);
+            count = Math.max(MIN_BUFFERS_PER_TIER, Math.min(MAX_BUFFERS_PER_TIER, count));
+            tiers[i] = new ArrayBlockingQueue<byte[]>(count);
+        }
+    }
+
+    /**
+     * @see <p>进程内共享的缓冲池</p>
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @see <p>申请长度至少为minSize的数组，数组中的内容是上一次使用留下的，不会被清零</p>
+     */
+    public byte[] acquire(int minSize) {
+        int tier = tierFor(minSize);
+        if (tier < 0) {
+            misses.increment();
+            return new byte[minSize];
+        }
+        byte[] buffer = tiers[tier].poll();
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return new byte[sizeOf(tier)];
+    }
+
+    /**
+     * @see <p>归还数组，归还后调用方不能再使用它。长度不属于任何一级的数组被直接丢弃</p>
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int tier = tierFor(buffer.length);
+        if (tier < 0 || sizeOf(tier) != buffer.length || !tiers[tier].offer(buffer)) {
+            discards.increment();
+        }
+    }
+
+    /**
+     * @see <p>清空所有级别，例如内存紧张时</p>
+     */
+    public void clear() {
+        for (ArrayBlockingQueue<byte[]> tier : tiers) {
+            tier.clear();
+        }
+    }
+
+    /**
+     * @see <p>从池中取到数组的次数</p>
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @see <p>池中没有可用的数组、需要新分配的次数</p>
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @see <p>归还时因为该级已满或长度不匹配而丢弃的次数</p>
+     */
+    public long discardCount() {
+        return discards.sum();
+    }
+
+    public double hitRate() {
+        long hitCount = hitCount();
+        long requestCount = hitCount + missCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @see <p>池中当前保存的字节数</p>
+     */
+    public long pooledBytes() {
+        long bytes = 0;
+        for (int i = 0; i < TIERS; i++) {
+            bytes += (long) tiers[i].size() * sizeOf(i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool[hits=%d,misses=%d,discards=%d,pooledBytes=%d]",
+                hitCount(), missCount(), discardCount(), pooledBytes());
+    }
+
+    /**
+     * @see <p>能容纳size个字节的最小一级，超过最大一级时返回-1</p>
+     */
+    static int tierFor(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return (bits - Integer.numberOfTrailingZeros(MIN_SIZE) + TIER_SHIFT - 1) / TIER_SHIFT;
+    }
+
+    static int sizeOf(int tier) {
+        return MIN_SIZE << (tier * TIER_SHIFT);
+    }
+}
@@ -0,0 +1,187 @@
+package com.richsjeson.cache.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * @see <p>可复用的字节缓冲区
+ * 1）与ByteArrayOutputStream类似，但不加锁，并且可以直接访问内部数组
+ * 2）调用{@link #reset()}后可重复使用，避免每次编码都重新分配内存
+ * 3）使用{@link BufferPool}时，内部数组从池中申请，扩容时旧数组归还到池中，
+ *    用完后调用{@link #release()}归还，一次大的编码不会让缓冲区一直占用内存
+ * </p>
+ */
+public final class ByteArrayBuffer extends OutputStream {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final BufferPool pool;
+
+    private byte[] buf;
+
+    private int count;
+
+    public ByteArrayBuffer() {
+        this(256);
+    }
+
+    public ByteArrayBuffer(int initialCapacity) {
+        pool = null;
+        buf = new byte[Math.max(initialCapacity, MIN_CAPACITY)];
+    }
+
+    /**
+     * @param pool 申请与归还内部数组的缓冲池，第一次写入时才申请
+     */
+    public ByteArrayBuffer(BufferPool pool) {
+        this.pool = pool;
+        buf = EMPTY;
+    }
+
+    /**
+     * @see <p>保证缓冲区至少还能写入additional个字节</p>
+     */
+    public void ensureCapacity(int additional) {
+        int required = count + additional;
+        if (required > buf.length) {
+            int capacity = Math.max(required, Math.max(buf.length << 1, MIN_CAPACITY));
+            if (pool == null) {
+                buf = Arrays.copyOf(buf, capacity);
+                return;
+            }
+            byte[] grown = pool.acquire(capacity);
+            System.arraycopy(buf, 0, grown, 0, count);
+            if (buf != EMPTY) {
+                pool.release(buf);
+            }
+            buf = grown;
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * @see <p>以大端序写入int</p>
+     */
+    public void writeInt(int v) {
+        ensureCapacity(4);
+        buf[count++] = (byte) (v >>> 24);
+        buf[count++] = (byte) (v >>> 16);
+        buf[count++] = (byte) (v >>> 8);
+        buf[count++] = (byte) v;
+    }
+
+    /**
+     * @see <p>以大端序写入long</p>
+     */
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * @see <p>以UTF-8编码写入字符串，直接写入缓冲区，不产生中间的字节数组</p>
+     */
+    public void writeUtf8(String value) {
+        int length = value.length();
+        ensureCapacity(length * 3);
+        byte[] b = buf;
+        int pos = count;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xc0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                b[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                //不成对的代理字符，与String.getBytes一样写入'?'
+                b[pos++] = (byte) '?';
+            } else {
+                b[pos++] = (byte) (0xe0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        count = pos;
+    }
+
+    /**
+     * @see <p>读取输入流中剩余的所有数据，追加到缓冲区</p>
+     */
+    public void readFrom(InputStream in) throws IOException {
+        while (true) {
+            if (count == buf.length) {
+                ensureCapacity(Math.max(buf.length, MIN_CAPACITY));
+            }
+            int read = in.read(buf, count, buf.length - count);
+            if (read == -1) {
+                return;
+            }
+            count += read;
+        }
+    }
+
+    /**
+     * @see <p>清空缓冲区，保留已分配的内存</p>
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * @see <p>清空缓冲区，并把内部数组归还到缓冲池，之前通过{@link #buffer()}取得的数组不能再使用。
+     * 没有使用缓冲池时与{@link #reset()}相同</p>
+     */
+    public void release() {
+        count = 0;
+        if (pool != null && buf != EMPTY) {
+            pool.release(buf);
+            buf = EMPTY;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @see <p>返回内部数组，有效数据为[0, size())</p>
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * @see <p>一次性写出所有数据</p>
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+}
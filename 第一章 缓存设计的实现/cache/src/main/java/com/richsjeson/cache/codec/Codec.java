@@ -0,0 +1,28 @@
+package com.richsjeson.cache.codec;
+
+import java.io.IOException;
+
+/**
+ * @see <p>缓存数据的编解码器
+ * 1）编码时直接写入可复用的{@link ByteArrayBuffer}，不经过java.io的序列化
+ * 2）解码时直接读取字节数组的一段，不需要再拷贝
+ * 3）通过{@link CodecRegistry}按照数据类型注册和查找
+ * </p>
+ */
+public interface Codec<T> {
+
+    /**
+     * @see <p>将数据编码后写入缓冲区</p>
+     */
+    void encode(T value, ByteArrayBuffer out) throws IOException;
+
+    /**
+     * @see <p>从字节数组的指定范围解码出数据</p>
+     */
+    T decode(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * @see <p>该类型的对象是否不可变，不可变的对象可以在多个调用方之间直接共享引用</p>
+     */
+    boolean isShareable();
+}
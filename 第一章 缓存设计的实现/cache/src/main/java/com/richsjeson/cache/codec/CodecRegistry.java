@@ -0,0 +1,166 @@
+package com.richsjeson.cache.codec;
+
+import android.graphics.Bitmap;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @see <p>编解码器注册表
+ * 1）按照数据的类型查找编解码器，找不到时实现了Serializable的类型使用java.io序列化兜底
+ * 2）每个编解码器有一个0~255的ID，{@link com.richsjeson.cache.disk.DiskLruCache}把它记录在日志的CLEAN记录中，
+ * {@link com.richsjeson.cache.disk.CacheEntry#read()}按照ID查找解码器；SegmentStore不记录ID，读取时由调用方指定解码器
+ * 3）0~31保留给内置的编解码器，自定义的编解码器从32开始
+ * </p>
+ */
+public final class CodecRegistry {
+
+    public static final int MIN_CUSTOM_ID = 32;
+
+    private static final int MAX_ID = 255;
+
+    private static final CodecRegistry DEFAULT = new CodecRegistry();
+
+    private static final ThreadLocal<ByteArrayBuffer> LOCAL_BUFFER = new ThreadLocal<ByteArrayBuffer>() {
+        @Override
+        protected ByteArrayBuffer initialValue() {
+            return new ByteArrayBuffer(BufferPool.getDefault());
+        }
+    };
+
+    private final ConcurrentHashMap<Class<?>, Integer> idsByType
+            = new ConcurrentHashMap<Class<?>, Integer>();
+
+    private final ConcurrentHashMap<Codec<?>, Integer> idsByCodec
+            = new ConcurrentHashMap<Codec<?>, Integer>();
+
+    private final Codec<?>[] codecsById = new Codec<?>[MAX_ID + 1];
+
+    private final Weigher<?>[] weighersById = new Weigher<?>[MAX_ID + 1];
+
+    /**
+     * @see <p>进程内共享的默认注册表，已注册所有内置的编解码器</p>
+     */
+    public static CodecRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public CodecRegistry() {
+        registerInternal(Codecs.ID_SERIALIZABLE, Serializable.class, Codecs.SERIALIZABLE);
+        registerInternal(Codecs.ID_STRING, String.class, Codecs.STRING);
+        registerInternal(Codecs.ID_BYTES, byte[].class, Codecs.BYTES);
+        registerInternal(Codecs.ID_INTEGER, Integer.class, Codecs.INTEGER);
+        registerInternal(Codecs.ID_LONG, Long.class, Codecs.LONG);
+        registerInternal(Codecs.ID_SHORT, Short.class, Codecs.SHORT);
+        registerInternal(Codecs.ID_BYTE, Byte.class, Codecs.BYTE);
+        registerInternal(Codecs.ID_CHARACTER, Character.class, Codecs.CHARACTER);
+        registerInternal(Codecs.ID_BOOLEAN, Boolean.class, Codecs.BOOLEAN);
+        registerInternal(Codecs.ID_FLOAT, Float.class, Codecs.FLOAT);
+        registerInternal(Codecs.ID_DOUBLE, Double.class, Codecs.DOUBLE);
+        registerInternal(Codecs.ID_BITMAP, Bitmap.class, new BitmapCodec());
+        registerWeigher(Codecs.ID_STRING, Codecs.STRING_WEIGHER);
+        for (int id = Codecs.ID_INTEGER; id <= Codecs.ID_DOUBLE; id++) {
+            registerWeigher(id, Codecs.BOXED_WEIGHER);
+        }
+    }
+
+    /**
+     * @see <p>注册自定义的编解码器</p>
+     * @param id 编解码器的ID，范围{@link #MIN_CUSTOM_ID}~255，写入磁盘后不能再修改
+     * @param type 数据的类型，只匹配完全相同的类型
+     */
+    public <T> void register(int id, Class<T> type, Codec<T> codec) {
+        if (id < MIN_CUSTOM_ID || id > MAX_ID) {
+            throw new IllegalArgumentException("id must be in [" + MIN_CUSTOM_ID + ", " + MAX_ID + "]: " + id);
+        }
+        registerInternal(id, type, codec);
+    }
+
+    private synchronized void registerInternal(int id, Class<?> type, Codec<?> codec) {
+        if (type == null || codec == null) {
+            throw new NullPointerException("type == null || codec == null");
+        }
+        if (codecsById[id] != null) {
+            throw new IllegalStateException("codec id already registered: " + id);
+        }
+        codecsById[id] = codec;
+        idsByType.put(type, id);
+        idsByCodec.put(codec, id);
+    }
+
+    /**
+     * @see <p>为已注册的编解码器设置Weigher，替换原有的Weigher</p>
+     * @param id 编解码器的ID
+     */
+    public synchronized <T> void registerWeigher(int id, Weigher<T> weigher) {
+        if (weigher == null) {
+            throw new NullPointerException("weigher == null");
+        }
+        if (id < 0 || id > MAX_ID || codecsById[id] == null) {
+            throw new IllegalArgumentException("unknown codec id: " + id);
+        }
+        weighersById[id] = weigher;
+    }
+
+    /**
+     * @see <p>按照编解码器ID查找Weigher</p>
+     * @return 没有注册时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Weigher<T> weigherFor(int id) {
+        return id >= 0 && id <= MAX_ID ? (Weigher<T>) weighersById[id] : null;
+    }
+
+    /**
+     * @see <p>返回该类型对应的编解码器ID</p>
+     * @throws IllegalArgumentException 没有对应的编解码器，并且类型没有实现Serializable
+     */
+    public int idFor(Class<?> type) {
+        Integer id = idsByType.get(type);
+        if (id != null) {
+            return id;
+        }
+        if (Serializable.class.isAssignableFrom(type)) {
+            return Codecs.ID_SERIALIZABLE;
+        }
+        throw new IllegalArgumentException("no codec registered for " + type.getName());
+    }
+
+    /**
+     * @see <p>返回已注册的编解码器的ID，用于把ID与数据一起保存</p>
+     * @return 没有注册时返回{@link Codecs#ID_NONE}
+     */
+    public int idOf(Codec<?> codec) {
+        Integer id = idsByCodec.get(codec);
+        return id != null ? id : Codecs.ID_NONE;
+    }
+
+    /**
+     * @see <p>按照ID查找编解码器</p>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> codecFor(int id) {
+        Codec<?> codec = id >= 0 && id <= MAX_ID ? codecsById[id] : null;
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown codec id: " + id);
+        }
+        return (Codec<T>) codec;
+    }
+
+    /**
+     * @see <p>按照类型查找编解码器</p>
+     */
+    public <T> Codec<T> codecFor(Class<?> type) {
+        return codecFor(idFor(type));
+    }
+
+    /**
+     * @see <p>当前线程复用的编码缓冲区，使用前会被清空。内部数组来自{@link BufferPool}，
+     * 用完后需要调用{@link ByteArrayBuffer#release()}归还</p>
+     */
+    public static ByteArrayBuffer localBuffer() {
+        ByteArrayBuffer buffer = LOCAL_BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+}
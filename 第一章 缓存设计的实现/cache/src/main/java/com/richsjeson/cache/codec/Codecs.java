@@ -0,0 +1,263 @@
+package com.richsjeson.cache.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+/**
+ * @see <p>内置的编解码器
+ * 1）String：直接写入UTF-8字节
+ * 2）byte[]：原样写入
+ * 3）基本类型的包装类：定长大端序
+ * 4）其他实现了Serializable的对象：使用java.io序列化，仅作为兜底
+ * 5）String与包装类以引用方式保存时，使用对应的Weigher估算占用的字节数
+ * </p>
+ */
+public final class Codecs {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 内置编解码器的ID，会写入磁盘，不能修改
+     */
+    public static final int ID_SERIALIZABLE = 0;
+    public static final int ID_STRING = 1;
+    public static final int ID_BYTES = 2;
+    public static final int ID_INTEGER = 3;
+    public static final int ID_LONG = 4;
+    public static final int ID_SHORT = 5;
+    public static final int ID_BYTE = 6;
+    public static final int ID_CHARACTER = 7;
+    public static final int ID_BOOLEAN = 8;
+    public static final int ID_FLOAT = 9;
+    public static final int ID_DOUBLE = 10;
+    public static final int ID_BITMAP = 11;
+
+    /**
+     * 没有记录编解码器：直接通过输出流写入的数据，或者旧版本日志中的数据
+     */
+    public static final int ID_NONE = -1;
+
+    private Codecs() {
+    }
+
+    public static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public void encode(String value, ByteArrayBuffer out) {
+            out.writeUtf8(value);
+        }
+
+        @Override
+        public String decode(byte[] data, int offset, int length) {
+            return new String(data, offset, length, UTF_8);
+        }
+
+        @Override
+        public boolean isShareable() {
+            return true;
+        }
+    };
+
+    public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+        @Override
+        public void encode(byte[] value, ByteArrayBuffer out) {
+            out.write(value, 0, value.length);
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int offset, int length) {
+            byte[] value = new byte[length];
+            System.arraycopy(data, offset, value, 0, length);
+            return value;
+        }
+
+        @Override
+        public boolean isShareable() {
+            //数组可以被调用方修改，必须拷贝
+            return false;
+        }
+    };
+
+    public static final Codec<Integer> INTEGER = new PrimitiveCodec<Integer>() {
+        @Override
+        public void encode(Integer value, ByteArrayBuffer out) {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 4);
+            return readInt(data, offset);
+        }
+    };
+
+    public static final Codec<Long> LONG = new PrimitiveCodec<Long>() {
+        @Override
+        public void encode(Long value, ByteArrayBuffer out) {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 8);
+            return readLong(data, offset);
+        }
+    };
+
+    public static final Codec<Short> SHORT = new PrimitiveCodec<Short>() {
+        @Override
+        public void encode(Short value, ByteArrayBuffer out) {
+            out.write(value >>> 8);
+            out.write(value);
+        }
+
+        @Override
+        public Short decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 2);
+            return (short) (((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff));
+        }
+    };
+
+    public static final Codec<Byte> BYTE = new PrimitiveCodec<Byte>() {
+        @Override
+        public void encode(Byte value, ByteArrayBuffer out) {
+            out.write(value);
+        }
+
+        @Override
+        public Byte decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 1);
+            return data[offset];
+        }
+    };
+
+    public static final Codec<Character> CHARACTER = new PrimitiveCodec<Character>() {
+        @Override
+        public void encode(Character value, ByteArrayBuffer out) {
+            out.write(value >>> 8);
+            out.write(value);
+        }
+
+        @Override
+        public Character decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 2);
+            return (char) (((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff));
+        }
+    };
+
+    public static final Codec<Boolean> BOOLEAN = new PrimitiveCodec<Boolean>() {
+        @Override
+        public void encode(Boolean value, ByteArrayBuffer out) {
+            out.write(value ? 1 : 0);
+        }
+
+        @Override
+        public Boolean decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 1);
+            return data[offset] != 0;
+        }
+    };
+
+    public static final Codec<Float> FLOAT = new PrimitiveCodec<Float>() {
+        @Override
+        public void encode(Float value, ByteArrayBuffer out) {
+            out.writeInt(Float.floatToIntBits(value));
+        }
+
+        @Override
+        public Float decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 4);
+            return Float.intBitsToFloat(readInt(data, offset));
+        }
+    };
+
+    public static final Codec<Double> DOUBLE = new PrimitiveCodec<Double>() {
+        @Override
+        public void encode(Double value, ByteArrayBuffer out) {
+            out.writeLong(Double.doubleToLongBits(value));
+        }
+
+        @Override
+        public Double decode(byte[] data, int offset, int length) throws IOException {
+            checkLength(length, 8);
+            return Double.longBitsToDouble(readLong(data, offset));
+        }
+    };
+
+    public static final Codec<Serializable> SERIALIZABLE = new Codec<Serializable>() {
+        @Override
+        public void encode(Serializable value, ByteArrayBuffer out) throws IOException {
+            ObjectOutputStream stream = new ObjectOutputStream(out);
+            stream.writeObject(value);
+            stream.flush();
+        }
+
+        @Override
+        public Serializable decode(byte[] data, int offset, int length) throws IOException {
+            ObjectInputStream stream = new ObjectInputStream(
+                    new ByteArrayInputStream(data, offset, length));
+            try {
+                return (Serializable) stream.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e.toString());
+            } finally {
+                stream.close();
+            }
+        }
+
+        @Override
+        public boolean isShareable() {
+            return false;
+        }
+    };
+
+    /**
+     * @see <p>String的权重：对象头与字段约40字节，字符按UTF-16每个2字节</p>
+     */
+    public static final Weigher<String> STRING_WEIGHER = new Weigher<String>() {
+        @Override
+        public int weigh(String value) {
+            return 40 + (value.length() << 1);
+        }
+    };
+
+    /**
+     * @see <p>基本类型包装类的权重，对象头加上最多8字节的值</p>
+     */
+    public static final Weigher<Object> BOXED_WEIGHER = new Weigher<Object>() {
+        @Override
+        public int weigh(Object value) {
+            return 16;
+        }
+    };
+
+    /**
+     * @see <p>基本类型包装类的编解码器，包装类都是不可变的</p>
+     */
+    private abstract static class PrimitiveCodec<T> implements Codec<T> {
+        @Override
+        public boolean isShareable() {
+            return true;
+        }
+    }
+
+    private static void checkLength(int length, int expected) throws IOException {
+        if (length != expected) {
+            throw new IOException("unexpected length: " + length + ", expected " + expected);
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24)
+                | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8)
+                | (data[offset + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xffffffffL);
+    }
+}
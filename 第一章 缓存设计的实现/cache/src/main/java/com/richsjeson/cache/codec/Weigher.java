@@ -0,0 +1,15 @@
+package com.richsjeson.cache.codec;
+
+/**
+ * @see <p>估算数据在Java堆中占用的字节数
+ * 1）以引用方式保存在内存缓存中的数据没有编码后的长度，由对应编解码器的Weigher计算权重
+ * 2）通过{@link CodecRegistry#registerWeigher}按照编解码器ID注册
+ * </p>
+ */
+public interface Weigher<T> {
+
+    /**
+     * @see <p>返回数据占用的字节数，不能为负数</p>
+     */
+    int weigh(T value);
+}
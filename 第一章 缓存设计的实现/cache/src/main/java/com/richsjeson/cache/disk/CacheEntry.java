@@ -1,8 +1,11 @@
 package com.richsjeson.cache.disk;
 
-import android.util.Log;
-
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.CodecRegistry;
+import com.richsjeson.cache.codec.Codecs;
 import com.richsjeson.cache.interf.DiskFacade;
+import com.richsjeson.cache.stats.StatsRecorder;
 import com.richsjeson.cache.utils.FileUtils;
 
 import java.io.File;
@@ -16,6 +19,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 
 /**
@@ -57,11 +63,28 @@ public class CacheEntry{
      * @see <p></p>
      */
     private long oldSize;
+    /**
+     * @serialField <p>已提交数据的编解码器ID，由{@link DiskLruCache}记录在日志中</p>
+     */
+    private int codecId = Codecs.ID_NONE;
+    /**
+     * @serialField <p>写入后、提交前数据的编解码器ID，直接使用输出流写入时没有ID</p>
+     */
+    private int pendingCodecId = Codecs.ID_NONE;
+    /**
+     * @see <p>所属磁盘缓存的统计，记录编解码读写的字节数与延迟，可以为空</p>
+     */
+    private final StatsRecorder stats;
 
     public CacheEntry(DiskFacade facade,String mKey){
+        this(facade, mKey, null);
+    }
+
+    CacheEntry(DiskFacade facade,String mKey,StatsRecorder stats){
 
         this.mKey=mKey;
         this.facade=facade;
+        this.stats=stats;
     }
 
     private static  String inputStreamToString(InputStream in) throws IOException {
@@ -87,6 +110,7 @@ public class CacheEntry{
             if (!mIsEditor) {
                 mIsEditor=true;
             }
+            pendingCodecId = Codecs.ID_NONE;
             return new FaultHidingOutputStream(new FileOutputStream(getDirtyFile(index)));
         }
     }
@@ -107,6 +131,177 @@ public class CacheEntry{
     }
 
 
+    /**
+     * @see <p>使用编解码器将value编码后一次性写入文件</p>
+     */
+    public <T> CacheEntry write(int index, T value, Codec<T> codec) throws IOException {
+        long startTime = stats != null ? stats.startTimer() : 0;
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+        int written;
+        try {
+            codec.encode(value, buffer);
+            written = buffer.size();
+            OutputStream out = newOutputStream(index);
+            try {
+                buffer.writeTo(out);
+            } finally {
+                FileUtils.closeQuietly(out);
+            }
+        } finally {
+            buffer.release();
+        }
+        pendingCodecId = CodecRegistry.getDefault().idOf(codec);
+        if (stats != null) {
+            stats.recordBytesWritten(written);
+            stats.recordPut(startTime);
+        }
+        return this;
+    }
+
+    /**
+     * @see <p>读取已提交的数据，并使用编解码器解码，没有数据时返回null</p>
+     */
+    public <T> T read(Codec<T> codec) throws IOException {
+        long startTime = stats != null ? stats.startTimer() : 0;
+        if (isMappedReads()) {
+            ByteBuffer mapping = map();
+            if (mapping != null) {
+                return decode(mapping, codec, startTime);
+            }
+        }
+        InputStream in = getInputStream();
+        if (in == null) {
+            return null;
+        }
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+        try {
+            buffer.ensureCapacity((int) getCacheFile().length() + 1);
+            buffer.readFrom(in);
+            if (stats != null) {
+                stats.recordBytesRead(buffer.size());
+            }
+            return codec.decode(buffer.buffer(), 0, buffer.size());
+        } finally {
+            buffer.release();
+            FileUtils.closeQuietly(in);
+            if (stats != null) {
+                stats.recordGet(startTime);
+            }
+        }
+    }
+
+    /**
+     * @see <p>按照提交时记录的编解码器ID读取并解码，没有数据时返回null</p>
+     * @throws IOException 数据没有记录编解码器ID，例如直接通过输出流写入或来自旧版本的日志
+     */
+    public Object read() throws IOException {
+        int id = getCodecId();
+        if (id == Codecs.ID_NONE) {
+            throw new IOException("no codec recorded for " + mKey);
+        }
+        Codec<Object> codec = CodecRegistry.getDefault().codecFor(id);
+        return read(codec);
+    }
+
+    /**
+     * @see <p>从映射中解码，数据直接从页缓存复制到缓冲区，不经过read系统调用</p>
+     */
+    private <T> T decode(ByteBuffer mapping, Codec<T> codec, long startTime) throws IOException {
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+        try {
+            int length = mapping.remaining();
+            buffer.ensureCapacity(length);
+            mapping.get(buffer.buffer(), 0, length);
+            if (stats != null) {
+                stats.recordBytesRead(length);
+            }
+            return codec.decode(buffer.buffer(), 0, length);
+        } finally {
+            buffer.release();
+            if (stats != null) {
+                stats.recordGet(startTime);
+            }
+        }
+    }
+
+    /**
+     * @see <p>已提交数据的只读视图，文件由{@link MappedFileCache#getDefault()}映射，
+     * 同一个文件的多次读取共用一个映射。没有数据，或者文件过大无法映射时返回null</p>
+     */
+    public ByteBuffer map() throws IOException {
+        return MappedFileCache.getDefault().map(getCacheFile());
+    }
+
+    /**
+     * @see <p>把已提交的数据全部写入target，使用FileChannel.transferTo，数据由内核从页缓存直接发送到
+     * socket或管道（sendfile），不经过Java堆。target是非阻塞的通道时，可能在写满后提前返回，
+     * 此时用{@link #transferTo(long, long, WritableByteChannel)}从返回的位置继续</p>
+     * @return 写入的字节数，没有已提交的数据时返回-1
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        FileInputStream in;
+        synchronized (facade) {
+            if (!isReadable()) {
+                return -1;
+            }
+            in = new FileInputStream(getCacheFile());
+        }
+        //整个发送过程使用同一个打开的文件，提交新数据时文件被替换，不影响已经打开的文件
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long transferred = 0;
+            while (transferred < size) {
+                long count = channel.transferTo(transferred, size - transferred, target);
+                if (count <= 0) {
+                    break;
+                }
+                transferred += count;
+            }
+            if (stats != null) {
+                stats.recordBytesRead(transferred);
+            }
+            return transferred;
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @see <p>从数据的position处开始，最多写入count个字节，只调用一次transferTo，写入的字节数可能少于count</p>
+     * @return 写入的字节数，position不小于数据的长度时返回0，没有已提交的数据时返回-1
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position < 0 || count < 0");
+        }
+        FileInputStream in;
+        synchronized (facade) {
+            if (!isReadable()) {
+                return -1;
+            }
+            in = new FileInputStream(getCacheFile());
+        }
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (position >= size) {
+                return 0;
+            }
+            long transferred = channel.transferTo(position, Math.min(count, size - position), target);
+            if (stats != null) {
+                stats.recordBytesRead(transferred);
+            }
+            return transferred;
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    private boolean isMappedReads() {
+        return facade instanceof DiskLruCache && ((DiskLruCache) facade).isMappedReads();
+    }
+
     /**
      * Returns the last committed value as a string, or null if no value
      * has been committed.
@@ -132,8 +327,10 @@ public class CacheEntry{
             if (dirty.exists()) {
                 File clean = getCacheFile();
                 dirty.renameTo(clean);
+                MappedFileCache.getDefault().invalidate(clean);
                 oldSize = mSize;
                 mSize = clean.length();
+                codecId = pendingCodecId;
                 facade.commit(this);
             } else {
                 abort();
@@ -143,15 +340,16 @@ public class CacheEntry{
     }
 
     /**
-     * @see <p>执行事务的回滚</p>
+     * @see <p>执行事务的回滚，只删除临时文件，条目的记录由{@link DiskFacade#abort(CacheEntry)}处理</p>
      */
     public void abort() throws IOException {
         if (!mIsEditor) {
             throw new IOException("CacheEntry has been closed.");
         }
         //移除文件
+        FileUtils.deleteIfExists(getDirtyFile(0));
         FileUtils.deleteIfExists(getTempFile());
-        facade.abort(this);
+        mIsEditor = false;
     }
     /**
      * @see <p>获取一个文件条目</p>
@@ -159,7 +357,6 @@ public class CacheEntry{
      * @return
      */
     private File getCleanFile(int i) {
-        Log.i(this.getClass().getName(),"mKey");
         return new File(facade.getDirectory(), mKey + "." + "_" + i);
     }
 
@@ -175,6 +372,7 @@ public class CacheEntry{
         if (mIsEditor) {
             throw new IOException("Try to delete an cache entry that has been being editing.");
         }
+        MappedFileCache.getDefault().invalidate(getCacheFile());
         FileUtils.deleteIfExists(getCacheFile());
         FileUtils.deleteIfExists(getTempFile());
         return true;
@@ -187,8 +385,15 @@ public class CacheEntry{
     /**
      * Returns an unbuffered input stream to read the last committed value,
      * or null if no value has been committed.
+     * @see <p>开启映射读取时，返回的流直接读取映射</p>
      */
     public InputStream getInputStream() throws IOException {
+        if (isMappedReads()) {
+            ByteBuffer mapping = map();
+            if (mapping != null) {
+                return new ByteBufferInputStream(mapping);
+            }
+        }
         synchronized (facade) {
             if (!isReadable()) {
                 return null;
@@ -255,7 +460,6 @@ public class CacheEntry{
      * @return
      */
     public File getCacheFile() {
-        Log.i(this.getClass().getName(),"mkey:="+mKey);
         return new File(facade.getDirectory(), mKey);
     }
 
@@ -267,10 +471,28 @@ public class CacheEntry{
         return mSize;
     }
 
+    /**
+     * @see <p>最近一次提交之前的文件大小</p>
+     */
+    long getOldSize() {
+        return oldSize;
+    }
+
     public String getType() {
         return type;
     }
 
+    /**
+     * @see <p>已提交数据的编解码器ID，没有记录时为{@link Codecs#ID_NONE}</p>
+     */
+    public int getCodecId() {
+        return codecId;
+    }
+
+    void setCodecId(int codecId) {
+        this.codecId = codecId;
+    }
+
     public void setmSize(long mSize) {
         this.mSize = mSize;
     }
@@ -0,0 +1,62 @@
+package com.richsjeson.cache.disk;
+
+/**
+ * @see <p>CRC32C（Castagnoli）校验和
+ * 1）Java 9之前以及Android上没有java.util.zip.CRC32C，这里按查表法实现
+ * 2）使用slicing-by-4，每次处理4个字节，比逐字节查表快约3倍
+ * 3）多项式0x1EDC6F41（反转后为0x82F63B78），对随机错误与截断的检出率高于CRC32
+ * </p>
+ */
+final class Crc32c {
+
+    private static final int POLY = 0x82F63B78;
+
+    private static final int[][] TABLES = new int[4][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            int crc = TABLES[0][i];
+            for (int t = 1; t < 4; t++) {
+                crc = TABLES[0][crc & 0xff] ^ (crc >>> 8);
+                TABLES[t][i] = crc;
+            }
+        }
+    }
+
+    private Crc32c() {
+    }
+
+    /**
+     * @see <p>计算data[offset, offset + length)的CRC32C</p>
+     */
+    static int compute(byte[] data, int offset, int length) {
+        int[] t0 = TABLES[0];
+        int[] t1 = TABLES[1];
+        int[] t2 = TABLES[2];
+        int[] t3 = TABLES[3];
+        int crc = 0xFFFFFFFF;
+        int i = offset;
+        int end = offset + length;
+        for (; end - i >= 4; i += 4) {
+            crc ^= (data[i] & 0xff)
+                    | (data[i + 1] & 0xff) << 8
+                    | (data[i + 2] & 0xff) << 16
+                    | (data[i + 3] & 0xff) << 24;
+            crc = t3[crc & 0xff]
+                    ^ t2[(crc >>> 8) & 0xff]
+                    ^ t1[(crc >>> 16) & 0xff]
+                    ^ t0[crc >>> 24];
+        }
+        for (; i < end; i++) {
+            crc = t0[(crc ^ data[i]) & 0xff] ^ (crc >>> 8);
+        }
+        return ~crc;
+    }
+}
@@ -18,34 +18,42 @@ package com.richsjeson.cache.disk;
 
 import android.util.Log;
 
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.Codecs;
 import com.richsjeson.cache.interf.DiskFacade;
+import com.richsjeson.cache.interf.RemovalCause;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.stats.StatsRecorder;
+import com.richsjeson.cache.stats.TierStats;
 import com.richsjeson.cache.utils.FileUtils;
+import com.richsjeson.cache.utils.RemovalExecutor;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Writer;
 import java.lang.reflect.Array;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
- * @see <p>磁盘缓存管理</p>
+ * @see <p>磁盘缓存管理
+ * 日志为带校验的二进制格式（见{@link JournalWriter}），打开旧版本的文本日志时自动转换为二进制格式
+ * </p>
  */
 public final class DiskLruCache implements Closeable,DiskFacade {
     static final String JOURNAL_FILE = "journal";
@@ -54,13 +62,16 @@ public final class DiskLruCache implements Closeable,DiskFacade {
     static final String JOURNAL_FILE_BACKUP = "journal.bkp";
     static final String VERSION_1 = "1";
     static final long ANY_SEQUENCE_NUMBER = -1;
+    /**
+     * @serialField <p>以下为文本日志的记录类型，只在转换旧日志时使用</p>
+     */
     private static final String CLEAN = "CLEAN";
     private static final String DIRTY = "DIRTY";
     private static final String REMOVE = "REMOVE";
     private static final String READ = "READ";
+    private static final String TAG = "DiskLruCache";
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
-    private static final int IO_BUFFER_SIZE = 8 * 1024;
 
     /** This cache uses a single background thread to evict entries. */
     private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
@@ -69,19 +80,38 @@ public final class DiskLruCache implements Closeable,DiskFacade {
     private final File directory;
     private final File journalFile;
     private final File journalFileTmp;
+    private final File journalFileBackup;
     private final int appVersion;
     private final long maxSize;
     private final int valueCount;
     private long size = 0;
-    private Writer journalWriter;
+    private JournalAppender journalWriter;
+    /**
+     * @serialField <p>日志合并写入的窗口与是否fsync，见{@link #setJournalCommit}</p>
+     */
+    private long journalWindowMillis = JournalAppender.DEFAULT_WINDOW_MILLIS;
+    private boolean journalSync;
+    /**
+     * @serialField <p>是否通过内存映射读取条目，见{@link #setMappedReads}</p>
+     */
+    private volatile boolean mappedReads;
     private final LinkedHashMap<String, CacheEntry> lruEntries
             = new LinkedHashMap<String, CacheEntry>(0, 0.75f, true);
     private int redundantOpCount;
+    /**
+     * @serialField <p>移除监听器，在移除线程池中先于文件删除执行，此时仍可读取文件</p>
+     */
+    private volatile RemovalListener<CacheEntry> removalListener;
+
+    private volatile Executor removalExecutor;
+    /**
+     * @serialField <p>命中、写入、淘汰的统计；读写的字节数与延迟由{@link CacheEntry}在读写文件时记录</p>
+     */
+    private final StatsRecorder stats;
 
     /**
-     * To differentiate between old and current snapshots, each entry is given
-     * a sequence number each time an edit is committed. A snapshot is stale if
-     * its sequence number is not equal to its entry's sequence number.
+     * @serialField <p>日志记录的序列号，每写一条记录加1，重建日志后继续递增。
+     * 读取日志时序列号必须递增，否则视为尾部损坏</p>
      */
     private long nextSequenceNumber = 0;
 
@@ -120,11 +150,14 @@ public final class DiskLruCache implements Closeable,DiskFacade {
         }
     };
 
-    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize,
+                         StatsRecorder stats) {
         this.directory = directory;
+        this.stats = stats;
         this.appVersion = appVersion;
         this.journalFile = new File(directory, JOURNAL_FILE);
         this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
     }
@@ -141,6 +174,23 @@ public final class DiskLruCache implements Closeable,DiskFacade {
      */
     public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize)
             throws IOException {
+        return open(directory, appVersion, valueCount, maxSize, new StatsRecorder());
+    }
+
+    /**
+     * @see <p>使用指定的统计打开缓存，{@link ShardedDiskLruCache}的所有分片共用一份统计</p>
+     */
+    static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize,
+                             StatsRecorder stats) throws IOException {
+        return open(directory, appVersion, valueCount, maxSize, stats, true);
+    }
+
+    /**
+     * @param deleteIfCorrupt 日志无法读取时是否删除整个目录后重新创建；为false时抛出异常，目录中的文件保持不变，
+     * 用于目录中还有其他数据（例如{@link ShardedDiskLruCache}的分片）的情况
+     */
+    static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize,
+                             StatsRecorder stats, boolean deleteIfCorrupt) throws IOException {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
@@ -162,17 +212,27 @@ public final class DiskLruCache implements Closeable,DiskFacade {
             }
         }
 
+        //同一进程中之前打开的缓存留下的映射可能已经过期
+        MappedFileCache.getDefault().invalidateDirectory(directory);
+
         // prefer to pick up where we left off
-        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, stats);
         if (cache.journalFile.exists()) {
             Log.i("com.richsjeson.cache.disk.DiskLruCache","cache.journalFile.exists");
             try {
-                cache.readJournal();
+                boolean rebuild = cache.readJournal();
                 cache.processJournal();
-                cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true),
-                        IO_BUFFER_SIZE);
+                if (rebuild) {
+                    //文本日志转换为二进制，或丢弃尾部损坏的记录
+                    cache.rebuildJournal();
+                } else {
+                    cache.journalWriter = cache.newJournalAppender();
+                }
                 return cache;
             } catch (IOException journalIsCorrupt) {
+                if (!deleteIfCorrupt) {
+                    throw journalIsCorrupt;
+                }
                 Log.e("DiskLruCache ", directory + " is corrupt: "
                         + journalIsCorrupt.getMessage() + ", removing");
                 cache.delete();
@@ -181,7 +241,7 @@ public final class DiskLruCache implements Closeable,DiskFacade {
         Log.i("com.richsjeson.cache.disk.DiskLruCache","repl");
         // create a new empty cache
         directory.mkdirs();
-        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, stats);
         cache.rebuildJournal();
         return cache;
     }
@@ -196,123 +256,191 @@ public final class DiskLruCache implements Closeable,DiskFacade {
         }
     }
     /**
-     * @see <p>读取journal文件</p>
-     * @throws IOException
+     * @see <p>读取journal文件，尾部不完整的记录被忽略，之前的记录仍然有效</p>
+     * @return 需要重建日志时返回true：日志是旧的文本格式或旧版本，或者尾部有损坏的记录
+     * @throws IOException 文件头不匹配或无法读取
      */
-    private void readJournal() {
+    private boolean readJournal() throws IOException {
+        JournalReader reader = new JournalReader(journalFile);
+        if (reader.startsWith((MAGIC + "\n").getBytes(UTF_8))) {
+            Log.i(TAG, "migrating text journal in " + directory);
+            readTextJournal(reader.data());
+            return true;
+        }
+        reader.readHeader(appVersion, valueCount);
+        while (reader.next()) {
+            replayRecord(reader.op(), reader.key(), reader.size(), reader.codecId());
+            redundantOpCount++;
+        }
+        redundantOpCount -= lruEntries.size();
+        nextSequenceNumber = reader.sequence() + 1;
+        if (reader.isTruncated()) {
+            Log.w(TAG, "journal truncated at " + reader.validLength() + " of "
+                    + reader.length() + " bytes, dropping the torn tail");
+            return true;
+        }
+        //旧版本的日志不能追加带有编解码器ID的记录
+        return reader.version() != JournalWriter.VERSION;
+    }
+
+    /**
+     * @see <p>读取旧版本的文本日志。旧日志的文件头与CLEAN记录的字段数都不固定，
+     * 这里宽松地解析：跳过文件头到第一个空行，遇到无法识别的行即停止</p>
+     */
+    private void readTextJournal(byte[] data) throws IOException {
+        InputStream in = new ByteArrayInputStream(data);
         try {
-            InputStream in = new BufferedInputStream(new FileInputStream(journalFile), IO_BUFFER_SIZE);
-            try {
-                String magic = FileUtils.readAsciiLine(in);
-                String version = FileUtils.readAsciiLine(in);
-                String appVersionString = FileUtils.readAsciiLine(in);
-                String valueCountString = FileUtils.readAsciiLine(in);
-                String blank = FileUtils.readAsciiLine(in);
-                if (!MAGIC.equals(magic)
-                        || !VERSION_1.equals(version)
-                        || !Integer.toString(appVersion).equals(appVersionString)
-                        || !Integer.toString(valueCount).equals(valueCountString)
-                        || !"".equals(blank)) {
-                    throw new IOException("unexpected journal header: ["
-                            + magic + ", " + version + ", " + valueCountString + ", " + blank + "]");
+            while (!"".equals(FileUtils.readAsciiLine(in))) {
+                //文件头
+            }
+            while (true) {
+                String[] parts = FileUtils.readAsciiLine(in).split(" ");
+                if (parts.length < 2) {
+                    break;
                 }
-
-                while (true) {
-                    try {
-                        readJournalLine(FileUtils.readAsciiLine(in));
-                    } catch (EOFException endOfJournal) {
-                        break;
-                    }
+                if (parts[0].equals(CLEAN) && parts.length >= 3) {
+                    replayRecord(JournalWriter.CLEAN, parts[1], Long.parseLong(parts[2]), Codecs.ID_NONE);
+                } else if (parts[0].equals(DIRTY)) {
+                    replayRecord(JournalWriter.DIRTY, parts[1], 0, Codecs.ID_NONE);
+                } else if (parts[0].equals(REMOVE)) {
+                    replayRecord(JournalWriter.REMOVE, parts[1], 0, Codecs.ID_NONE);
+                } else if (parts[0].equals(READ)) {
+                    replayRecord(JournalWriter.READ, parts[1], 0, Codecs.ID_NONE);
+                } else {
+                    break;
                 }
-            } finally {
-                FileUtils.closeQuietly(in);
             }
-        }catch (Exception e){
-            e.printStackTrace();
+        } catch (EOFException endOfJournal) {
+            //读取完毕
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "unexpected text journal line, ignoring the rest: " + e.getMessage());
         }
     }
 
     /**
-     * @see <p>读取journalLine：读取文件中的内容且已去除一些杂质的内容</p>
-     * @param line
-     * @throws IOException
+     * @see <p>重放一条日志记录。DIRTY之后没有CLEAN或REMOVE的条目在{@link #processJournal()}中处理</p>
      */
-    private void readJournalLine(String line) throws IOException {
-        String[] parts = line.split(" ");
-        if (parts.length < 2) {
-            throw new IOException("unexpected journal line: " + line);
-        }
-
-        String key = parts[1];
-        if (parts[0].equals(REMOVE) && parts.length == 2) {
+    private void replayRecord(byte op, String key, long recordSize, int codecId) {
+        if (op == JournalWriter.REMOVE) {
             lruEntries.remove(key);
             return;
         }
-
+        //get同时把条目移到访问顺序的末尾，READ记录不需要再做别的处理
         CacheEntry entry = lruEntries.get(key);
         if (entry == null) {
-            entry = new CacheEntry(this,key);
+            entry = new CacheEntry(this, key, stats);
             lruEntries.put(key, entry);
         }
-        if (parts[0].equals(CLEAN) && parts.length == 2 + valueCount) {
-            entry.setmSize(Long.parseLong(parts[2]));
-        } else if (parts[0].equals(DIRTY)) {
-            // skip
-        } else if (parts[0].equals(READ)) {
-            // this work was already done by calling mLruEntries.get()
-        } else {
-            throw new IOException("unexpected journal line: " + line);
+        if (op == JournalWriter.CLEAN) {
+            entry.setmSize(recordSize);
+            entry.setCodecId(codecId);
+            entry.setmIsEditor(false);
+        } else if (op == JournalWriter.DIRTY) {
+            entry.setmIsEditor(true);
         }
     }
 
     /**
      * @see <p>
      *     计算初始尺寸，并收集垃圾作为打开的一部分
-         高速缓存。脏条目被假定为不一致，将被删除。
+         高速缓存。脏条目被假定为不一致：删除未完成的临时文件，
+         之前提交过的文件仍然可读时保留，大小以文件为准
      * </p>
      */
     private void processJournal() throws IOException {
         FileUtils.deleteIfExists(journalFileTmp);
         for (Iterator<CacheEntry> i = lruEntries.values().iterator(); i.hasNext(); ) {
             CacheEntry cacheEntry = i.next();
-            if (!cacheEntry.ismIsEditor()) {
-                size += cacheEntry.getmSize();
-            } else {
-                cacheEntry.delete();
-                i.remove();
+            if (cacheEntry.ismIsEditor()) {
+                cacheEntry.abort();
+                if (!cacheEntry.isReadable()) {
+                    i.remove();
+                    continue;
+                }
+                cacheEntry.setmSize(cacheEntry.getCacheFile().length());
             }
+            size += cacheEntry.getmSize();
         }
     }
 
     /**
      * Creates a new journal that omits redundant information. This replaces the
      * current journal if it exists.
+     * @see <p>新日志写入journal.tmp后再替换，替换前旧日志先改名为journal.bkp，
+     * 替换过程中进程被杀时{@link #open}从备份恢复</p>
      */
     private synchronized void rebuildJournal() throws IOException {
         if (journalWriter != null) {
             journalWriter.close();
         }
 
-        Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
-        writer.write(MAGIC);
-        writer.write("\n");
-        writer.write(VERSION_1);
-        writer.write("\n");
-        writer.write(Integer.toString(1));
-        writer.write("\n");
-        writer.write("\n");
-
-        for (CacheEntry cacheEntry : lruEntries.values()) {
-            if (cacheEntry.ismIsEditor()) {
-                writer.write(DIRTY + ' ' + cacheEntry.getmKey() + " " + cacheEntry.getmSize() + '\n');
-            } else {
-                writer.write(CLEAN + ' ' + cacheEntry.getmKey() + " " + cacheEntry.getmSize() + '\n');
+        JournalWriter writer = new JournalWriter(journalFileTmp, false, appVersion, valueCount);
+        try {
+            for (CacheEntry cacheEntry : lruEntries.values()) {
+                if (cacheEntry.ismIsEditor()) {
+                    writer.append(JournalWriter.DIRTY, cacheEntry.getmKey(), 0, Codecs.ID_NONE,
+                            nextSequenceNumber++);
+                } else {
+                    writer.append(JournalWriter.CLEAN, cacheEntry.getmKey(), cacheEntry.getmSize(),
+                            cacheEntry.getCodecId(), nextSequenceNumber++);
+                }
             }
+        } finally {
+            writer.close();
         }
 
-        writer.close();
-        journalFileTmp.renameTo(journalFile);
-        journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        if (journalFile.exists()) {
+            renameTo(journalFile, journalFileBackup, false);
+        }
+        renameTo(journalFileTmp, journalFile, false);
+        journalFileBackup.delete();
+        journalWriter = newJournalAppender();
+        redundantOpCount = 0;
+    }
+
+    private JournalAppender newJournalAppender() throws IOException {
+        return new JournalAppender(new JournalWriter(journalFile, true, appVersion, valueCount),
+                journalWindowMillis, journalSync);
+    }
+
+    /**
+     * @see <p>设置日志的合并写入：日志记录先放入内存，由后台线程每windowMillis毫秒合并写入一次。
+     * 写入线程不再等待磁盘，代价是进程被杀时最后一个窗口内的记录会丢失，对应的条目在重新打开后不可见。
+     * 需要确认写入时调用{@link #flush()}</p>
+     * @param windowMillis 合并的窗口，不大于0时不使用后台线程，只在缓冲区满或{@link #flush()}时写入
+     * @param sync 每次写入后是否调用fsync
+     */
+    public synchronized void setJournalCommit(long windowMillis, boolean sync) {
+        this.journalWindowMillis = windowMillis;
+        this.journalSync = sync;
+        if (journalWriter != null) {
+            journalWriter.setWindowMillis(windowMillis);
+            journalWriter.setSync(sync);
+        }
+    }
+
+    /**
+     * @see <p>设置读取方式：开启后{@link CacheEntry#read}与{@link CacheEntry#getInputStream()}
+     * 通过{@link MappedFileCache#getDefault()}映射条目的文件，反复读取的热点数据不再打开文件与调用read，
+     * 映射的个数与总字节数由映射缓存限制。适合读多写少、单个文件较大的数据</p>
+     */
+    public void setMappedReads(boolean mappedReads) {
+        this.mappedReads = mappedReads;
+    }
+
+    public boolean isMappedReads() {
+        return mappedReads;
+    }
+
+    /**
+     * @see <p>追加一条日志记录，调用时需持有锁</p>
+     */
+    private void appendJournal(byte op, String key, long recordSize) throws IOException {
+        appendJournal(op, key, recordSize, Codecs.ID_NONE);
+    }
+
+    private void appendJournal(byte op, String key, long recordSize, int codecId) throws IOException {
+        journalWriter.append(op, key, recordSize, codecId, nextSequenceNumber++);
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -331,14 +459,70 @@ public final class DiskLruCache implements Closeable,DiskFacade {
         }
 
         // delete at once
-        cacheEntry.delete();
-        size -= cacheEntry.getmSize();
-        cacheEntry.setmSize(0);
-        lruEntries.remove(key);
-        journalWriter.write(REMOVE + ' ' + FileUtils.generate(cacheEntry.getmKey()) + ' ' + cacheEntry.getmSize() + '\n');
+        removeEntry(cacheEntry);
         return true;
     }
 
+    /**
+     * @see <p>移除条目并记录REMOVE，文件在后台删除，调用时需持有锁</p>
+     */
+    private void removeEntry(CacheEntry cacheEntry) throws IOException {
+        if (cacheEntry.ismIsEditor()) {
+            throw new IOException("Try to delete an cache entry that has been being editing.");
+        }
+        size -= cacheEntry.getmSize();
+        lruEntries.remove(cacheEntry.getmKey());
+        redundantOpCount++;
+        appendJournal(JournalWriter.REMOVE, cacheEntry.getmKey(), 0);
+        scheduleDelete(cacheEntry, RemovalCause.EXPLICIT);
+    }
+
+    /**
+     * @see <p>在移除线程池中先通知监听器，再删除文件。删除前重新检查，
+     * 同名的条目已经重新写入时，文件属于新的条目，不再删除</p>
+     */
+    private void scheduleDelete(final CacheEntry cacheEntry, final RemovalCause cause) {
+        final RemovalListener<CacheEntry> listener = removalListener;
+        Executor executor = removalExecutor;
+        RemovalExecutor.execute(executor != null ? executor : RemovalExecutor.getDefault(), new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null) {
+                    try {
+                        listener.onRemoval(cacheEntry.getmKey(), cacheEntry, cause);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                synchronized (DiskLruCache.this) {
+                    if (lruEntries.containsKey(cacheEntry.getmKey())) {
+                        return;
+                    }
+                    try {
+                        cacheEntry.delete();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @see <p>设置移除监听器，条目被淘汰或删除时在后台线程中回调，回调之后才删除文件。
+     * 同名写入直接覆盖文件，不会产生{@link RemovalCause#REPLACED}通知</p>
+     */
+    public void setRemovalListener(RemovalListener<CacheEntry> listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * @see <p>设置通知监听器与删除文件的线程池，为空时使用{@link RemovalExecutor#getDefault()}</p>
+     */
+    public void setRemovalExecutor(Executor executor) {
+        this.removalExecutor = executor;
+    }
+
     /**
      * Returns the maximum number of bytes that this cache should use to store
      * its data.
@@ -381,7 +565,7 @@ public final class DiskLruCache implements Closeable,DiskFacade {
     }
 
     /**
-     *@see <p>同步数据到DISK 缓存中</p>
+     *@see <p>同步数据到DISK 缓存中，返回时所有日志记录都已写入文件，不等待合并写入的窗口</p>
      */
     public synchronized void flush() throws IOException {
         checkNotClosed();
@@ -390,60 +574,189 @@ public final class DiskLruCache implements Closeable,DiskFacade {
 
     }
 
+    /**
+     * @see <p>key为{@link FileUtils#generate}生成的文件名，日志中记录的也是该文件名</p>
+     * @return 没有该条目时返回null
+     */
     @Override
-    public CacheEntry getEntry(String key) throws IOException {
+    public synchronized CacheEntry getEntry(String key) throws IOException {
         checkNotClosed();
         validateKey(key);
         CacheEntry cacheEntry = lruEntries.get(key);
         if (cacheEntry == null) {
-            CacheEntry ce=new CacheEntry(this,key);
-            lruEntries.put(key,ce);
+            stats.recordMiss();
+            return null;
         }
-
-        trimToSize();
-        journalWriter.write(READ + ' ' + cacheEntry.getmKey() + ' ' + cacheEntry.getmSize() + '\n');
+        stats.recordHit();
+        redundantOpCount++;
+        appendJournal(JournalWriter.READ, cacheEntry.getmKey(), 0);
         return cacheEntry;
     }
 
+    /**
+     * @see <p>批量查找，只返回已存在的条目，READ记录在同一次加锁内写入日志</p>
+     */
     @Override
-    public CacheEntry editor(String key) throws IOException {
+    public synchronized Map<String, CacheEntry> getAll(Collection<String> keys) throws IOException {
+        checkNotClosed();
+        Map<String, CacheEntry> result = new LinkedHashMap<String, CacheEntry>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            validateKey(key);
+            CacheEntry cacheEntry = lruEntries.get(key);
+            if (cacheEntry != null) {
+                stats.recordHit();
+                result.put(key, cacheEntry);
+                appendJournal(JournalWriter.READ, key, 0);
+            } else {
+                stats.recordMiss();
+            }
+        }
+        redundantOpCount += result.size();
+        return result;
+    }
+
+    /**
+     * @see <p>key为{@link FileUtils#generate}生成的文件名</p>
+     */
+    @Override
+    public synchronized CacheEntry editor(String key) throws IOException {
         checkNotClosed();
         validateKey(key);
         CacheEntry cacheEntry = lruEntries.get(key);
         if (cacheEntry == null) {
-            cacheEntry = new CacheEntry(this, FileUtils.generate(key));
+            cacheEntry = new CacheEntry(this, key, stats);
             lruEntries.put(key, cacheEntry);
         }
-        //表明当前在写入，写入时，将key生成为MD5的格式，提交时，Value的值为MD5模块下的路径的值
-        journalWriter.write(DIRTY + ' ' + cacheEntry.getmKey() + ' ' + cacheEntry.getmSize() + '\n');
+        //表明当前在写入，提交时记录CLEAN
+        appendJournal(JournalWriter.DIRTY, cacheEntry.getmKey(), 0);
         return cacheEntry;
     }
 
+    /**
+     * @see <p>在同一次加锁内写入文件并提交，写入失败时回滚。
+     * 同一个key不会有两个线程同时写入临时文件</p>
+     * @return 是否写入成功
+     */
     @Override
-    public void abort(CacheEntry cacheEntry) {
+    public synchronized <T> boolean put(String key, T value, Codec<T> codec) throws IOException {
+        checkNotClosed();
+        CacheEntry cacheEntry = editor(key);
         try {
-            cacheEntry.abort();
+            cacheEntry.write(0, value, codec);
+            cacheEntry.commit();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            abort(cacheEntry);
+            return false;
+        }
+    }
+
+    /**
+     * @see <p>批量写入：在同一次加锁内写入所有文件，日志由后台线程合并写入，
+     * 单个条目写入失败时回滚该条目，不影响其他条目</p>
+     * @return 写入成功的条目数
+     */
+    @Override
+    public synchronized <T> int putAll(Map<String, T> values, Codec<T> codec) throws IOException {
+        checkNotClosed();
+        int written = 0;
+        for (Map.Entry<String, T> value : values.entrySet()) {
+            if (put(value.getKey(), value.getValue(), codec)) {
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @see <p>批量删除，正在写入的条目不会被删除</p>
+     * @return 删除的条目数
+     */
+    @Override
+    public synchronized int removeAll(Collection<String> keys) throws IOException {
+        checkNotClosed();
+        int removed = 0;
+        for (String key : keys) {
+            validateKey(key);
+            CacheEntry cacheEntry = lruEntries.get(key);
+            if (cacheEntry == null || cacheEntry.ismIsEditor()) {
+                continue;
+            }
+            removeEntry(cacheEntry);
+            removed++;
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void abort(CacheEntry cacheEntry) {
+        try {
+            if (cacheEntry.ismIsEditor()) {
+                cacheEntry.abort();
+            }
+            //从未提交过的条目没有可读的文件，不再保留
+            if (!cacheEntry.isReadable() && lruEntries.get(cacheEntry.getmKey()) == cacheEntry) {
+                lruEntries.remove(cacheEntry.getmKey());
+                appendJournal(JournalWriter.REMOVE, cacheEntry.getmKey(), 0);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     @Override
-    public void abort(String key) {
+    public synchronized void abort(String key) {
         CacheEntry cacheEntry = lruEntries.get(key);
         if (cacheEntry != null) {
-            try {
-                cacheEntry.abort();
-            } catch (IOException e) {
-                e.printStackTrace();
+            abort(cacheEntry);
+        }
+    }
+
+    /**
+     * @see <p>按访问顺序返回已提交的条目，最久没有使用的在前，用于把未分片的缓存迁移到{@link ShardedDiskLruCache}</p>
+     */
+    synchronized List<CacheEntry> cleanEntries() {
+        List<CacheEntry> entries = new ArrayList<CacheEntry>(lruEntries.size());
+        for (CacheEntry cacheEntry : lruEntries.values()) {
+            if (!cacheEntry.ismIsEditor()) {
+                entries.add(cacheEntry);
             }
         }
+        return entries;
+    }
+
+    /**
+     * @see <p>接收其他目录中已提交的文件：文件改名到本目录并记录CLEAN，不经过编辑与写入，用于迁移。
+     * 本缓存已有该key时保留本缓存的版本</p>
+     * @param codecId 原条目记录的编解码器ID
+     * @return 文件被移入时返回true；文件不存在或改名失败时返回false
+     */
+    synchronized boolean adopt(String key, File file, long fileSize, int codecId) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        if (lruEntries.containsKey(key)) {
+            return false;
+        }
+        CacheEntry cacheEntry = new CacheEntry(this, key, stats);
+        if (!file.renameTo(cacheEntry.getCacheFile())) {
+            return false;
+        }
+        cacheEntry.setmSize(fileSize);
+        cacheEntry.setCodecId(codecId);
+        lruEntries.put(key, cacheEntry);
+        size += fileSize;
+        appendJournal(JournalWriter.CLEAN, key, fileSize, codecId);
+        trimToSize();
+        return true;
     }
 
     @Override
-    public void commit(CacheEntry cacheEntry) throws IOException {
-        size += cacheEntry.getmSize() - cacheEntry.getmSize();
-        journalWriter.write(CLEAN + ' ' + cacheEntry.getmKey() + ' ' + cacheEntry.getmSize() + '\n');
+    public synchronized void commit(CacheEntry cacheEntry) throws IOException {
+        size += cacheEntry.getmSize() - cacheEntry.getOldSize();
+        stats.recordPut();
+        appendJournal(JournalWriter.CLEAN, cacheEntry.getmKey(), cacheEntry.getmSize(),
+                cacheEntry.getCodecId());
         trimToSize();
     }
 
@@ -463,9 +776,23 @@ public final class DiskLruCache implements Closeable,DiskFacade {
         return directory;
     }
 
+    /**
+     * @see <p>淘汰权重为被淘汰文件的字节数；通过{@link CacheEntry#read}与{@link CacheEntry#write}
+     * 读写的数据计入读写字节数，直接使用输入输出流的读写不计入</p>
+     */
+    @Override
+    public TierStats stats() {
+        return stats.snapshot();
+    }
 
     @Override
-    public boolean has(String key) {
+    public void setRecordLatency(boolean recordLatency) {
+        stats.setRecordLatency(recordLatency);
+    }
+
+
+    @Override
+    public synchronized boolean has(String key) {
         return lruEntries.containsKey(key);
     }
 
@@ -485,6 +812,7 @@ public final class DiskLruCache implements Closeable,DiskFacade {
         lruEntries.clear();
         size = 0;
         // rebuild
+        MappedFileCache.getDefault().invalidateDirectory(directory);
         FileUtils.deleteDirectory(directory);
         rebuildJournal();
     }
@@ -519,16 +847,15 @@ public final class DiskLruCache implements Closeable,DiskFacade {
             CacheEntry cacheEntry = toEvict.getValue();
             lruEntries.remove(key);
             size -= cacheEntry.getmSize();
+            stats.recordEviction(cacheEntry.getmSize());
+            redundantOpCount++;
             try {
-                journalWriter.write(REMOVE + ' ' + FileUtils.generate(cacheEntry.getmKey()) + ' ' + cacheEntry.getmSize() + '\n');
-
-                if (lruEntries.containsKey(cacheEntry.getmKey())) {
-                    return;
-                }
-                cacheEntry.delete();
+                appendJournal(JournalWriter.REMOVE, cacheEntry.getmKey(), 0);
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            //文件在后台删除，触发淘汰的写操作不等待文件系统
+            scheduleDelete(cacheEntry, RemovalCause.EVICTED);
 
         }
     }
@@ -541,6 +868,7 @@ public final class DiskLruCache implements Closeable,DiskFacade {
      */
     public void delete() throws IOException {
         close();
+        MappedFileCache.getDefault().invalidateDirectory(directory);
         //使用linux命令快速删除该目录
         FileUtils.deleteDirectory(directory);
 
@@ -0,0 +1,129 @@
+package com.richsjeson.cache.disk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @see <p>日志的合并写入（group commit）
+ * 1）写入线程只把记录追加到{@link JournalWriter}的缓冲区，不等待磁盘
+ * 2）窗口内的第一条记录安排一次后台写入，窗口结束时窗口内所有线程的记录一次写入文件，
+ * 需要时再调用一次fsync
+ * 3）所有缓存共用一个后台线程，空闲60秒后退出
+ * 4）未写入的数据超过{@link JournalWriter#MAX_PENDING}时由追加的线程立即写入，后台线程阻塞时内存不会无限增长
+ * 5）窗口不大于0时不使用后台线程，只在缓冲区超过上限或调用{@link #flush()}时写入
+ * </p>
+ */
+final class JournalAppender implements Closeable {
+
+    static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    private static volatile ScheduledThreadPoolExecutor sExecutor;
+
+    private final JournalWriter writer;
+
+    private volatile long windowMillis;
+
+    private volatile boolean sync;
+
+    /**
+     * @serialField <p>是否已经安排了后台写入，窗口内只安排一次</p>
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            try {
+                writer.flush(sync);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    JournalAppender(JournalWriter writer, long windowMillis, boolean sync) {
+        this.writer = writer;
+        this.windowMillis = windowMillis;
+        this.sync = sync;
+    }
+
+    /**
+     * @see <p>修改窗口，已经按旧窗口安排的写入按新窗口再安排一次，窗口缩短后不需要等到旧窗口结束</p>
+     */
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+        if (scheduled.get()) {
+            schedule(windowMillis);
+        }
+    }
+
+    void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    void append(byte op, String key, long size, int codecId, long sequence) throws IOException {
+        boolean full = writer.append(op, key, size, codecId, sequence);
+        if (full) {
+            writer.flush(sync);
+            return;
+        }
+        long window = windowMillis;
+        if (window > 0 && scheduled.compareAndSet(false, true)) {
+            schedule(window);
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            executor().schedule(flushTask, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //不会发生：共用的线程池不会被关闭
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @see <p>立即写入所有已追加的记录，返回时记录已经写入文件</p>
+     */
+    void flush() throws IOException {
+        writer.flush(sync);
+    }
+
+    /**
+     * @see <p>写入剩余的记录并关闭文件，之后到期的后台写入不做任何事</p>
+     */
+    @Override
+    public void close() throws IOException {
+        writer.flush(sync);
+        writer.close();
+    }
+
+    private static ScheduledThreadPoolExecutor executor() {
+        ScheduledThreadPoolExecutor executor = sExecutor;
+        if (executor == null) {
+            synchronized (JournalAppender.class) {
+                executor = sExecutor;
+                if (executor == null) {
+                    executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Cache-journal");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+                    executor.allowCoreThreadTimeOut(true);
+                    sExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+}
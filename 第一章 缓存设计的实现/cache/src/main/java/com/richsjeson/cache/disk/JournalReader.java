@@ -0,0 +1,235 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * @see <p>二进制日志的读取，格式见{@link JournalWriter}
+ * 1）整个文件一次读入内存后逐条解析，不按行切分也不解析数字字符串
+ * 2）遇到不完整或校验失败的记录（例如写入时进程被杀）即停止，之前的记录仍然有效，
+ * {@link #validLength()}为最后一条完整记录的结尾
+ * 3）序列号必须递增，旧数据残留在文件尾部时也能被识别出来
+ * </p>
+ */
+final class JournalReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+
+    private int position;
+
+    /**
+     * @serialField <p>解析时使用的游标，记录完整时才更新{@link #position}</p>
+     */
+    private int cursor;
+
+    private boolean corrupt;
+
+    private byte op;
+
+    private String key;
+
+    private long size;
+
+    private int codecId;
+
+    private int version;
+
+    private long sequence = -1;
+
+    JournalReader(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("journal too large: " + length);
+        }
+        data = new byte[(int) length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("journal shrank while reading: " + file);
+                }
+                read += n;
+            }
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @see <p>是否以指定的字节开头，用于识别旧的文本日志</p>
+     */
+    boolean startsWith(byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    byte[] data() {
+        return data;
+    }
+
+    /**
+     * @see <p>校验文件头，版本或参数不一致时抛出异常。{@link JournalWriter#VERSION_NO_CODEC}的日志仍然可以读取，
+     * 其中的记录都没有编解码器ID</p>
+     */
+    void readHeader(int appVersion, int valueCount) throws IOException {
+        cursor = 0;
+        if (data.length < 4 || readInt() != JournalWriter.MAGIC) {
+            throw new IOException("unexpected journal magic");
+        }
+        version = cursor < data.length ? data[cursor++] : -1;
+        long headerAppVersion = readVarint();
+        long headerValueCount = readVarint();
+        if (headerValueCount < 0 || data.length - cursor < 4) {
+            throw new IOException("truncated journal header");
+        }
+        int crc = Crc32c.compute(data, 0, cursor);
+        if (readInt() != crc) {
+            throw new IOException("journal header checksum mismatch");
+        }
+        if ((version != JournalWriter.VERSION && version != JournalWriter.VERSION_NO_CODEC)
+                || headerAppVersion != appVersion
+                || headerValueCount != valueCount) {
+            throw new IOException("unexpected journal header: [" + version + ", "
+                    + headerAppVersion + ", " + headerValueCount + "]");
+        }
+        position = cursor;
+    }
+
+    /**
+     * @see <p>读取下一条记录</p>
+     * @return 到达文件结尾或遇到损坏的记录时返回false
+     */
+    boolean next() {
+        if (corrupt || position >= data.length) {
+            return false;
+        }
+        cursor = position;
+        byte recordOp = data[cursor++];
+        if (recordOp < JournalWriter.CLEAN || recordOp > JournalWriter.READ) {
+            return stop();
+        }
+        long keyLength = readVarint();
+        if (keyLength <= 0 || keyLength > data.length - cursor) {
+            return stop();
+        }
+        int keyOffset = cursor;
+        cursor += (int) keyLength;
+        long recordSize = readVarint();
+        long recordCodec = version == JournalWriter.VERSION_NO_CODEC ? 0 : readVarint();
+        long recordSequence = readVarint();
+        if (recordSize < 0 || recordCodec < 0 || recordCodec > 256
+                || recordSequence <= sequence || data.length - cursor < 4) {
+            return stop();
+        }
+        int crc = Crc32c.compute(data, position, cursor - position);
+        if (readInt() != crc) {
+            return stop();
+        }
+        op = recordOp;
+        key = new String(data, keyOffset, (int) keyLength, UTF_8);
+        size = recordSize;
+        codecId = (int) recordCodec - 1;
+        sequence = recordSequence;
+        position = cursor;
+        return true;
+    }
+
+    byte op() {
+        return op;
+    }
+
+    String key() {
+        return key;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @see <p>记录中的编解码器ID，没有记录时为{@link com.richsjeson.cache.codec.Codecs#ID_NONE}</p>
+     */
+    int codecId() {
+        return codecId;
+    }
+
+    /**
+     * @see <p>文件头中的版本，在{@link #readHeader}之后有效</p>
+     */
+    int version() {
+        return version;
+    }
+
+    /**
+     * @see <p>最后一条有效记录的序列号，没有记录时为-1</p>
+     */
+    long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @see <p>文件尾部是否有不完整或损坏的数据</p>
+     */
+    boolean isTruncated() {
+        return corrupt;
+    }
+
+    /**
+     * @see <p>最后一条有效记录结尾的偏移量</p>
+     */
+    int validLength() {
+        return position;
+    }
+
+    int length() {
+        return data.length;
+    }
+
+    private boolean stop() {
+        corrupt = true;
+        return false;
+    }
+
+    /**
+     * @return 数据不完整或超过63位时返回-1
+     */
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (cursor >= data.length) {
+                return -1;
+            }
+            byte b = data[cursor++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    private int readInt() {
+        int value = (data[cursor] & 0xff) << 24
+                | (data[cursor + 1] & 0xff) << 16
+                | (data[cursor + 2] & 0xff) << 8
+                | (data[cursor + 3] & 0xff);
+        cursor += 4;
+        return value;
+    }
+}
@@ -0,0 +1,180 @@
+package com.richsjeson.cache.disk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * @see <p>二进制日志的写入
+ * 1）文件头：4字节魔数、1字节版本、varint的appVersion与valueCount、4字节CRC32C
+ * 2）每条记录：1字节操作码、varint的key长度、key的UTF-8字节、varint的文件大小（只有CLEAN不为0）、
+ * varint的编解码器ID加1（0表示没有记录，只有CLEAN可能不为0）、varint的序列号，最后是前面所有字节的CRC32C（4字节，大端）
+ * 3）记录先编码到内部的缓冲区，{@link #flush(boolean)}时一次写入文件，追加时不创建字符串也不经过字符编码器
+ * 4）使用两个缓冲区交替：写入文件时只持有写入锁，其他线程可以继续向另一个缓冲区追加记录
+ * </p>
+ */
+final class JournalWriter implements Closeable {
+
+    static final int MAGIC = 0x524A444C;
+
+    static final int VERSION = 3;
+
+    /**
+     * @serialField <p>记录中没有编解码器ID的旧版本，仍然可以读取，打开后重建为当前版本</p>
+     */
+    static final int VERSION_NO_CODEC = 2;
+
+    static final byte CLEAN = 1;
+
+    static final byte DIRTY = 2;
+
+    static final byte REMOVE = 3;
+
+    static final byte READ = 4;
+
+    /**
+     * @serialField <p>varint最长10个字节，加上操作码与校验和，单条记录除key以外不超过45个字节</p>
+     */
+    static final int MAX_VARINT_SIZE = 10;
+
+    private static final int RECORD_OVERHEAD = 1 + 4 * MAX_VARINT_SIZE + 4;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * @serialField <p>未写入的数据超过该值时，{@link #append}返回true，由调用方立即写入</p>
+     */
+    static final int MAX_PENDING = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * @serialField <p>同时作为写入锁，写入文件与关闭时持有；追加记录只持有this</p>
+     */
+    private final FileOutputStream out;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int count;
+
+    /**
+     * @serialField <p>正在写入文件的缓冲区，只在持有写入锁时使用</p>
+     */
+    private byte[] spare = new byte[BUFFER_SIZE];
+
+    private boolean closed;
+
+    /**
+     * @param append 为false时清空文件并写入文件头
+     */
+    JournalWriter(File file, boolean append, int appVersion, int valueCount) throws IOException {
+        out = new FileOutputStream(file, append);
+        if (!append) {
+            int start = count;
+            writeInt(MAGIC);
+            buffer[count++] = VERSION;
+            writeVarint(appVersion);
+            writeVarint(valueCount);
+            writeInt(Crc32c.compute(buffer, start, count - start));
+        }
+    }
+
+    /**
+     * @see <p>追加一条记录，只写入缓冲区，不会写入文件</p>
+     * @param codecId 数据的编解码器ID，没有记录时为{@link com.richsjeson.cache.codec.Codecs#ID_NONE}
+     * @return 未写入的数据超过{@link #MAX_PENDING}时返回true
+     */
+    synchronized boolean append(byte op, String key, long size, int codecId, long sequence) {
+        byte[] encoded = null;
+        int keyLength = key.length();
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) >= 0x80) {
+                encoded = key.getBytes(UTF_8);
+                keyLength = encoded.length;
+                break;
+            }
+        }
+        int required = RECORD_OVERHEAD + MAX_VARINT_SIZE + keyLength;
+        if (count + required > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, count + required)];
+            System.arraycopy(buffer, 0, grown, 0, count);
+            buffer = grown;
+        }
+        int start = count;
+        buffer[count++] = op;
+        writeVarint(keyLength);
+        if (encoded != null) {
+            System.arraycopy(encoded, 0, buffer, count, keyLength);
+            count += keyLength;
+        } else {
+            //文件名都是ASCII，直接按字节写入
+            for (int i = 0; i < keyLength; i++) {
+                buffer[count++] = (byte) key.charAt(i);
+            }
+        }
+        writeVarint(size);
+        writeVarint(codecId + 1);
+        writeVarint(sequence);
+        writeInt(Crc32c.compute(buffer, start, count - start));
+        return count >= MAX_PENDING;
+    }
+
+    /**
+     * @see <p>把已追加的记录一次写入文件，可以在任意线程调用</p>
+     * @param sync 是否在写入后调用fsync，确保断电后日志仍然完整
+     */
+    void flush(boolean sync) throws IOException {
+        synchronized (out) {
+            if (closed) {
+                return;
+            }
+            int length;
+            byte[] pending;
+            synchronized (this) {
+                length = count;
+                pending = buffer;
+                buffer = spare;
+                count = 0;
+                spare = pending;
+            }
+            if (length > 0) {
+                out.write(pending, 0, length);
+                if (sync) {
+                    out.getFD().sync();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (out) {
+            if (closed) {
+                return;
+            }
+            try {
+                flush(false);
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        buffer[count++] = (byte) (value >>> 24);
+        buffer[count++] = (byte) (value >>> 16);
+        buffer[count++] = (byte) (value >>> 8);
+        buffer[count++] = (byte) value;
+    }
+}
@@ -0,0 +1,206 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.stats.StripedCounter;
+import com.richsjeson.cache.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @see <p>只读内存映射的缓存，用于磁盘缓存的读取
+ * 1）文件第一次读取时用FileChannel.map整体映射，之后的读取直接访问映射，不再打开文件，也不经过read系统调用
+ * 2）映射按最近使用的顺序保存，同时限制文件个数与映射的总字节数，超过时丢弃最久没有使用的映射
+ * 3）Java无法主动解除映射，被丢弃的映射在没有引用后由GC解除，所以上限需要留有余量
+ * 4）文件被替换或删除时由写入方调用{@link #invalidate(File)}，正在映射的读取发现期间有失效时不保存结果
+ * 5）返回的是只读的视图，每个调用方有自己的position与limit，可以在多个线程中同时使用
+ * </p>
+ */
+public final class MappedFileCache {
+
+    static final int DEFAULT_MAX_FILES = 64;
+
+    static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final MappedFileCache DEFAULT = new MappedFileCache(DEFAULT_MAX_FILES, DEFAULT_MAX_BYTES);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final LinkedHashMap<File, MappedByteBuffer> mappings
+            = new LinkedHashMap<File, MappedByteBuffer>(0, 0.75f, true);
+
+    private int maxFiles;
+
+    private long maxBytes;
+
+    private long mappedBytes;
+
+    /**
+     * @serialField <p>失效的次数，映射期间该值变化时不保存映射</p>
+     */
+    private long invalidations;
+
+    private final StripedCounter hits = new StripedCounter();
+
+    private final StripedCounter misses = new StripedCounter();
+
+    public MappedFileCache(int maxFiles, long maxBytes) {
+        if (maxFiles <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxFiles <= 0 || maxBytes <= 0");
+        }
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @see <p>进程内共享的映射缓存，映射占用的是进程的虚拟地址空间，所以默认所有磁盘缓存共用一个上限</p>
+     */
+    public static MappedFileCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @see <p>返回整个文件的只读视图</p>
+     * @return 文件不存在，或者大于映射总字节数的上限时返回null，调用方应改用流读取
+     */
+    public ByteBuffer map(File file) throws IOException {
+        long generation;
+        synchronized (this) {
+            MappedByteBuffer mapping = mappings.get(file);
+            if (mapping != null) {
+                hits.increment();
+                return mapping.asReadOnlyBuffer();
+            }
+            generation = invalidations;
+        }
+        misses.increment();
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        MappedByteBuffer mapping;
+        try {
+            long length = raf.length();
+            if (length == 0) {
+                return EMPTY.duplicate();
+            }
+            if (length > maxBytes() || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            //映射建立后关闭文件不影响映射
+            mapping = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            FileUtils.closeQuietly(raf);
+        }
+        synchronized (this) {
+            if (generation == invalidations) {
+                MappedByteBuffer previous = mappings.put(file, mapping);
+                if (previous != null) {
+                    mappedBytes -= previous.capacity();
+                }
+                mappedBytes += mapping.capacity();
+                trimToSize();
+            }
+        }
+        return mapping.asReadOnlyBuffer();
+    }
+
+    /**
+     * @see <p>文件的一部分的只读视图，position为0，limit为length</p>
+     */
+    public ByteBuffer map(File file, long offset, int length) throws IOException {
+        ByteBuffer mapping = map(file);
+        if (mapping == null) {
+            return null;
+        }
+        if (offset < 0 || length < 0 || offset + length > mapping.capacity()) {
+            throw new IOException("range " + offset + "+" + length + " is outside of " + file);
+        }
+        mapping.position((int) offset);
+        mapping.limit((int) offset + length);
+        return mapping.slice();
+    }
+
+    /**
+     * @see <p>文件被替换、截断或删除后调用，之后的读取会重新映射</p>
+     */
+    public synchronized void invalidate(File file) {
+        invalidations++;
+        MappedByteBuffer mapping = mappings.remove(file);
+        if (mapping != null) {
+            mappedBytes -= mapping.capacity();
+        }
+    }
+
+    /**
+     * @see <p>使目录中所有文件的映射失效，例如清空或重新打开磁盘缓存时</p>
+     */
+    public synchronized void invalidateDirectory(File directory) {
+        invalidations++;
+        for (Iterator<Map.Entry<File, MappedByteBuffer>> i = mappings.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<File, MappedByteBuffer> entry = i.next();
+            if (directory.equals(entry.getKey().getParentFile())) {
+                mappedBytes -= entry.getValue().capacity();
+                i.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations++;
+        mappings.clear();
+        mappedBytes = 0;
+    }
+
+    public synchronized void resize(int maxFiles, long maxBytes) {
+        if (maxFiles <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxFiles <= 0 || maxBytes <= 0");
+        }
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<MappedByteBuffer> i = mappings.values().iterator();
+        while ((mappings.size() > maxFiles || mappedBytes > maxBytes) && i.hasNext()) {
+            mappedBytes -= i.next().capacity();
+            i.remove();
+        }
+    }
+
+    private synchronized long maxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int mappedFileCount() {
+        return mappings.size();
+    }
+
+    public synchronized long mappedBytes() {
+        return mappedBytes;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("MappedFileCache[files=%d,bytes=%d,hits=%d,misses=%d]",
+                mappings.size(), mappedBytes, hitCount(), missCount());
+    }
+}
@@ -0,0 +1,155 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.Codecs;
+import com.richsjeson.cache.stats.StatsRecorder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @see <p>{@link SegmentStore}中的条目，数据是段文件中的一段，没有单独的文件
+ * 1）位置（所在的段、数据的偏移量与记录的长度）由SegmentStore在持有锁时修改，压缩时会移动到新的段
+ * 2）写入时先把编码后的数据暂存在内存中，提交时一次追加到当前的段
+ * 3）{@link #getCacheFile()}等文件相关的方法对该条目没有意义
+ * </p>
+ */
+final class SegmentEntry extends CacheEntry {
+
+    private final SegmentStore store;
+
+    /**
+     * @serialField <p>所在的段，还没有提交或已经被删除时为空</p>
+     */
+    SegmentStore.Segment segment;
+
+    long valueOffset;
+
+    int recordLength;
+
+    /**
+     * @serialField <p>写入后、提交前的数据</p>
+     */
+    private ByteArrayBuffer pending;
+
+    SegmentEntry(SegmentStore store, String key, StatsRecorder stats) {
+        super(store, key, stats);
+        this.store = store;
+    }
+
+    @Override
+    public InputStream newInputStream(int index) throws IOException {
+        return getInputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        byte[] data = store.read(this, Codecs.BYTES);
+        return data != null ? new ByteArrayInputStream(data) : null;
+    }
+
+    @Override
+    public ByteBuffer map() throws IOException {
+        return store.map(this);
+    }
+
+    /**
+     * @see <p>段文件由SegmentStore保持打开，每次发送前重新读取位置，压缩移动数据后从新的段继续</p>
+     */
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (true) {
+            long count = store.transferTo(this, transferred, Long.MAX_VALUE, target);
+            if (count < 0) {
+                return transferred == 0 ? -1 : transferred;
+            }
+            if (count == 0) {
+                return transferred;
+            }
+            transferred += count;
+        }
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position < 0 || count < 0");
+        }
+        return store.transferTo(this, position, count, target);
+    }
+
+    @Override
+    public OutputStream newOutputStream(int index) {
+        synchronized (store) {
+            pending = new ByteArrayBuffer();
+            setmIsEditor(true);
+            return pending;
+        }
+    }
+
+    /**
+     * @see <p>编码后暂存，提交时才写入段文件</p>
+     */
+    @Override
+    public <T> CacheEntry write(int index, T value, Codec<T> codec) throws IOException {
+        ByteArrayBuffer buffer = new ByteArrayBuffer();
+        codec.encode(value, buffer);
+        synchronized (store) {
+            pending = buffer;
+            setmIsEditor(true);
+        }
+        return this;
+    }
+
+    @Override
+    public <T> T read(Codec<T> codec) throws IOException {
+        return store.read(this, codec);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        store.commit(this);
+    }
+
+    @Override
+    public void abort() throws IOException {
+        synchronized (store) {
+            if (!ismIsEditor()) {
+                throw new IOException("CacheEntry has been closed.");
+            }
+            pending = null;
+            setmIsEditor(false);
+        }
+    }
+
+    /**
+     * @see <p>段中的数据由SegmentStore写入删除记录，压缩时回收，这里不需要删除文件</p>
+     */
+    @Override
+    public boolean delete() throws IOException {
+        return true;
+    }
+
+    @Override
+    public boolean isReadable() {
+        synchronized (store) {
+            return segment != null;
+        }
+    }
+
+    /**
+     * @see <p>取出待提交的数据并结束编辑，调用时需持有SegmentStore的锁</p>
+     */
+    ByteArrayBuffer takePending() {
+        ByteArrayBuffer buffer = pending;
+        pending = null;
+        setmIsEditor(false);
+        return buffer;
+    }
+}
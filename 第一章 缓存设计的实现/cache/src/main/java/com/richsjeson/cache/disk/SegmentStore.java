@@ -0,0 +1,1035 @@
+package com.richsjeson.cache.disk;
+
+import android.util.Log;
+
+import com.richsjeson.cache.codec.BufferPool;
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.CodecRegistry;
+import com.richsjeson.cache.codec.Codecs;
+import com.richsjeson.cache.interf.DiskFacade;
+import com.richsjeson.cache.stats.StatsRecorder;
+import com.richsjeson.cache.stats.TierStats;
+import com.richsjeson.cache.utils.FileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @see <p>日志结构的磁盘缓存，适合大量的小数据
+ * 1）所有数据追加写入少量的大文件（段），每次写入只是一次追加，不需要创建、改名与删除文件
+ * 2）内存中的索引记录每个key所在的段、偏移量与长度，按访问顺序淘汰
+ * 3）每条记录自带key与CRC32C，段本身就是日志，打开时按顺序扫描所有段重建索引，尾部不完整的记录被截掉
+ * 4）删除与淘汰只追加一条删除记录；有效数据低于{@link #MIN_LIVE_PERCENT}%的段由后台线程压缩：
+ * 在锁外把有效的记录复制到新文件，再替换原来的段，段的编号不变，重放的顺序也不变
+ * 5）{@link #flush()}对写入过的段各调用一次fsync，而不是每个文件一次
+ * 6）写满的段不再修改，开启{@link #setMappedReads}后整体映射，条目的读取只是映射中的一段
+ * </p>
+ */
+public final class SegmentStore implements Closeable, DiskFacade {
+
+    static final String SEGMENT_PREFIX = "segment-";
+
+    /**
+     * @serialField <p>压缩中的段的临时文件，替换完成前进程退出时留下的文件在打开时删除</p>
+     */
+    static final String COMPACT_PREFIX = "compact-";
+
+    static final int MAGIC = 0x524A5347;
+
+    static final int VERSION = 1;
+
+    /**
+     * @serialField <p>段文件头：4字节魔数与1字节版本</p>
+     */
+    static final int HEADER_SIZE = 5;
+
+    static final byte PUT = 1;
+
+    static final byte DELETE = 2;
+
+    static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * @serialField <p>有效数据的比例低于该值时压缩该段</p>
+     */
+    static final int MIN_LIVE_PERCENT = 50;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final String TAG = "SegmentStore";
+
+    /**
+     * @see <p>一个段文件，长度与有效字节数只在持有SegmentStore的锁时修改</p>
+     */
+    static final class Segment {
+
+        final int id;
+
+        final File file;
+
+        private RandomAccessFile raf;
+
+        private FileChannel channel;
+
+        long length;
+
+        /**
+         * @serialField <p>仍被索引引用的记录的字节数</p>
+         */
+        long liveBytes;
+
+        Segment(File file, int id) throws IOException {
+            this.id = id;
+            this.file = file;
+            open();
+        }
+
+        private void open() throws IOException {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+
+        FileChannel channel() {
+            return channel;
+        }
+
+        /**
+         * @see <p>读取线程被中断时FileChannel会被关闭，重新打开后其他线程可以继续读取</p>
+         */
+        void reopenIfClosed() throws IOException {
+            if (!channel.isOpen()) {
+                FileUtils.closeQuietly(raf);
+                open();
+            }
+        }
+
+        void close() {
+            FileUtils.closeQuietly(raf);
+        }
+    }
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final long segmentSize;
+
+    private final StatsRecorder stats = new StatsRecorder();
+
+    private final LinkedHashMap<String, SegmentEntry> index
+            = new LinkedHashMap<String, SegmentEntry>(0, 0.75f, true);
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    /**
+     * @serialField <p>上一次fsync之后写入过的段</p>
+     */
+    private final List<Segment> unsynced = new ArrayList<Segment>();
+
+    private Segment active;
+
+    /**
+     * @serialField <p>所有有效数据的字节数，不含记录头与已删除的数据</p>
+     */
+    private long size;
+
+    private boolean closed;
+
+    private boolean compactionScheduled;
+
+    private volatile boolean mappedReads;
+
+    /** This cache uses a single background thread to compact segments. */
+    private final ExecutorService compactor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Cache-compaction");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final Runnable compactTask = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Segment segment;
+                synchronized (SegmentStore.this) {
+                    segment = closed ? null : sparseSegment();
+                    if (segment == null) {
+                        compactionScheduled = false;
+                        return;
+                    }
+                }
+                //读取与复制不持有锁，读写可以继续进行
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    synchronized (SegmentStore.this) {
+                        compactionScheduled = false;
+                    }
+                    return;
+                }
+            }
+        }
+    };
+
+    private SegmentStore(File directory, long maxSize, long segmentSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+    }
+
+    public static SegmentStore open(File directory, long maxSize) throws IOException {
+        return open(directory, maxSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory 段文件保存在该目录中，文件名为segment-0、segment-1……
+     * @param maxSize 有效数据的最大字节数，段文件中已删除的数据在压缩前会额外占用空间
+     * @param segmentSize 单个段的大小，超过后写入新的段
+     * @throws IOException 无法创建或读取段文件
+     */
+    public static SegmentStore open(File directory, long maxSize, long segmentSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize <= " + HEADER_SIZE);
+        }
+        directory.mkdirs();
+        //截断与压缩会改变同名的段文件，之前打开时留下的映射不再有效
+        MappedFileCache.getDefault().invalidateDirectory(directory);
+        SegmentStore store = new SegmentStore(directory, maxSize, segmentSize);
+        synchronized (store) {
+            store.load();
+            store.trimToSize();
+        }
+        return store;
+    }
+
+    /**
+     * @see <p>按编号顺序扫描所有段，重放其中的记录</p>
+     */
+    private void load() throws IOException {
+        TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+        File[] list = directory.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        //不是段文件
+                    }
+                } else if (name.startsWith(COMPACT_PREFIX)) {
+                    FileUtils.deleteIfExists(file);
+                }
+            }
+        }
+        byte[] data = null;
+        for (Map.Entry<Integer, File> file : files.entrySet()) {
+            Segment segment = new Segment(file.getValue(), file.getKey());
+            long length = segment.channel().size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("segment too large: " + file.getValue());
+            }
+            if (data == null || data.length < length) {
+                data = new byte[(int) length];
+            }
+            readFully(segment.channel(), data, 0, (int) length, 0);
+            if (length < HEADER_SIZE || readInt(data, 0) != MAGIC || data[4] != VERSION) {
+                Log.w(TAG, "dropping segment with unexpected header: " + file.getValue());
+                segment.close();
+                FileUtils.deleteIfExists(file.getValue());
+                continue;
+            }
+            segments.put(segment.id, segment);
+            int valid = replay(segment, data, (int) length);
+            if (valid < length) {
+                Log.w(TAG, "segment " + segment.id + " truncated at " + valid + " of " + length
+                        + " bytes, dropping the torn tail");
+                segment.channel().truncate(valid);
+            }
+            segment.length = valid;
+        }
+        if (segments.isEmpty()) {
+            active = newSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+            if (active.length >= segmentSize) {
+                active = newSegment(active.id + 1);
+            }
+        }
+    }
+
+    /**
+     * @see <p>重放一个段中的记录</p>
+     * @return 最后一条完整记录结尾的偏移量
+     */
+    private int replay(Segment segment, byte[] data, int length) {
+        int position = HEADER_SIZE;
+        int[] cursor = new int[1];
+        while (position < length) {
+            cursor[0] = position;
+            byte op = data[cursor[0]++];
+            long keyLength = readVarint(data, length, cursor);
+            if ((op != PUT && op != DELETE) || keyLength <= 0 || keyLength > length - cursor[0]) {
+                break;
+            }
+            int keyOffset = cursor[0];
+            cursor[0] += (int) keyLength;
+            long valueLength = readVarint(data, length, cursor);
+            if (valueLength < 0 || valueLength > length - cursor[0] - 4) {
+                break;
+            }
+            int valueOffset = cursor[0];
+            int end = valueOffset + (int) valueLength;
+            if (readInt(data, end) != Crc32c.compute(data, position, end - position)) {
+                break;
+            }
+            String key = new String(data, keyOffset, (int) keyLength, UTF_8);
+            int recordLength = end + 4 - position;
+            if (op == PUT) {
+                SegmentEntry entry = index.get(key);
+                if (entry == null) {
+                    entry = new SegmentEntry(this, key, stats);
+                    index.put(key, entry);
+                } else {
+                    unlink(entry);
+                }
+                link(entry, segment, valueOffset, recordLength, (int) valueLength);
+            } else {
+                SegmentEntry entry = index.remove(key);
+                if (entry != null) {
+                    unlink(entry);
+                }
+            }
+            position += recordLength;
+        }
+        return position;
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = new Segment(new File(directory, SEGMENT_PREFIX + id), id);
+        byte[] header = new byte[HEADER_SIZE];
+        writeInt(header, 0, MAGIC);
+        header[4] = VERSION;
+        segment.channel().truncate(0);
+        writeFully(segment.channel(), header, HEADER_SIZE, 0);
+        segment.length = HEADER_SIZE;
+        segments.put(id, segment);
+        unsynced.add(segment);
+        return segment;
+    }
+
+    /**
+     * @see <p>追加一条记录，当前的段已满时先换到新的段</p>
+     * @return 记录在段中的偏移量
+     */
+    private long append(byte op, String key, byte[] value, int offset, int valueLength) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int headerLength = 1 + varintSize(keyBytes.length) + keyBytes.length + varintSize(valueLength);
+        int recordLength = headerLength + valueLength + 4;
+        if (active.length > HEADER_SIZE && active.length + recordLength > segmentSize) {
+            active = newSegment(active.id + 1);
+        }
+        BufferPool pool = BufferPool.getDefault();
+        byte[] record = pool.acquire(recordLength);
+        try {
+            int position = 0;
+            record[position++] = op;
+            position = writeVarint(record, position, keyBytes.length);
+            System.arraycopy(keyBytes, 0, record, position, keyBytes.length);
+            position += keyBytes.length;
+            position = writeVarint(record, position, valueLength);
+            System.arraycopy(value, offset, record, position, valueLength);
+            position += valueLength;
+            writeInt(record, position, Crc32c.compute(record, 0, position));
+            writeFully(active.channel(), record, recordLength, active.length);
+        } finally {
+            pool.release(record);
+        }
+        long recordOffset = active.length;
+        active.length += recordLength;
+        if (!unsynced.contains(active)) {
+            unsynced.add(active);
+        }
+        return recordOffset;
+    }
+
+    /**
+     * @see <p>写入一个值并更新索引，调用时需持有锁</p>
+     */
+    private void writeValue(SegmentEntry entry, byte[] value, int valueLength) throws IOException {
+        long recordOffset = append(PUT, entry.getmKey(), value, 0, valueLength);
+        int recordLength = (int) (active.length - recordOffset);
+        SegmentEntry old = index.put(entry.getmKey(), entry);
+        if (old != null) {
+            unlink(old);
+        }
+        if (old != entry) {
+            unlink(entry);
+        }
+        link(entry, active, recordOffset + recordLength - 4 - valueLength, recordLength, valueLength);
+        stats.recordPut();
+        stats.recordBytesWritten(valueLength);
+        trimToSize();
+    }
+
+    private void link(SegmentEntry entry, Segment segment, long valueOffset, int recordLength, int valueLength) {
+        entry.segment = segment;
+        entry.valueOffset = valueOffset;
+        entry.recordLength = recordLength;
+        entry.setmSize(valueLength);
+        segment.liveBytes += recordLength;
+        size += valueLength;
+    }
+
+    /**
+     * @see <p>把条目从所在的段中移除，该段变得稀疏时安排压缩</p>
+     */
+    private void unlink(SegmentEntry entry) {
+        Segment segment = entry.segment;
+        if (segment == null) {
+            return;
+        }
+        segment.liveBytes -= entry.recordLength;
+        size -= entry.getmSize();
+        entry.segment = null;
+        if (segment != active && isSparse(segment)) {
+            scheduleCompaction();
+        }
+    }
+
+    private void removeEntry(SegmentEntry entry) throws IOException {
+        index.remove(entry.getmKey());
+        unlink(entry);
+        append(DELETE, entry.getmKey(), EMPTY, 0, 0);
+    }
+
+    private void trimToSize() throws IOException {
+        while (size > maxSize) {
+            SegmentEntry eldest = index.values().iterator().next();
+            long weight = eldest.getmSize();
+            removeEntry(eldest);
+            stats.recordEviction(weight);
+        }
+    }
+
+    private boolean isSparse(Segment segment) {
+        long used = segment.length - HEADER_SIZE;
+        return used > 0 && segment.liveBytes * 100 < used * MIN_LIVE_PERCENT;
+    }
+
+    private Segment sparseSegment() {
+        for (Segment segment : segments.values()) {
+            if (segment != active && isSparse(segment)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private void scheduleCompaction() {
+        if (compactionScheduled || closed) {
+            return;
+        }
+        compactionScheduled = true;
+        try {
+            compactor.execute(compactTask);
+        } catch (RejectedExecutionException e) {
+            compactionScheduled = false;
+        }
+    }
+
+    /**
+     * @see <p>把段中仍有效的记录复制到新文件，然后替换该段，调用时不能持有锁。
+     * 1）写满的段不再修改，所以可以在锁外读取；复制期间被覆盖或删除的记录也会被复制，
+     * 但替换后的段编号不变，之后的段中的记录在重放时仍然覆盖它们
+     * 2）被删除的key的删除记录也要复制，否则更早的段中的旧值会在重新打开时复活；最早的段不需要复制
+     * 3）只在替换时加锁，位置（段与偏移量）没有变化的条目才指向新的段</p>
+     */
+    void compact(Segment segment) throws IOException {
+        Map<Long, SegmentEntry> live = new HashMap<Long, SegmentEntry>();
+        boolean oldest;
+        int length;
+        synchronized (this) {
+            if (closed || segments.get(segment.id) != segment) {
+                return;
+            }
+            for (SegmentEntry entry : index.values()) {
+                if (entry.segment == segment) {
+                    live.put(entry.valueOffset, entry);
+                }
+            }
+            oldest = segments.firstKey() == segment.id;
+            length = (int) segment.length;
+        }
+
+        byte[] data = new byte[length];
+        readFully(segment.channel(), data, 0, length, 0);
+        byte[] compacted = new byte[length];
+        System.arraycopy(data, 0, compacted, 0, HEADER_SIZE);
+        int compactedLength = HEADER_SIZE;
+        List<SegmentEntry> moved = new ArrayList<SegmentEntry>();
+        List<long[]> offsets = new ArrayList<long[]>();
+        List<String> deleted = new ArrayList<String>();
+        List<int[]> deleteRecords = new ArrayList<int[]>();
+        int position = HEADER_SIZE;
+        int[] cursor = new int[1];
+        while (position < length) {
+            cursor[0] = position;
+            byte op = data[cursor[0]++];
+            int keyLength = (int) readVarint(data, length, cursor);
+            int keyOffset = cursor[0];
+            cursor[0] += keyLength;
+            int valueLength = (int) readVarint(data, length, cursor);
+            int valueOffset = cursor[0];
+            int recordLength = valueOffset + valueLength + 4 - position;
+            if (op == PUT) {
+                SegmentEntry entry = live.get((long) valueOffset);
+                if (entry != null) {
+                    //记录原样复制，CRC不需要重新计算
+                    System.arraycopy(data, position, compacted, compactedLength, recordLength);
+                    moved.add(entry);
+                    offsets.add(new long[]{valueOffset, compactedLength + valueOffset - position, recordLength});
+                    compactedLength += recordLength;
+                }
+            } else if (!oldest) {
+                deleted.add(new String(data, keyOffset, keyLength, UTF_8));
+                deleteRecords.add(new int[]{position, recordLength});
+            }
+            position += recordLength;
+        }
+        int tombstoneBytes = 0;
+        if (!deleted.isEmpty()) {
+            synchronized (this) {
+                for (int i = 0; i < deleted.size(); i++) {
+                    //key仍在索引中说明之后有新的写入，删除记录不再需要
+                    if (!index.containsKey(deleted.get(i))) {
+                        int[] record = deleteRecords.get(i);
+                        System.arraycopy(data, record[0], compacted, compactedLength, record[1]);
+                        compactedLength += record[1];
+                        tombstoneBytes += record[1];
+                    }
+                }
+            }
+        }
+
+        File temp = null;
+        if (compactedLength > HEADER_SIZE) {
+            temp = new File(directory, COMPACT_PREFIX + segment.id);
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                raf.setLength(0);
+                writeFully(raf.getChannel(), compacted, compactedLength, 0);
+                raf.getChannel().force(false);
+            } finally {
+                FileUtils.closeQuietly(raf);
+            }
+        }
+
+        synchronized (this) {
+            if (closed || segments.get(segment.id) != segment) {
+                //压缩期间缓存被关闭或清空
+                if (temp != null) {
+                    FileUtils.deleteIfExists(temp);
+                }
+                return;
+            }
+            Segment replacement = null;
+            if (temp != null) {
+                if (!temp.renameTo(segment.file)) {
+                    FileUtils.deleteIfExists(temp);
+                    throw new IOException("failed to replace " + segment.file);
+                }
+                replacement = new Segment(segment.file, segment.id);
+                replacement.length = compactedLength;
+                //删除记录没有对应的条目，计入有效数据，只含删除记录的段不会被反复压缩
+                replacement.liveBytes = tombstoneBytes;
+                segments.put(segment.id, replacement);
+            } else {
+                segments.remove(segment.id);
+            }
+            for (int i = 0; i < moved.size(); i++) {
+                SegmentEntry entry = moved.get(i);
+                long[] offset = offsets.get(i);
+                if (entry.segment == segment && entry.valueOffset == offset[0]) {
+                    entry.segment = replacement;
+                    entry.valueOffset = offset[1];
+                    replacement.liveBytes += offset[2];
+                }
+            }
+            unsynced.remove(segment);
+            segment.close();
+            MappedFileCache.getDefault().invalidate(segment.file);
+            if (temp == null) {
+                FileUtils.deleteIfExists(segment.file);
+            }
+        }
+    }
+
+    /**
+     * @see <p>读取条目的数据并解码，读取时不持有锁。
+     * 读取期间该段被压缩删除时，按新的位置重新读取一次</p>
+     * @return 条目已被删除时返回null
+     */
+    <T> T read(SegmentEntry entry, Codec<T> codec) throws IOException {
+        long startTime = stats.startTimer();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                Segment segment;
+                long offset;
+                int length;
+                boolean sealed;
+                synchronized (this) {
+                    checkNotClosed();
+                    segment = entry.segment;
+                    if (segment == null) {
+                        return null;
+                    }
+                    if (attempt > 0) {
+                        segment.reopenIfClosed();
+                    }
+                    offset = entry.valueOffset;
+                    length = (int) entry.getmSize();
+                    sealed = segment != active;
+                }
+                ByteBuffer mapping = mappedReads && sealed
+                        ? MappedFileCache.getDefault().map(segment.file, offset, length) : null;
+                BufferPool pool = BufferPool.getDefault();
+                byte[] buffer = pool.acquire(length);
+                try {
+                    if (mapping != null) {
+                        mapping.get(buffer, 0, length);
+                    } else {
+                        readFully(segment.channel(), buffer, 0, length, offset);
+                    }
+                    stats.recordBytesRead(length);
+                    return codec.decode(buffer, 0, length);
+                } catch (ClosedChannelException e) {
+                    if (attempt > 0) {
+                        throw e;
+                    }
+                } finally {
+                    pool.release(buffer);
+                }
+            }
+        } finally {
+            stats.recordGet(startTime);
+        }
+    }
+
+    /**
+     * @see <p>条目数据的只读视图。写满的段返回映射中的一段，当前的段还在追加，读取到堆中后包装</p>
+     * @return 条目已被删除时返回null
+     */
+    ByteBuffer map(SegmentEntry entry) throws IOException {
+        Segment segment;
+        long offset;
+        int length;
+        synchronized (this) {
+            checkNotClosed();
+            segment = entry.segment;
+            if (segment == null) {
+                return null;
+            }
+            offset = entry.valueOffset;
+            length = (int) entry.getmSize();
+            if (segment == active) {
+                segment = null;
+            }
+        }
+        ByteBuffer mapping = segment != null
+                ? MappedFileCache.getDefault().map(segment.file, offset, length) : null;
+        if (mapping != null) {
+            return mapping;
+        }
+        byte[] data = read(entry, Codecs.BYTES);
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * @see <p>把条目数据的一部分直接从段文件发送到target，见{@link CacheEntry#transferTo(long, long, WritableByteChannel)}。
+     * 段在发送之前已被压缩关闭时按新的位置重试；发送过程中被关闭时可能已经写出了部分数据，不能重试</p>
+     */
+    long transferTo(SegmentEntry entry, long position, long count, WritableByteChannel target)
+            throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Segment segment;
+            long offset;
+            long length;
+            synchronized (this) {
+                checkNotClosed();
+                segment = entry.segment;
+                if (segment == null) {
+                    return -1;
+                }
+                if (attempt > 0) {
+                    segment.reopenIfClosed();
+                }
+                offset = entry.valueOffset;
+                length = entry.getmSize();
+            }
+            if (position >= length) {
+                return 0;
+            }
+            try {
+                long transferred = segment.channel().transferTo(offset + position,
+                        Math.min(count, length - position), target);
+                stats.recordBytesRead(transferred);
+                return transferred;
+            } catch (AsynchronousCloseException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @see <p>设置读取方式：开启后写满的段通过{@link MappedFileCache#getDefault()}映射，
+     * 读取不再调用read，只从映射中复制数据</p>
+     */
+    public void setMappedReads(boolean mappedReads) {
+        this.mappedReads = mappedReads;
+    }
+
+    /**
+     * @see <p>提交{@link SegmentEntry#write}或输出流中暂存的数据</p>
+     */
+    @Override
+    public synchronized void commit(CacheEntry cacheEntry) throws IOException {
+        checkNotClosed();
+        SegmentEntry entry = (SegmentEntry) cacheEntry;
+        if (!entry.ismIsEditor()) {
+            throw new IOException("CacheEntry has been closed.");
+        }
+        ByteArrayBuffer pending = entry.takePending();
+        writeValue(entry, pending.buffer(), pending.size());
+    }
+
+    /**
+     * @see <p>在锁外编码，锁内只追加一条记录</p>
+     */
+    @Override
+    public <T> boolean put(String key, T value, Codec<T> codec) throws IOException {
+        long startTime = stats.startTimer();
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+        try {
+            codec.encode(value, buffer);
+            synchronized (this) {
+                checkNotClosed();
+                SegmentEntry entry = index.get(key);
+                if (entry == null) {
+                    entry = new SegmentEntry(this, key, stats);
+                }
+                writeValue(entry, buffer.buffer(), buffer.size());
+            }
+            return true;
+        } finally {
+            buffer.release();
+            stats.recordPut(startTime);
+        }
+    }
+
+    @Override
+    public <T> int putAll(Map<String, T> values, Codec<T> codec) throws IOException {
+        int written = 0;
+        for (Map.Entry<String, T> value : values.entrySet()) {
+            try {
+                if (put(value.getKey(), value.getValue(), codec)) {
+                    written++;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public synchronized boolean has(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public void open() throws IOException {
+
+    }
+
+    @Override
+    public synchronized CacheEntry getEntry(String key) throws IOException {
+        checkNotClosed();
+        SegmentEntry entry = index.get(key);
+        if (entry == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
+        return entry;
+    }
+
+    @Override
+    public synchronized Map<String, CacheEntry> getAll(Collection<String> keys) throws IOException {
+        checkNotClosed();
+        Map<String, CacheEntry> result = new LinkedHashMap<String, CacheEntry>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            SegmentEntry entry = index.get(key);
+            if (entry != null) {
+                stats.recordHit();
+                result.put(key, entry);
+            } else {
+                stats.recordMiss();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see <p>返回已有的条目或新的条目，提交之前新的条目不在索引中</p>
+     */
+    @Override
+    public synchronized CacheEntry editor(String key) throws IOException {
+        checkNotClosed();
+        SegmentEntry entry = index.get(key);
+        return entry != null ? entry : new SegmentEntry(this, key, stats);
+    }
+
+    @Override
+    public synchronized void abort(CacheEntry cacheEntry) {
+        if (cacheEntry.ismIsEditor()) {
+            ((SegmentEntry) cacheEntry).takePending();
+        }
+    }
+
+    @Override
+    public synchronized void abort(String key) {
+        SegmentEntry entry = index.get(key);
+        if (entry != null) {
+            abort(entry);
+        }
+    }
+
+    @Override
+    public synchronized boolean delete(String key) throws IOException {
+        checkNotClosed();
+        SegmentEntry entry = index.get(key);
+        if (entry == null) {
+            return false;
+        }
+        removeEntry(entry);
+        return true;
+    }
+
+    @Override
+    public synchronized int removeAll(Collection<String> keys) throws IOException {
+        checkNotClosed();
+        int removed = 0;
+        for (String key : keys) {
+            SegmentEntry entry = index.get(key);
+            if (entry != null) {
+                removeEntry(entry);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @see <p>对上一次调用之后写入过的段各调用一次fsync</p>
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        for (Iterator<Segment> i = unsynced.iterator(); i.hasNext(); ) {
+            i.next().channel().force(false);
+            i.remove();
+        }
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        checkNotClosed();
+        for (Segment segment : segments.values()) {
+            segment.close();
+            MappedFileCache.getDefault().invalidate(segment.file);
+            FileUtils.deleteIfExists(segment.file);
+        }
+        segments.clear();
+        unsynced.clear();
+        for (SegmentEntry entry : index.values()) {
+            entry.segment = null;
+        }
+        index.clear();
+        size = 0;
+        active = newSegment(0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            compactor.shutdown();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    @Override
+    public long getCapacity() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @see <p>所有段文件的大小之和，包含记录头与还没有被压缩的已删除数据</p>
+     */
+    public synchronized long getDiskUsage() {
+        long usage = 0;
+        for (Segment segment : segments.values()) {
+            usage += segment.length;
+        }
+        return usage;
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public TierStats stats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void setRecordLatency(boolean recordLatency) {
+        stats.setRecordLatency(recordLatency);
+    }
+
+    private static void readFully(FileChannel channel, byte[] data, int offset, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position() - offset);
+            if (read < 0) {
+                throw new IOException("unexpected end of segment");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] data, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] data, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * @return 数据不完整或超过31位时返回-1
+     */
+    private static long readVarint(byte[] data, int limit, int[] cursor) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (cursor[0] >= limit) {
+                return -1;
+            }
+            byte b = data[cursor[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value <= Integer.MAX_VALUE ? value : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24
+                | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8
+                | (data[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
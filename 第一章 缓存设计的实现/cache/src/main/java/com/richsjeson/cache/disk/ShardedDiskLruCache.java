@@ -0,0 +1,444 @@
+package com.richsjeson.cache.disk;
+
+import android.util.Log;
+
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.interf.DiskFacade;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.stats.StatsRecorder;
+import com.richsjeson.cache.stats.TierStats;
+import com.richsjeson.cache.utils.FileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * @see <p>分片的磁盘缓存
+ * 1）根据key的hash值，将文件分散到N个独立的{@link DiskLruCache}中，每个分片有自己的目录、日志、锁与maxSize/N的容量
+ * 2）不同分片之间的读写、提交与淘汰互不阻塞，并发的磁盘读写吞吐量随分片数增长
+ * 3）每个分片各自按LRU淘汰，淘汰顺序只在分片内是严格的LRU
+ * 4）分片数改变后，原来的数据可能落在另一个分片中而无法命中，由各分片的LRU逐步淘汰；多余的分片目录在打开时删除
+ * 5）目录中有未分片时的缓存时，打开时按LRU顺序把条目移到各自的分片中，文件只改名不复制
+ * </p>
+ */
+public final class ShardedDiskLruCache implements Closeable, DiskFacade {
+
+    static final String SHARD_PREFIX = "shard-";
+
+    /**
+     * @serialField <p>分片的上限，分片过多时每个分片分到的容量过小，淘汰也不再接近全局的LRU</p>
+     */
+    private static final int MAX_SHARDS = 64;
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final DiskLruCache[] shards;
+
+    private final int shardMask;
+    /**
+     * @serialField <p>所有分片共用的统计，不需要逐个汇总</p>
+     */
+    private final StatsRecorder stats;
+
+    private ShardedDiskLruCache(File directory, long maxSize, DiskLruCache[] shards, StatsRecorder stats) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.shards = shards;
+        this.shardMask = shards.length - 1;
+        this.stats = stats;
+    }
+
+    /**
+     * @param directory 分片的目录为directory/shard-0 ... directory/shard-(N-1)
+     * @param maxSize 所有分片的容量之和
+     * @param concurrencyLevel 期望的并发读写线程数，会向上取整为2的幂
+     * @throws IOException 任意一个分片打开失败时，已打开的分片会被关闭
+     */
+    public static ShardedDiskLruCache open(File directory, int appVersion, int valueCount, long maxSize,
+                                           int concurrencyLevel) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        int shardCount = 1;
+        while (shardCount < concurrencyLevel && shardCount < MAX_SHARDS) {
+            shardCount <<= 1;
+        }
+        //保证每个分片至少能分到一个字节的容量
+        while (shardCount > 1 && shardCount > maxSize) {
+            shardCount >>= 1;
+        }
+        removeUnusedFiles(directory, shardCount);
+        DiskLruCache unsharded = openUnsharded(directory, appVersion, valueCount);
+
+        StatsRecorder stats = new StatsRecorder();
+        DiskLruCache[] shards = new DiskLruCache[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = DiskLruCache.open(new File(directory, SHARD_PREFIX + i), appVersion, valueCount,
+                        shardSize(maxSize, shardCount, i), stats);
+            }
+        } catch (IOException e) {
+            for (DiskLruCache shard : shards) {
+                if (shard != null) {
+                    FileUtils.closeQuietly(shard);
+                }
+            }
+            if (unsharded != null) {
+                FileUtils.closeQuietly(unsharded);
+            }
+            throw e;
+        }
+        ShardedDiskLruCache cache = new ShardedDiskLruCache(directory, maxSize, shards, stats);
+        if (unsharded != null) {
+            try {
+                cache.migrate(unsharded);
+            } catch (IOException e) {
+                FileUtils.closeQuietly(cache);
+                throw e;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @see <p>目录中有未分片时的日志（或其备份）时打开它，容量不限，淘汰交给迁移后的各个分片。
+     * 日志无法读取时不能像{@link DiskLruCache#open}那样删除整个目录，那样会删除所有分片，
+     * 只删除顶层的日志与未分片时的文件，没有日志这些文件已经无法读取</p>
+     * @return 没有未分片的缓存，或者它的日志已损坏时返回null
+     */
+    private static DiskLruCache openUnsharded(File directory, int appVersion, int valueCount)
+            throws IOException {
+        if (!new File(directory, DiskLruCache.JOURNAL_FILE).exists()
+                && !new File(directory, DiskLruCache.JOURNAL_FILE_BACKUP).exists()) {
+            return null;
+        }
+        try {
+            return DiskLruCache.open(directory, appVersion, valueCount, Long.MAX_VALUE,
+                    new StatsRecorder(), false);
+        } catch (IOException journalIsCorrupt) {
+            Log.e("ShardedDiskLruCache", "unsharded journal in " + directory + " is corrupt: "
+                    + journalIsCorrupt.getMessage() + ", removing top-level files");
+            deleteTopLevelFiles(directory);
+            return null;
+        }
+    }
+
+    /**
+     * @see <p>把未分片时的条目按LRU顺序移到各自的分片：文件改名到分片目录，并在分片的日志中重放CLEAN记录，
+     * 分片的日志落盘后才删除旧的日志与没有移走的文件。
+     * 迁移中途进程被杀时旧日志仍在，下次打开时继续迁移，已经移走的文件会被跳过</p>
+     */
+    private void migrate(DiskLruCache unsharded) throws IOException {
+        int moved = 0;
+        try {
+            for (CacheEntry cacheEntry : unsharded.cleanEntries()) {
+                String key = cacheEntry.getmKey();
+                if (shardFor(key).adopt(key, cacheEntry.getCacheFile(), cacheEntry.getmSize(),
+                        cacheEntry.getCodecId())) {
+                    moved++;
+                }
+            }
+        } finally {
+            FileUtils.closeQuietly(unsharded);
+        }
+        flush();
+        deleteTopLevelFiles(directory);
+        Log.i("ShardedDiskLruCache", "migrated " + moved + " unsharded entries in " + directory);
+    }
+
+    /**
+     * @see <p>删除未分片时留在顶层的日志与文件，分片目录保持不变</p>
+     */
+    private static void deleteTopLevelFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @see <p>删除分片数改变后多余的分片目录</p>
+     */
+    private static void removeUnusedFiles(File directory, int shardCount) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isDirectory() || !name.startsWith(SHARD_PREFIX)) {
+                continue;
+            }
+            try {
+                if (Integer.parseInt(name.substring(SHARD_PREFIX.length())) < shardCount) {
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            FileUtils.deleteDirectory(file);
+            file.delete();
+        }
+    }
+
+    /**
+     * @see <p>将总容量平均分配到各个分片，余数分给前面的分片</p>
+     */
+    private static long shardSize(long maxSize, int shardCount, int index) {
+        long share = maxSize / shardCount;
+        return index < maxSize % shardCount ? share + 1 : share;
+    }
+
+    /**
+     * @see <p>根据key定位所在的分片</p>
+     */
+    DiskLruCache shardFor(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        int h = key.hashCode();
+        //将高位扰动到低位，避免只有低位不同的key落到同一个分片
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return shardFor(key).has(key);
+    }
+
+    @Override
+    public void open() throws IOException {
+
+    }
+
+    @Override
+    public void clear() throws IOException {
+        for (DiskLruCache shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * @see <p>关闭所有分片，某个分片关闭失败时仍然关闭其余的分片，最后抛出第一个异常</p>
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (DiskLruCache shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (DiskLruCache shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public CacheEntry getEntry(String key) throws IOException {
+        return shardFor(key).getEntry(key);
+    }
+
+    /**
+     * @see <p>按分片分组后查找，每个分片的锁只获取一次，结果保持keys的顺序</p>
+     */
+    @Override
+    public Map<String, CacheEntry> getAll(Collection<String> keys) throws IOException {
+        Map<String, CacheEntry> found = new HashMap<String, CacheEntry>(keys.size() * 4 / 3 + 1);
+        for (Map.Entry<DiskLruCache, List<String>> group : groupKeys(keys).entrySet()) {
+            found.putAll(group.getKey().getAll(group.getValue()));
+        }
+        Map<String, CacheEntry> result = new LinkedHashMap<String, CacheEntry>(found.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            CacheEntry cacheEntry = found.get(key);
+            if (cacheEntry != null) {
+                result.put(key, cacheEntry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public CacheEntry editor(String key) throws IOException {
+        return shardFor(key).editor(key);
+    }
+
+    @Override
+    public void abort(CacheEntry cacheEntry) {
+        shardFor(cacheEntry.getmKey()).abort(cacheEntry);
+    }
+
+    @Override
+    public void abort(String key) {
+        shardFor(key).abort(key);
+    }
+
+    /**
+     * @see <p>条目提交时直接调用所在分片的commit，这里只在外部直接调用时转发</p>
+     */
+    @Override
+    public void commit(CacheEntry cacheEntry) throws IOException {
+        shardFor(cacheEntry.getmKey()).commit(cacheEntry);
+    }
+
+    @Override
+    public <T> boolean put(String key, T value, Codec<T> codec) throws IOException {
+        return shardFor(key).put(key, value, codec);
+    }
+
+    /**
+     * @see <p>按分片分组后写入，每个分片的锁只获取一次</p>
+     */
+    @Override
+    public <T> int putAll(Map<String, T> values, Codec<T> codec) throws IOException {
+        Map<DiskLruCache, Map<String, T>> groups = new IdentityHashMap<DiskLruCache, Map<String, T>>();
+        for (Map.Entry<String, T> value : values.entrySet()) {
+            DiskLruCache shard = shardFor(value.getKey());
+            Map<String, T> group = groups.get(shard);
+            if (group == null) {
+                group = new LinkedHashMap<String, T>();
+                groups.put(shard, group);
+            }
+            group.put(value.getKey(), value.getValue());
+        }
+        int written = 0;
+        for (Map.Entry<DiskLruCache, Map<String, T>> group : groups.entrySet()) {
+            written += group.getKey().putAll(group.getValue(), codec);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return shardFor(key).delete(key);
+    }
+
+    /**
+     * @see <p>按分片分组后删除，每个分片的锁只获取一次</p>
+     */
+    @Override
+    public int removeAll(Collection<String> keys) throws IOException {
+        int removed = 0;
+        for (Map.Entry<DiskLruCache, List<String>> group : groupKeys(keys).entrySet()) {
+            removed += group.getKey().removeAll(group.getValue());
+        }
+        return removed;
+    }
+
+    private Map<DiskLruCache, List<String>> groupKeys(Collection<String> keys) {
+        Map<DiskLruCache, List<String>> groups = new IdentityHashMap<DiskLruCache, List<String>>();
+        for (String key : keys) {
+            DiskLruCache shard = shardFor(key);
+            List<String> group = groups.get(shard);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(shard, group);
+            }
+            group.add(key);
+        }
+        return groups;
+    }
+
+    @Override
+    public long getCapacity() {
+        return maxSize;
+    }
+
+    /**
+     * @see <p>所有分片大小之和，逐个分片读取，不是同一时刻的快照</p>
+     */
+    @Override
+    public long getSize() {
+        long size = 0;
+        for (DiskLruCache shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @see <p>根目录，各分片的文件在其子目录中</p>
+     */
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public TierStats stats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void setRecordLatency(boolean recordLatency) {
+        stats.setRecordLatency(recordLatency);
+    }
+
+    public void setRemovalListener(RemovalListener<CacheEntry> listener) {
+        for (DiskLruCache shard : shards) {
+            shard.setRemovalListener(listener);
+        }
+    }
+
+    public void setRemovalExecutor(Executor executor) {
+        for (DiskLruCache shard : shards) {
+            shard.setRemovalExecutor(executor);
+        }
+    }
+
+    /**
+     * @see <p>见{@link DiskLruCache#setJournalCommit}，所有分片的日志共用同一个后台写入线程</p>
+     */
+    public void setJournalCommit(long windowMillis, boolean sync) {
+        for (DiskLruCache shard : shards) {
+            shard.setJournalCommit(windowMillis, sync);
+        }
+    }
+
+    /**
+     * @see <p>见{@link DiskLruCache#setMappedReads}，所有分片共用{@link MappedFileCache#getDefault()}的上限</p>
+     */
+    public void setMappedReads(boolean mappedReads) {
+        for (DiskLruCache shard : shards) {
+            shard.setMappedReads(mappedReads);
+        }
+    }
+
+    public boolean isClosed() {
+        return shards[0].isClosed();
+    }
+}
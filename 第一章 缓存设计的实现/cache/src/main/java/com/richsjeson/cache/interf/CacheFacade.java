@@ -1,5 +1,9 @@
 package com.richsjeson.cache.interf;
 import com.richsjeson.cache.memory.MemoryEntry;
+import com.richsjeson.cache.stats.TierStats;
+
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Created by richsjeson on 16-3-16.
@@ -33,10 +37,46 @@ public interface CacheFacade {
      * @return
      */
     MemoryEntry editor(String mKey);
+    /**
+     * @see <p>数据写入完成，由{@link MemoryEntry#commit()}回调</p>
+     * @param memoryEntry
+     */
+    void commit(MemoryEntry memoryEntry);
     /**
      * @see <p>是否存在</p>
      * @param key
      * @return
      */
     boolean has(String key);
+
+    /**
+     * @see <p>批量获取，只返回命中的条目，顺序与keys一致</p>
+     * @param keys
+     * @return
+     */
+    Map<String, MemoryEntry> getAll(Collection<String> keys);
+
+    /**
+     * @see <p>批量写入，数据在加锁前完成编码，每把锁只获取一次</p>
+     * @param values
+     */
+    void putAll(Map<String, ?> values);
+
+    /**
+     * @see <p>批量删除，不存在的key直接忽略</p>
+     * @param keys
+     */
+    void removeAll(Collection<String> keys);
+
+    /**
+     * @see <p>统计信息的不可变快照</p>
+     * @return
+     */
+    TierStats stats();
+
+    /**
+     * @see <p>是否在统计中记录读写延迟，默认不记录</p>
+     * @param recordLatency
+     */
+    void setRecordLatency(boolean recordLatency);
 }
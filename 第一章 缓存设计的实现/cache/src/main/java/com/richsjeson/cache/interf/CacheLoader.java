@@ -0,0 +1,15 @@
+package com.richsjeson.cache.interf;
+
+/**
+ * @see <p>数据加载器，缓存需要刷新数据时调用，由使用方实现，例如重新请求网络接口</p>
+ */
+public interface CacheLoader {
+
+    /**
+     * @see <p>加载key对应的最新数据，在后台线程中执行</p>
+     * @param key
+     * @return 最新的数据，返回null时保留缓存中原有的数据
+     * @throws Exception 加载失败时保留缓存中原有的数据
+     */
+    Object load(String key) throws Exception;
+}
@@ -1,13 +1,17 @@
 package com.richsjeson.cache.interf;
 
+import com.richsjeson.cache.codec.Codec;
 import com.richsjeson.cache.disk.CacheEntry;
+import com.richsjeson.cache.stats.TierStats;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Created by richsjeson on 16-3-16.
- * @see <p>磁盘缓存策略模型</p>
+ * @see <p>磁盘缓存策略模型，所有方法中的key都是{@link com.richsjeson.cache.utils.FileUtils#generate}生成的文件名</p>
  */
 public interface DiskFacade {
 
@@ -52,6 +56,16 @@ public interface DiskFacade {
      */
     public CacheEntry getEntry(String key) throws IOException;
 
+    /**
+     * Looks up several entries under one lock. Missing keys are left out of
+     * the result; the entries' files can then be read without holding it.
+     *
+     * @param keys
+     * @return
+     * @throws java.io.IOException
+     */
+    public Map<String, CacheEntry> getAll(Collection<String> keys) throws IOException;
+
     /**
      * begin edit an {@CacheEntry }
      *
@@ -80,6 +94,27 @@ public interface DiskFacade {
      */
     public void commit(CacheEntry cacheEntry) throws IOException;
 
+    /**
+     * write and commit one value under the cache lock, aborting the edit on failure
+     *
+     * @param key
+     * @param value
+     * @param codec
+     * @return whether the value was written
+     * @throws java.io.IOException
+     */
+    public <T> boolean put(String key, T value, Codec<T> codec) throws IOException;
+
+    /**
+     * write and commit several values under one lock
+     *
+     * @param values
+     * @param codec
+     * @return the number of values written
+     * @throws java.io.IOException
+     */
+    public <T> int putAll(Map<String, T> values, Codec<T> codec) throws IOException;
+
     /**
      * delete if key exist, under edit can not be deleted
      *
@@ -88,9 +123,31 @@ public interface DiskFacade {
      */
     public boolean delete(String key) throws IOException;
 
+    /**
+     * delete every existing key, entries under edit are skipped
+     *
+     * @param keys
+     * @return the number of entries deleted
+     */
+    public int removeAll(Collection<String> keys) throws IOException;
+
     public long getCapacity();
 
     public long getSize();
 
     public File getDirectory();
+
+    /**
+     * immutable snapshot of hit, miss, eviction and byte counters
+     *
+     * @return
+     */
+    public TierStats stats();
+
+    /**
+     * record read and write latencies, off by default
+     *
+     * @param recordLatency
+     */
+    public void setRecordLatency(boolean recordLatency);
 }
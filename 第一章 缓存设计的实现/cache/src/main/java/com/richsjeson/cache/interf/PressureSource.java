@@ -0,0 +1,23 @@
+package com.richsjeson.cache.interf;
+
+/**
+ * @see <p>内存压力的来源，例如堆的使用率、GC回收软引用、Android的onTrimMemory回调</p>
+ */
+public interface PressureSource {
+
+    /**
+     * 没有内存压力
+     */
+    int NONE = 0;
+
+    /**
+     * 内存即将耗尽
+     */
+    int CRITICAL = 100;
+
+    /**
+     * @see <p>当前的内存压力，在后台线程中周期性调用，不能阻塞</p>
+     * @return {@link #NONE}到{@link #CRITICAL}之间的值
+     */
+    int getPressure();
+}
@@ -0,0 +1,30 @@
+package com.richsjeson.cache.interf;
+
+/**
+ * @see <p>条目被移除的原因</p>
+ */
+public enum RemovalCause {
+    /**
+     * 由使用方删除，例如remove、delete、removeAll以及清空缓存
+     */
+    EXPLICIT,
+    /**
+     * 同一个key写入了新的数据，旧数据被替换
+     */
+    REPLACED,
+    /**
+     * 超过有效期
+     */
+    EXPIRED,
+    /**
+     * 容量不足时被淘汰，或数据超过整个缓存的容量而没有放入
+     */
+    EVICTED;
+
+    /**
+     * @see <p>是否由缓存自动移除，而不是由使用方删除或替换</p>
+     */
+    public boolean wasEvicted() {
+        return this == EXPIRED || this == EVICTED;
+    }
+}
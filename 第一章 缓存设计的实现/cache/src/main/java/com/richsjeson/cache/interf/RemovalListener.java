@@ -0,0 +1,15 @@
+package com.richsjeson.cache.interf;
+
+/**
+ * @see <p>条目移除的监听器，由使用方实现，例如把被淘汰的数据写入下一级缓存</p>
+ */
+public interface RemovalListener<V> {
+
+    /**
+     * @see <p>条目被移除后回调，在后台线程中执行，不阻塞触发移除的读写操作</p>
+     * @param key
+     * @param value 被移除的条目
+     * @param cause 移除的原因
+     */
+    void onRemoval(String key, V value, RemovalCause cause);
+}
@@ -0,0 +1,16 @@
+package com.richsjeson.cache.interf;
+
+/**
+ * @see <p>容量可以在运行时调整的缓存，单位与缓存的sizeOf一致</p>
+ */
+public interface ResizableCache {
+
+    int size();
+
+    int maxSize();
+
+    /**
+     * @see <p>调整容量，超出新容量的条目被立即淘汰</p>
+     */
+    void resize(int maxSize);
+}
@@ -0,0 +1,162 @@
+package com.richsjeson.cache.memory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @see <p>ARC（Adaptive Replacement Cache）淘汰策略
+ * 1）T1保存只被访问过一次的key，T2保存被访问过至少两次的key，两者都按LRU排列
+ * 2）B1、B2是T1、T2中被淘汰的key的记录（幽灵列表），只保存key与权重，不保存数据
+ * 3）命中B1说明T1太小，目标值p增大；命中B2说明T2太小，p减小，淘汰时让T1的权重趋近p
+ * 4）按权重而不是条目数计算，B1与T1合计不超过容量，四个列表合计不超过两倍容量
+ * </p>
+ */
+final class ArcPolicy implements EvictionPolicy {
+
+    private final LinkedHashMap<String, Integer> t1
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> t2
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> b1
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> b2
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private long maximum;
+
+    /**
+     * @serialField <p>T1的目标权重，随幽灵列表的命中自适应调整</p>
+     */
+    private long p;
+
+    private long t1Weight;
+
+    private long t2Weight;
+
+    private long b1Weight;
+
+    private long b2Weight;
+
+    /**
+     * @serialField <p>上一次{@link #victim()}选出的key，随后的{@link #onRemove}据此区分淘汰与删除</p>
+     */
+    private String pendingVictim;
+
+    @Override
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+        p = Math.min(p, maximum);
+        trimGhosts();
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+        Integer ghost = b1.remove(key);
+        if (ghost != null) {
+            b1Weight -= ghost;
+            //T1中淘汰得太早，扩大T1
+            long delta = b1Weight > 0 ? Math.max(weight, weight * b2Weight / b1Weight) : weight;
+            p = Math.min(maximum, p + delta);
+            t2.put(key, weight);
+            t2Weight += weight;
+        } else if ((ghost = b2.remove(key)) != null) {
+            b2Weight -= ghost;
+            //T2中淘汰得太早，缩小T1
+            long delta = b2Weight > 0 ? Math.max(weight, weight * b1Weight / b2Weight) : weight;
+            p = Math.max(0, p - delta);
+            t2.put(key, weight);
+            t2Weight += weight;
+        } else {
+            t1.put(key, weight);
+            t1Weight += weight;
+        }
+        trimGhosts();
+    }
+
+    @Override
+    public void onUpdate(String key, int weight) {
+        Integer old = t1.remove(key);
+        if (old != null) {
+            //再次写入视同一次命中
+            t1Weight -= old;
+        } else if ((old = t2.remove(key)) != null) {
+            t2Weight -= old;
+        } else {
+            onInsert(key, weight);
+            return;
+        }
+        t2.put(key, weight);
+        t2Weight += weight;
+    }
+
+    @Override
+    public void onAccess(String key) {
+        if (t2.get(key) != null) {
+            return;
+        }
+        Integer weight = t1.remove(key);
+        if (weight != null) {
+            t1Weight -= weight;
+            t2.put(key, weight);
+            t2Weight += weight;
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        boolean evicted = key.equals(pendingVictim);
+        pendingVictim = null;
+        Integer weight = t1.remove(key);
+        if (weight != null) {
+            t1Weight -= weight;
+            if (evicted) {
+                b1.put(key, weight);
+                b1Weight += weight;
+            }
+        } else if ((weight = t2.remove(key)) != null) {
+            t2Weight -= weight;
+            if (evicted) {
+                b2.put(key, weight);
+                b2Weight += weight;
+            }
+        }
+        trimGhosts();
+    }
+
+    @Override
+    public String victim() {
+        String victim;
+        if (!t1.isEmpty() && (t1Weight > p || t2.isEmpty())) {
+            victim = eldest(t1);
+        } else {
+            victim = eldest(t2);
+        }
+        pendingVictim = victim;
+        return victim;
+    }
+
+    /**
+     * @see <p>限制幽灵列表的大小，先保证B1与T1合计不超过容量，再保证总量不超过两倍容量</p>
+     */
+    private void trimGhosts() {
+        while (t1Weight + b1Weight > maximum && !b1.isEmpty()) {
+            b1Weight -= removeEldest(b1);
+        }
+        while (t1Weight + t2Weight + b1Weight + b2Weight > 2 * maximum && !b2.isEmpty()) {
+            b2Weight -= removeEldest(b2);
+        }
+    }
+
+    private static int removeEldest(LinkedHashMap<String, Integer> region) {
+        Map.Entry<String, Integer> eldest = region.entrySet().iterator().next();
+        region.remove(eldest.getKey());
+        return eldest.getValue();
+    }
+
+    private static String eldest(LinkedHashMap<String, Integer> region) {
+        return region.isEmpty() ? null : region.keySet().iterator().next();
+    }
+}
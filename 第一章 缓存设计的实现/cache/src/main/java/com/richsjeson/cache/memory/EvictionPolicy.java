@@ -0,0 +1,83 @@
+package com.richsjeson.cache.memory;
+
+/**
+ * @see <p>内存缓存的淘汰策略
+ * 1）只维护key的访问顺序与权重，数据本身仍由{@link LruCache}保存
+ * 2）所有方法都在持有淘汰锁时调用，实现类不需要考虑线程安全
+ * 3）容量超出时，缓存反复调用{@link #victim()}选择要淘汰的key，再通过{@link #onRemove}通知策略
+ * </p>
+ */
+public interface EvictionPolicy {
+
+    /**
+     * @see <p>设置缓存的最大容量，单位与{@link LruCache#sizeOf}一致</p>
+     */
+    void setMaximum(long maximum);
+
+    /**
+     * @see <p>新的key被放入缓存</p>
+     */
+    void onInsert(String key, int weight);
+
+    /**
+     * @see <p>已存在的key被重新写入，权重可能发生变化</p>
+     */
+    void onUpdate(String key, int weight);
+
+    /**
+     * @see <p>key被命中</p>
+     */
+    void onAccess(String key);
+
+    /**
+     * @see <p>key从缓存中移除，包括被淘汰和被删除</p>
+     */
+    void onRemove(String key);
+
+    /**
+     * @see <p>选择下一个要淘汰的key，被选中的key随后会通过{@link #onRemove}移除</p>
+     * @return 缓存为空时返回null
+     */
+    String victim();
+
+    /**
+     * @see <p>构建缓存时可选的淘汰策略</p>
+     */
+    enum Type {
+        /**
+         * 最近最少使用
+         */
+        LRU,
+        /**
+         * 窗口LRU + 频率准入 + 分段LRU，抵抗扫描式访问
+         */
+        TINY_LFU,
+        /**
+         * 自适应替换，根据幽灵列表的命中在最近与频繁之间调整
+         */
+        ARC,
+        /**
+         * 先进先出的新生队列 + 幽灵队列 + LRU主队列
+         */
+        TWO_QUEUE,
+        /**
+         * 按重用距离区分冷热，适合循环访问与扫描
+         */
+        LIRS;
+
+        public EvictionPolicy newPolicy() {
+            switch (this) {
+                case TINY_LFU:
+                    return new TinyLfuPolicy();
+                case ARC:
+                    return new ArcPolicy();
+                case TWO_QUEUE:
+                    return new TwoQueuePolicy();
+                case LIRS:
+                    return new LirsPolicy();
+                default:
+                    return new LruPolicy();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.richsjeson.cache.memory;
+
+/**
+ * @see <p>Count-Min频率统计
+ * 1）每个计数器占4位，一个long保存16个计数器，最大计数为15
+ * 2）每个key映射到4个计数器，估算值取其中的最小值
+ * 3）累计增加的次数达到采样数时，所有计数器减半，让过时的热度逐渐衰减
+ * </p>
+ */
+final class FrequencySketch {
+
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * @serialField <p>计数表的上限，避免超大缓存占用过多内存</p>
+     */
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 16;
+
+    private long[] table = new long[0];
+
+    private int tableMask;
+
+    private int sampleSize;
+
+    private int size;
+
+    /**
+     * @see <p>根据缓存的容量调整计数表的大小，调整后之前的统计会被清空</p>
+     */
+    void ensureCapacity(long maximum) {
+        int target = (int) Math.min(Math.max(maximum, 1), MAXIMUM_TABLE_SIZE);
+        int tableSize = 1;
+        while (tableSize < target) {
+            tableSize <<= 1;
+        }
+        if (table.length >= tableSize) {
+            return;
+        }
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = 10 * tableSize;
+        size = 0;
+    }
+
+    /**
+     * @see <p>返回key的估算访问频率，范围0~15</p>
+     */
+    int frequency(String key) {
+        if (table.length == 0) {
+            return 0;
+        }
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * @see <p>记录一次访问</p>
+     */
+    void increment(String key) {
+        if (table.length == 0) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @see <p>所有计数器减半，实现热度的老化</p>
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = size >>> 1;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += (hash >>> 32);
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,52 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.interf.PressureSource;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * @see <p>根据虚拟机堆的使用情况计算内存压力
+ * 1）已使用的堆低于最大堆的一半时没有压力，超过一半后随使用率线性增长，达到95%时为{@link #CRITICAL}
+ * 2）用一个软引用作为哨兵感知GC：虚拟机只在内存紧张时回收软引用，哨兵被回收说明发生过这样的GC，
+ * 压力至少为{@link #SOFT_CLEARED}，随后重新放置哨兵
+ * </p>
+ */
+public class HeapPressureSource implements PressureSource {
+
+    private static final int LOW_PERCENT = 50;
+
+    private static final int HIGH_PERCENT = 95;
+
+    static final int SOFT_CLEARED = 75;
+
+    private volatile SoftReference<Object> sentinel = new SoftReference<Object>(new Object());
+
+    @Override
+    public int getPressure() {
+        Runtime runtime = Runtime.getRuntime();
+        int pressure = heapPressure(runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory());
+        if (sentinel.get() == null) {
+            sentinel = new SoftReference<Object>(new Object());
+            pressure = Math.max(pressure, SOFT_CLEARED);
+        }
+        return pressure;
+    }
+
+    /**
+     * @see <p>把堆的使用率映射为压力</p>
+     */
+    static int heapPressure(long used, long max) {
+        if (max <= 0 || max == Long.MAX_VALUE) {
+            return NONE;
+        }
+        long over = used * 100 - max * LOW_PERCENT;
+        if (over <= 0) {
+            return NONE;
+        }
+        long range = max * (HIGH_PERCENT - LOW_PERCENT);
+        if (over >= range) {
+            return CRITICAL;
+        }
+        return (int) (over * CRITICAL / range);
+    }
+}
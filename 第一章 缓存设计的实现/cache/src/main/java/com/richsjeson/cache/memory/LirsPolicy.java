@@ -0,0 +1,237 @@
+package com.richsjeson.cache.memory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @see <p>LIRS（Low Inter-reference Recency Set）淘汰策略
+ * 1）用两次访问之间的间隔（重用距离）而不是最近一次访问的时间衡量key的热度
+ * 2）key分为LIR（重用距离短，容量的99%）与HIR（其余1%），只有HIR的key会被淘汰
+ * 3）栈S按访问顺序保存LIR、驻留的HIR以及已淘汰的HIR，栈底总是LIR；队列Q按访问顺序保存驻留的HIR
+ * 4）仍在栈中的HIR被再次访问时，说明它的重用距离比栈底的LIR短，升级为LIR，栈底的LIR降级为HIR
+ * 5）已淘汰的HIR只保存key与权重，合计不超过容量
+ * </p>
+ */
+final class LirsPolicy implements EvictionPolicy {
+
+    private static final double HIR_RATIO = 0.01d;
+
+    private static final int LIR = 0;
+
+    private static final int HIR_RESIDENT = 1;
+
+    private static final int HIR_NON_RESIDENT = 2;
+
+    private static final class Node {
+        int weight;
+        int status;
+
+        Node(int weight, int status) {
+            this.weight = weight;
+            this.status = status;
+        }
+    }
+
+    private final HashMap<String, Node> nodes = new HashMap<String, Node>();
+
+    /**
+     * @serialField <p>栈S，最久未访问的在前，put已存在的key会把它移动到栈顶</p>
+     */
+    private final LinkedHashMap<String, Node> stack
+            = new LinkedHashMap<String, Node>(0, 0.75f, true);
+
+    /**
+     * @serialField <p>队列Q，队头是下一个被淘汰的HIR</p>
+     */
+    private final LinkedHashMap<String, Node> queue
+            = new LinkedHashMap<String, Node>(0, 0.75f, true);
+
+    /**
+     * @serialField <p>已淘汰但仍在栈中的HIR，按淘汰的先后排列，超出容量时最早的被遗忘</p>
+     */
+    private final LinkedHashMap<String, Node> nonResident = new LinkedHashMap<String, Node>();
+
+    private long maximum;
+
+    private long maxLir;
+
+    private long lirWeight;
+
+    private long nonResidentWeight;
+
+    /**
+     * @serialField <p>上一次{@link #victim()}选出的key，随后的{@link #onRemove}据此区分淘汰与删除</p>
+     */
+    private String pendingVictim;
+
+    @Override
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+        maxLir = maximum - Math.max(1, (long) (maximum * HIR_RATIO));
+        demoteLir();
+        trimNonResident();
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+        Node node = nodes.get(key);
+        if (node != null && node.status != HIR_NON_RESIDENT) {
+            onUpdate(key, weight);
+            return;
+        }
+        if (node != null) {
+            //仍在栈中，重用距离比栈底的LIR短
+            nonResident.remove(key);
+            nonResidentWeight -= node.weight;
+            node.weight = weight;
+            node.status = LIR;
+            lirWeight += weight;
+            stack.put(key, node);
+            demoteLir();
+            return;
+        }
+        if (lirWeight + weight <= maxLir) {
+            //LIR还没有满，直接作为LIR
+            node = new Node(weight, LIR);
+            lirWeight += weight;
+        } else {
+            node = new Node(weight, HIR_RESIDENT);
+            queue.put(key, node);
+        }
+        nodes.put(key, node);
+        stack.put(key, node);
+    }
+
+    @Override
+    public void onUpdate(String key, int weight) {
+        Node node = nodes.get(key);
+        if (node == null || node.status == HIR_NON_RESIDENT) {
+            onInsert(key, weight);
+            return;
+        }
+        if (node.status == LIR) {
+            lirWeight += weight - node.weight;
+        }
+        node.weight = weight;
+        hit(key, node);
+        demoteLir();
+    }
+
+    @Override
+    public void onAccess(String key) {
+        Node node = nodes.get(key);
+        if (node != null && node.status != HIR_NON_RESIDENT) {
+            hit(key, node);
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        boolean evicted = key.equals(pendingVictim);
+        pendingVictim = null;
+        Node node = nodes.get(key);
+        if (node == null || node.status == HIR_NON_RESIDENT) {
+            return;
+        }
+        queue.remove(key);
+        if (evicted && node.status == HIR_RESIDENT && stack.containsKey(key)) {
+            //保留在栈中，用于计算下一次访问时的重用距离
+            node.status = HIR_NON_RESIDENT;
+            nonResident.put(key, node);
+            nonResidentWeight += node.weight;
+            trimNonResident();
+            return;
+        }
+        nodes.remove(key);
+        stack.remove(key);
+        if (node.status == LIR) {
+            lirWeight -= node.weight;
+            prune();
+        }
+    }
+
+    @Override
+    public String victim() {
+        String victim = eldest(queue);
+        if (victim == null) {
+            //容量缩小后可能所有驻留的key都是LIR
+            prune();
+            victim = eldest(stack);
+        }
+        pendingVictim = victim;
+        return victim;
+    }
+
+    private void hit(String key, Node node) {
+        if (node.status == LIR) {
+            boolean bottom = key.equals(eldest(stack));
+            stack.put(key, node);
+            if (bottom) {
+                prune();
+            }
+        } else if (stack.containsKey(key)) {
+            queue.remove(key);
+            node.status = LIR;
+            lirWeight += node.weight;
+            stack.put(key, node);
+            demoteLir();
+        } else {
+            stack.put(key, node);
+            queue.put(key, node);
+        }
+    }
+
+    /**
+     * @see <p>LIR超出容量时，把栈底的LIR降级为HIR并移动到队尾</p>
+     */
+    private void demoteLir() {
+        while (lirWeight > maxLir && !stack.isEmpty()) {
+            prune();
+            String key = eldest(stack);
+            if (key == null) {
+                break;
+            }
+            Node node = stack.remove(key);
+            node.status = HIR_RESIDENT;
+            lirWeight -= node.weight;
+            queue.put(key, node);
+        }
+        prune();
+    }
+
+    /**
+     * @see <p>移除栈底的HIR，保证栈底总是LIR，已淘汰的HIR离开栈后被遗忘</p>
+     */
+    private void prune() {
+        while (!stack.isEmpty()) {
+            Map.Entry<String, Node> bottom = stack.entrySet().iterator().next();
+            Node node = bottom.getValue();
+            if (node.status == LIR) {
+                return;
+            }
+            String key = bottom.getKey();
+            stack.remove(key);
+            if (node.status == HIR_NON_RESIDENT) {
+                nodes.remove(key);
+                nonResident.remove(key);
+                nonResidentWeight -= node.weight;
+            }
+        }
+    }
+
+    private void trimNonResident() {
+        while (nonResidentWeight > maximum && !nonResident.isEmpty()) {
+            Map.Entry<String, Node> eldest = nonResident.entrySet().iterator().next();
+            String key = eldest.getKey();
+            nonResident.remove(key);
+            nonResidentWeight -= eldest.getValue().weight;
+            stack.remove(key);
+            nodes.remove(key);
+        }
+    }
+
+    private static String eldest(LinkedHashMap<String, Node> region) {
+        return region.isEmpty() ? null : region.keySet().iterator().next();
+    }
+}
@@ -0,0 +1,437 @@
+package com.richsjeson.cache.memory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @see <p>以long为key的LRU缓存，用于数字ID作为key的场景
+ * 1）key保存在long[]中，使用开放寻址（线性探测）查找，不需要装箱，也没有每个条目一个的节点对象
+ * 2）LRU顺序保存在两个int[]中（前驱与后继的槽位下标），移动与淘汰都是O(1)
+ * 3）删除时把后面的条目前移（backward shift），不留下墓碑，探测长度不会随删除变长
+ * 4）容量按条目数计算，表的大小为2的幂，随条目数增长，装载因子不超过0.75
+ * </p>
+ * 与{@link LruCache}一样，所有方法都是线程安全的。
+ */
+public class LongLruCache<V> {
+
+    private static final int NONE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    /**
+     * @serialField <p>槽位中的数据，为null表示空槽位</p>
+     */
+    private Object[] values;
+    /**
+     * @serialField <p>LRU链表中前一个（更久未使用的）条目的槽位，队头为NONE</p>
+     */
+    private int[] prev;
+    /**
+     * @serialField <p>LRU链表中后一个（更近使用的）条目的槽位，队尾为NONE</p>
+     */
+    private int[] next;
+
+    private int mask;
+
+    private int threshold;
+    /**
+     * @serialField <p>最久未使用的条目</p>
+     */
+    private int head = NONE;
+    /**
+     * @serialField <p>最近使用的条目</p>
+     */
+    private int tail = NONE;
+
+    private int size;
+    private int maxSize;
+
+    private int putCount;
+    private int createCount;
+    private int evictionCount;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param maxSize the maximum number of entries in the cache.
+     */
+    public LongLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@link #create}. If a value was returned, it is moved to the
+     * tail of the queue. This returns null if a value is not cached and
+     * cannot be created.
+     */
+    public final V get(long key) {
+        V createdValue;
+        synchronized (this) {
+            int slot = find(key);
+            if (slot != NONE) {
+                hitCount++;
+                moveToTail(slot);
+                return valueAt(slot);
+            }
+            missCount++;
+        }
+
+        createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        V mapValue;
+        synchronized (this) {
+            createCount++;
+            int slot = find(key);
+            if (slot != NONE) {
+                //create期间其他线程放入了数据，保留已有的数据
+                mapValue = valueAt(slot);
+            } else {
+                mapValue = null;
+                insert(key, createdValue);
+            }
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        }
+        trimToSize(maxSize);
+        return createdValue;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the tail of
+     * the queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            putCount++;
+            int slot = find(key);
+            if (slot != NONE) {
+                previous = valueAt(slot);
+                values[slot] = value;
+                moveToTail(slot);
+            } else {
+                previous = null;
+                insert(key, value);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(long key) {
+        V previous;
+        synchronized (this) {
+            int slot = find(key);
+            if (slot == NONE) {
+                return null;
+            }
+            previous = valueAt(slot);
+            delete(slot);
+        }
+
+        entryRemoved(false, key, previous, null);
+        return previous;
+    }
+
+    public final synchronized boolean containsKey(long key) {
+        return find(key) != NONE;
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(int maxSize) {
+        while (true) {
+            long key;
+            V value;
+            synchronized (this) {
+                if (size <= maxSize || head == NONE) {
+                    break;
+                }
+                int slot = head;
+                key = keys[slot];
+                value = valueAt(slot);
+                delete(slot);
+                evictionCount++;
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists.
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(long key) {
+        return null;
+    }
+
+    public final synchronized int size() {
+        return size;
+    }
+
+    public final synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public final synchronized int missCount() {
+        return missCount;
+    }
+
+    public final synchronized int createCount() {
+        return createCount;
+    }
+
+    public final synchronized int putCount() {
+        return putCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public final synchronized Map<Long, V> snapshot() {
+        Map<Long, V> snapshot = new LinkedHashMap<Long, V>(size * 4 / 3 + 1);
+        for (int slot = head; slot != NONE; slot = next[slot]) {
+            snapshot.put(keys[slot], valueAt(slot));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public final synchronized String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("LongLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hitCount, missCount, hitPercent);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * @see <p>把long打散为槽位下标，数字ID通常是连续的，需要先混合高低位</p>
+     */
+    private int indexOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int find(long key) {
+        for (int slot = indexOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @see <p>放入新的条目，并作为最近使用的条目链接到队尾，调用前key必须不存在</p>
+     */
+    private void insert(long key, Object value) {
+        if (size >= threshold) {
+            rehash(keys.length << 1);
+        }
+        int slot = indexOf(key);
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        linkLast(slot);
+        size++;
+    }
+
+    /**
+     * @see <p>删除槽位中的条目，并把同一探测序列中后面的条目前移填补空位</p>
+     */
+    private void delete(int slot) {
+        unlink(slot);
+        size--;
+        int hole = slot;
+        int current = (slot + 1) & mask;
+        while (values[current] != null) {
+            int home = indexOf(keys[current]);
+            //home不在(hole, current]之间时，current可以前移到hole
+            if (((current - home) & mask) >= ((current - hole) & mask)) {
+                move(current, hole);
+                hole = current;
+            }
+            current = (current + 1) & mask;
+        }
+        values[hole] = null;
+        prev[hole] = NONE;
+        next[hole] = NONE;
+    }
+
+    /**
+     * @see <p>把条目从from移动到to，同时修正LRU链表中指向它的下标</p>
+     */
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        values[to] = values[from];
+        int before = prev[from];
+        int after = next[from];
+        prev[to] = before;
+        next[to] = after;
+        if (before != NONE) {
+            next[before] = to;
+        } else {
+            head = to;
+        }
+        if (after != NONE) {
+            prev[after] = to;
+        } else {
+            tail = to;
+        }
+    }
+
+    private void linkLast(int slot) {
+        prev[slot] = tail;
+        next[slot] = NONE;
+        if (tail != NONE) {
+            next[tail] = slot;
+        } else {
+            head = slot;
+        }
+        tail = slot;
+    }
+
+    private void unlink(int slot) {
+        int before = prev[slot];
+        int after = next[slot];
+        if (before != NONE) {
+            next[before] = after;
+        } else {
+            head = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        } else {
+            tail = before;
+        }
+    }
+
+    private void moveToTail(int slot) {
+        if (slot != tail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        Arrays.fill(prev, NONE);
+        Arrays.fill(next, NONE);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @see <p>扩容后按LRU顺序重新放入所有条目，链表顺序保持不变</p>
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldNext = next;
+        int slot = head;
+        allocate(capacity);
+        head = NONE;
+        tail = NONE;
+        size = 0;
+        while (slot != NONE) {
+            insert(oldKeys[slot], oldValues[slot]);
+            slot = oldNext[slot];
+        }
+    }
+}
@@ -22,13 +22,32 @@ package com.richsjeson.cache.memory;
 
 import android.graphics.Bitmap;
 import com.richsjeson.cache.interf.CacheFacade;
+import com.richsjeson.cache.interf.RemovalCause;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.interf.ResizableCache;
+import com.richsjeson.cache.interf.SystemFacade;
+import com.richsjeson.cache.stats.StatsRecorder;
+import com.richsjeson.cache.stats.TierStats;
+import com.richsjeson.cache.utils.RemovalExecutor;
 
 import java.io.IOException;
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Static library version of {@link android.util.LruCache}. Used to write apps
@@ -44,63 +63,267 @@ import java.util.Map;
  * 3）下载信息缓存
  * 4）常用的一些变量 缓存，命中率过高的键值对直接从缓存中读取。命中低的缓存通过LRU算法自动清理缓存。
  * 5）当缓存达到一定的情况时，自动清除缓存。
+ *
+ * <p>读操作不加锁：数据保存在{@link ConcurrentHashMap}中，命中时只把访问记录写入
+ * {@link ReadBuffer}，再由持有淘汰锁的线程批量回放到LRU顺序中。写操作和淘汰仍然
+ * 在淘汰锁内串行执行。</p>
+ *
+ * <p>默认按字节数计算容量：每个条目的权重是编码后数据的实际长度，以引用方式保存的
+ * 数据由编解码器的{@link com.richsjeson.cache.codec.Weigher}估算，再加上条目本身的开销。
+ * 数据在{@link #commit}时重新计算权重，超过整个缓存容量的条目直接丢弃，
+ * 设置了{@link #setMaxEntryPercent}时，超过容量该比例的条目同样丢弃。</p>
+ *
+ * <p>开启溢出区后（{@link #setOverflow}），被淘汰的条目以软引用或弱引用保存，
+ * 不计入容量，内存不足时由GC回收；再次命中时重新放回LRU。被回收的引用从引用队列中
+ * 批量清理。设置了下一级缓存（{@link #setVictimCache}）时，被淘汰的条目交给下一级缓存，不再保存到溢出区。</p>
+ *
+ * <p>支持写入后过期与访问后空闲过期（{@link #setExpireAfterWrite}、{@link #setExpireAfterAccess}），
+ * 单个条目可以通过{@link MemoryEntry#setTimeToLive}设置自己的有效期。过期时间由
+ * {@link TimerWheel}管理，在写操作和读缓冲区回放时顺带回收，不需要扫描整个缓存。
+ * 时间来自{@link SystemFacade#currentTimeMillis()}。</p>
+ *
+ * <p>条目离开缓存时先调用{@link #entryRemoved}，再把移除原因（{@link RemovalCause}）
+ * 通知给{@link RemovalListener}。监听器在有界的后台线程池中执行，不会拖慢触发淘汰的写操作。</p>
  */
-public class LruCache implements CacheFacade {
+public class LruCache implements CacheFacade, ResizableCache {
+
+    /**
+     * @serialField <p>数据表，读操作直接查询，不需要加锁</p>
+     */
+    private final ConcurrentHashMap<String, MemoryEntry> data;
+    /**
+     * @serialField <p>淘汰策略，维护访问顺序，只在持有淘汰锁时访问</p>
+     */
+    private final EvictionPolicy policy;
+    /**
+     * @serialField <p>淘汰锁，保护访问顺序、size以及写操作</p>
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    /**
+     * @serialField <p>读访问记录的缓冲区</p>
+     */
+    private final ReadBuffer readBuffer = new ReadBuffer();
+
+    private final ReadBuffer.Consumer accessRecorder = new ReadBuffer.Consumer() {
+        @Override
+        public void accept(String key) {
+            policy.onAccess(key);
+            if (expireAfterAccessMillis > 0) {
+                MemoryEntry entry = data.get(key);
+                if (entry != null && entry.getTimer() != null) {
+                    scheduleExpiration(entry, false);
+                }
+            }
+        }
+    };
+    /**
+     * @serialField <p>每个条目固定的开销：MemoryEntry对象（48字节）、ConcurrentHashMap以及淘汰策略中的节点</p>
+     */
+    static final int ENTRY_OVERHEAD = 80;
 
-    private final LinkedHashMap<String, MemoryEntry> map;
     /** Size of this cache in units. Not necessarily the number of elements. */
     private int size;
     private int maxSize;
+    /**
+     * @serialField <p>单个条目最多占容量的百分比，容量随内存压力缩小时上限一起缩小</p>
+     */
+    private volatile int maxEntryPercent = 100;
 
-    private int putCount;
     private int createCount;
-    private int evictionCount;
-    private int hitCount;
-    private int missCount;
     /**
-     * @serialField  <p>将对象放入引用队列，等待垃圾回收</p>
+     * @serialField <p>命中、未命中、写入、淘汰与加载的统计，不需要持有淘汰锁</p>
+     */
+    private final StatsRecorder stats;
+    /**
+     * @serialField <p>不可变的数据是否直接保存对象引用</p>
+     */
+    private volatile boolean storeByReference;
+    /**
+     * @serialField  <p>溢出区中的引用被GC回收后进入该队列，等待从溢出区中清理</p>
+     */
+    private final ReferenceQueue<MemoryEntry> mQueue = new ReferenceQueue<MemoryEntry>();
+    /**
+     * @serialField  <p>溢出区，保存被淘汰条目的软引用或弱引用，只在持有淘汰锁时修改</p>
+     */
+    private final ConcurrentHashMap<String, Reference<MemoryEntry>> overflow
+            = new ConcurrentHashMap<String, Reference<MemoryEntry>>();
+
+    private volatile Overflow overflowType = Overflow.NONE;
+    /**
+     * @serialField <p>接收被淘汰条目的下一级缓存，为空时被淘汰的条目按溢出区的设置保存</p>
+     */
+    private volatile VictimCache victimCache;
+    /**
+     * @serialField <p>已被淘汰、正在交给下一级缓存的条目，该key被删除或重新写入时移除，只在持有淘汰锁时放入与移除单个key</p>
+     */
+    private final ConcurrentHashMap<String, MemoryEntry> evicting
+            = new ConcurrentHashMap<String, MemoryEntry>();
+
+    private int overflowHitCount;
+    private int reclaimedCount;
+
+    /**
+     * @serialField <p>时间来源，为空时使用System.currentTimeMillis()</p>
+     */
+    private volatile SystemFacade clock;
+    /**
+     * @serialField <p>写入后多久过期，0表示不过期</p>
+     */
+    private volatile long expireAfterWriteMillis;
+    /**
+     * @serialField <p>多久没有访问后过期，0表示不过期</p>
+     */
+    private volatile long expireAfterAccessMillis;
+    /**
+     * @serialField <p>过期时间轮，第一次需要时才创建，只在持有淘汰锁时访问</p>
+     */
+    private TimerWheel timerWheel;
+
+    private final List<TimerWheel.Node> expiredTimers = new ArrayList<TimerWheel.Node>();
+
+    private int expiredCount;
+
+    /**
+     * @serialField <p>正在进行的加载，同一个key的并发未命中共享同一个任务</p>
+     */
+    private final ConcurrentHashMap<String, LoadTask> loading
+            = new ConcurrentHashMap<String, LoadTask>();
+    /**
+     * @serialField <p>正在被重新写入的条目在写入前的数据，提交时作为被替换的旧值通知</p>
+     */
+    private final ConcurrentHashMap<String, MemoryEntry> replacing
+            = new ConcurrentHashMap<String, MemoryEntry>();
+    /**
+     * @serialField <p>子类是否覆盖了{@link #create}</p>
+     */
+    private final boolean loads;
+
+    /**
+     * @serialField <p>移除监听器，为空时只调用{@link #entryRemoved}</p>
+     */
+    private volatile RemovalListener<MemoryEntry> removalListener;
+
+    private volatile Executor removalExecutor;
+
+    private final AtomicInteger loadExceptionCount = new AtomicInteger();
+    private final AtomicInteger coalescedCount = new AtomicInteger();
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * @see <p>被淘汰的条目在溢出区中的保存方式</p>
+     */
+    public enum Overflow {
+        /**
+         * 不保留被淘汰的条目
+         */
+        NONE,
+        /**
+         * 软引用，堆内存不足时才会被回收
+         */
+        SOFT,
+        /**
+         * 弱引用，下一次GC时即可被回收
+         */
+        WEAK
+    }
+
+    /**
+     * @see <p>接收被淘汰条目的下一级缓存，例如{@link OffHeapCache}</p>
      */
-    private ReferenceQueue<MemoryEntry> mQueue = new ReferenceQueue<MemoryEntry>();
+    public interface VictimCache {
+        /**
+         * @see <p>在淘汰条目的线程上、释放淘汰锁之后同步调用。写入前必须在自己的锁内通过
+         * {@link LruCache#isEvicting}确认淘汰仍然有效，该key在淘汰之后被删除或重新写入时不能再写入；
+         * 删除与写入的一方先修改一级缓存，再在同一把锁内删除下一级缓存中的数据</p>
+         * @return 是否写入成功
+         */
+        boolean offer(LruCache owner, MemoryEntry entry);
+    }
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
-     *     the maximum number of entries in the cache. For all other caches,
-     *     this is the maximum sum of the sizes of the entries in this cache.
+     *     the maximum number of bytes held by the entries in the cache. For
+     *     all other caches, this is the maximum sum of the sizes of the
+     *     entries in this cache.
      */
     public LruCache(final int maxSize) {
+        this(maxSize, EvictionPolicy.Type.LRU);
+    }
+
+    /**
+     * @param maxSize see {@link #LruCache(int)}.
+     * @param policyType the eviction policy that decides which entry to drop
+     *     when the cache is full. {@link EvictionPolicy.Type#TINY_LFU},
+     *     {@link EvictionPolicy.Type#ARC}, {@link EvictionPolicy.Type#TWO_QUEUE}
+     *     and {@link EvictionPolicy.Type#LIRS} keep the frequently used entries
+     *     when the cache is scanned.
+     */
+    public LruCache(final int maxSize, EvictionPolicy.Type policyType) {
+        this(maxSize, policyType, new StatsRecorder());
+    }
+
+    /**
+     * @param stats 统计的记录，{@link SegmentedLruCache}的所有段共用一个
+     */
+    LruCache(final int maxSize, EvictionPolicy.Type policyType, StatsRecorder stats) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
+        if (policyType == null) {
+            throw new NullPointerException("policyType == null");
+        }
         this.maxSize = maxSize;
-        this.size=size();
-        this.map = new LinkedHashMap<String, MemoryEntry>(0, 0.75f, true){
-
-            @Override
-            protected boolean removeEldestEntry(Entry<String, MemoryEntry> eldest) {
-                //当缓存占满时，立即从缓存中将未使用的数据移除
-                if(size()<maxSize){
-                    return false;
-                }else{
-                    return true;
-                }
-            }
-        };
+        this.data = new ConcurrentHashMap<String, MemoryEntry>();
+        //容量的淘汰统一交给trimToSize处理，保证size的统计与淘汰策略保持一致
+        this.policy = policyType.newPolicy();
+        this.policy.setMaximum(maxSize);
+        this.loads = overridesCreate();
+        this.stats = stats;
     }
 
 
-    private class WeakReferenceMemory extends WeakReference<MemoryEntry> {
+    /**
+     * @see <p>溢出区中的引用，保存key以便被回收后从溢出区中删除</p>
+     */
+    private interface KeyedReference {
+        String getKey();
+    }
+
+    private static final class WeakReferenceMemory extends WeakReference<MemoryEntry>
+            implements KeyedReference {
 
-        private String key;
+        private final String key;
 
+        WeakReferenceMemory(MemoryEntry memoryEntry, ReferenceQueue<MemoryEntry> queue) {
+            super(memoryEntry, queue);
+            this.key=memoryEntry.getmKey();
+        }
+
+        @Override
         public String getKey() {
             return key;
         }
+    }
 
-        public WeakReferenceMemory(MemoryEntry memoryEntry, ReferenceQueue<MemoryEntry> queue) {
+    private static final class SoftReferenceMemory extends SoftReference<MemoryEntry>
+            implements KeyedReference {
+
+        private final String key;
+
+        SoftReferenceMemory(MemoryEntry memoryEntry, ReferenceQueue<MemoryEntry> queue) {
             super(memoryEntry, queue);
             this.key=memoryEntry.getmKey();
         }
 
+        @Override
+        public String getKey() {
+            return key;
+        }
     }
     /**
      * Sets the size of the cache.
@@ -112,8 +335,12 @@ public class LruCache implements CacheFacade {
             throw new IllegalArgumentException("maxSize <= 0");
         }
 
-        synchronized (this) {
+        evictionLock.lock();
+        try {
             this.maxSize = maxSize;
+            policy.setMaximum(maxSize);
+        } finally {
+            evictionLock.unlock();
         }
         trimToSize(maxSize);
     }
@@ -123,76 +350,454 @@ public class LruCache implements CacheFacade {
         return null;
     }
 
+    /**
+     * Enables or disables storing immutable values (strings, boxed
+     * primitives, enums) as plain references. Mutable values are always
+     * serialized so callers cannot change the cached copy. Only affects
+     * entries created after this call.
+     */
+    /**
+     * Limits a single entry to {@code percent} of the maximum size. Heavier
+     * values are not cached, as with values heavier than the whole cache, so
+     * one large value cannot flush every other entry; callers keep them in a
+     * lower tier instead.
+     */
+    public void setMaxEntryPercent(int percent) {
+        if (percent <= 0 || percent > 100) {
+            throw new IllegalArgumentException("percent must be in (0, 100]");
+        }
+        maxEntryPercent = percent;
+    }
+
+    /**
+     * @see <p>单个条目允许的最大权重，必须在持有淘汰锁时调用</p>
+     */
+    private int maxEntryWeight() {
+        return (int) ((long) maxSize * maxEntryPercent / 100);
+    }
+
+    public void setStoreByReference(boolean storeByReference) {
+        this.storeByReference = storeByReference;
+    }
+
+    public boolean isStoreByReference() {
+        return storeByReference;
+    }
+
+    /**
+     * Sets how entries evicted to make space are kept around. With
+     * {@link Overflow#SOFT} or {@link Overflow#WEAK} they are held through a
+     * reference the GC may clear at any time, so they never count against
+     * {@link #maxSize()} and never cause an OutOfMemoryError. Switching to
+     * {@link Overflow#NONE} drops the current overflow entries.
+     */
+    public void setOverflow(Overflow type) {
+        if (type == null) {
+            throw new NullPointerException("type == null");
+        }
+        evictionLock.lock();
+        try {
+            overflowType = type;
+            if (type == Overflow.NONE) {
+                clearOverflow();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public Overflow getOverflow() {
+        return overflowType;
+    }
+
+    /**
+     * Hands entries evicted for capacity to {@code victimCache} instead of
+     * the overflow area, so the same data is never kept in both. Entries
+     * removed, replaced or expired are not handed over.
+     */
+    public void setVictimCache(VictimCache victimCache) {
+        this.victimCache = victimCache;
+    }
+
+    /**
+     * @see <p>entry的淘汰是否仍然有效：淘汰之后该key没有被删除、重新写入或被清空</p>
+     */
+    public boolean isEvicting(MemoryEntry entry) {
+        return evicting.get(entry.getmKey()) == entry;
+    }
+
+    /**
+     * Sets the time source used for expiration. Tests can pass their own
+     * {@link SystemFacade} to drive the clock; {@code null} restores
+     * {@link System#currentTimeMillis()}.
+     */
+    public void setClock(SystemFacade clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Entries expire {@code millis} after they were last written, unless
+     * they carry their own {@link MemoryEntry#setTimeToLive time to live}.
+     * Zero disables it. Only affects entries written after this call.
+     */
+    public void setExpireAfterWrite(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis < 0");
+        }
+        expireAfterWriteMillis = millis;
+    }
+
+    /**
+     * Entries expire {@code millis} after they were last read or written.
+     * Zero disables it. Only affects entries written after this call.
+     */
+    public void setExpireAfterAccess(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis < 0");
+        }
+        expireAfterAccessMillis = millis;
+    }
+
+    /**
+     * Sets the listener told about every entry that leaves the cache, with
+     * the {@link RemovalCause}. It runs on the removal executor, so a put
+     * that evicts entries does not wait for it. {@code null} removes it.
+     */
+    public void setRemovalListener(RemovalListener<MemoryEntry> listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * Sets the executor the removal listener runs on. {@code null} restores
+     * the shared, bounded {@link RemovalExecutor#getDefault() default}.
+     */
+    public void setRemovalExecutor(Executor executor) {
+        this.removalExecutor = executor;
+    }
+
+    /**
+     * Removes expired entries and replays pending reads now instead of
+     * waiting for the next write.
+     */
+    public void cleanUp() {
+        trimToSize(maxSize);
+    }
+
     /**
      * Returns the value for {@code key} if it exists in the cache or can be
      * created by {@code #create}. If a value was returned, it is moved to the
      * head of the queue. This returns null if a value is not cached and cannot
      * be created.
+     *
+     * <p>A hit takes no lock. The access is recorded in the read buffer and
+     * replayed into the LRU order later, so the entry may reach the head of
+     * the queue slightly after this method returns.
      */
     public final MemoryEntry getEntry(String key) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
 
-        MemoryEntry mapValue;
-        synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
-            }
-            missCount++;
+        long startTime = stats.startTimer();
+        try {
+            return getOrLoad(key);
+        } finally {
+            stats.recordGet(startTime);
+        }
+    }
+
+    /**
+     * @see <p>查询缓存，未命中时加载</p>
+     */
+    private MemoryEntry getOrLoad(String key) {
+        MemoryEntry mapValue = getIfPresent(key);
+        if (mapValue != null) {
+            return mapValue;
+        }
+        stats.recordMiss();
+        if (!loads) {
+            return null;
         }
 
         /*
          * Attempt to create a value. This may take a long time, and the map
-         * may be different when create() returns. If a conflicting value was
-         * added to the map while create() was working, we leave that value in
-         * the map and release the created value.
+         * may be different when create() returns. Concurrent misses for the
+         * same key wait for the first caller's load instead of calling
+         * create() again.
          */
+        LoadTask task = loading.get(key);
+        if (task == null) {
+            LoadTask newTask = new LoadTask(key);
+            task = loading.putIfAbsent(key, newTask);
+            if (task == null) {
+                newTask.run();
+                return join(newTask);
+            }
+        }
+        if (task.runner == Thread.currentThread()) {
+            throw new IllegalStateException("create() recursively loads key " + key);
+        }
+        coalescedCount.incrementAndGet();
+        return join(task);
+    }
 
-        MemoryEntry createdValue = create(key);
+    /**
+     * Returns a future for the value of {@code key}. A cached value yields
+     * an already completed future. On a miss the load runs on
+     * {@code executor}, or the caller joins a load already in flight for
+     * the same key.
+     */
+    public final Future<MemoryEntry> getEntryAsync(String key, Executor executor) {
+        if (key == null || executor == null) {
+            throw new NullPointerException("key == null || executor == null");
+        }
+
+        MemoryEntry mapValue = getIfPresent(key);
+        if (mapValue != null || !loads) {
+            if (mapValue == null) {
+                stats.recordMiss();
+            }
+            FutureTask<MemoryEntry> done = new FutureTask<MemoryEntry>(NO_OP, mapValue);
+            done.run();
+            return done;
+        }
+        stats.recordMiss();
+
+        LoadTask task = loading.get(key);
+        if (task == null) {
+            LoadTask newTask = new LoadTask(key);
+            task = loading.putIfAbsent(key, newTask);
+            if (task == null) {
+                executor.execute(newTask);
+                return newTask;
+            }
+        }
+        coalescedCount.incrementAndGet();
+        return task;
+    }
+
+    /**
+     * @see <p>查询缓存，命中时记录访问，不会调用create</p>
+     */
+    private MemoryEntry getIfPresent(String key) {
+        MemoryEntry mapValue = data.get(key);
+        if (mapValue != null) {
+            TimerWheel.Node timer = mapValue.getTimer();
+            if (timer != null) {
+                long now = now();
+                if (isExpired(timer, now)) {
+                    //已过期但尚未被时间轮回收，视为未命中
+                    tryMaintenance();
+                    return null;
+                }
+                timer.accessTime = now;
+            }
+            stats.recordHit();
+            afterRead(key);
+            return mapValue;
+        }
+        if (!overflow.isEmpty()) {
+            mapValue = promoteFromOverflow(key);
+            if (mapValue != null) {
+                stats.recordHit();
+                return mapValue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see <p>调用create并放入缓存，由加载任务执行</p>
+     */
+    private MemoryEntry load(String key) {
+        long loadStart = System.nanoTime();
+        MemoryEntry createdValue;
+        try {
+            createdValue = create(key);
+        } catch (RuntimeException e) {
+            stats.recordLoadFailure(System.nanoTime() - loadStart);
+            loadExceptionCount.incrementAndGet();
+            throw e;
+        }
         if (createdValue == null) {
+            stats.recordLoadFailure(System.nanoTime() - loadStart);
             return null;
         }
+        stats.recordLoadSuccess(System.nanoTime() - loadStart);
 
-        synchronized (this) {
+        MemoryEntry mapValue;
+        MemoryEntry expired = null;
+        boolean rejected = false;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
             createCount++;
-            mapValue = map.put(key, createdValue);
+            mapValue = data.get(key);
+            if (mapValue != null && isExpired(mapValue)) {
+                //已过期但尚未被时间轮回收的条目由加载的结果替换
+                expired = mapValue;
+                mapValue = null;
+                data.remove(key);
+                policy.onRemove(key);
+                descheduleExpiration(expired);
+                size -= expired.getWeight();
+                expiredCount++;
+            }
 
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
-            } else {
-                size += safeSizeOf(key, createdValue);
+            if (mapValue == null) {
+                evicting.remove(key);
+                int weight = safeSizeOf(key, createdValue);
+                if (weight > maxEntryWeight()) {
+                    //超过整个缓存容量的结果只返回给调用方，不放入缓存
+                    stats.recordEviction(weight);
+                    rejected = true;
+                } else {
+                    createdValue.setWeight(weight);
+                    createdValue.setWriteTime(now());
+                    size += weight;
+                    data.put(key, createdValue);
+                    policy.onInsert(key, weight);
+                    scheduleExpiration(createdValue, true);
+                }
             }
+        } finally {
+            evictionLock.unlock();
         }
 
+        if (expired != null) {
+            notifyRemoval(key, expired, null, RemovalCause.EXPIRED);
+        }
         if (mapValue != null) {
+            //加载期间其他线程通过put写入了数据，保留已有的数据
             entryRemoved(false, key, createdValue, mapValue);
             return mapValue;
+        }
+        if (rejected) {
+            notifyRemoval(key, createdValue, null, RemovalCause.EVICTED);
         } else {
             trimToSize(maxSize);
-            return createdValue;
         }
+        return createdValue;
+    }
+
+    /**
+     * @see <p>等待加载完成，等待期间被中断时继续等待，返回前恢复中断状态</p>
+     */
+    private static MemoryEntry join(Future<MemoryEntry> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @see <p>同一个key正在进行的加载，完成后从loading中移除，之后的未命中会重新加载</p>
+     */
+    private final class LoadTask extends FutureTask<MemoryEntry> {
+
+        private final String key;
+
+        volatile Thread runner;
+
+        LoadTask(final String key) {
+            super(new Callable<MemoryEntry>() {
+                @Override
+                public MemoryEntry call() {
+                    return load(key);
+                }
+            });
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                runner = null;
+            }
+        }
+
+        @Override
+        protected void done() {
+            loading.remove(key, this);
+        }
+    }
+
+    /**
+     * @see <p>子类是否覆盖了create，没有覆盖时未命中不需要创建加载任务</p>
+     */
+    private boolean overridesCreate() {
+        for (Class<?> type = getClass(); type != LruCache.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("create", Object.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                //继续检查父类
+            }
+        }
+        return false;
     }
 
     @Override
     public void memoryAll() {
-        trimToSize(-1);
+        evictAll();
     }
 
     @Override
     public void delete(String key) throws Exception {
-        MemoryEntry cacheEntry = map.get(key);
+        //编码失败的条目提交时被删除，不再有替换
+        replacing.remove(key);
+        MemoryEntry cacheEntry = data.get(key);
         if (cacheEntry == null) {
             throw new Exception("cache entry is null,i can't delete");
         }else{
             remove(key);
         }
     }
+    /**
+     * @see <p>回滚写入。写入时数据已经直接替换到条目中，这里恢复为{@link #beginReplace}保留的旧数据；
+     * 从未提交过的条目没有可恢复的数据，从缓存中移除，不通知监听器</p>
+     */
     @Override
     public void abort(MemoryEntry memoryEntry) {
+        String key = memoryEntry.getmKey();
+        MemoryEntry previous = replacing.remove(key);
+        if (previous != null) {
+            memoryEntry.restore(previous);
+        } else if (memoryEntry.getWriteTime() == 0) {
+            evictionLock.lock();
+            try {
+                if (data.get(key) == memoryEntry) {
+                    data.remove(key);
+                    policy.onRemove(key);
+                    descheduleExpiration(memoryEntry);
+                    size -= memoryEntry.getWeight();
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
         try {
             memoryEntry.abort();
         } catch (IOException e) {
@@ -202,29 +807,133 @@ public class LruCache implements CacheFacade {
 
     @Override
     public MemoryEntry editor(String key) {
-        MemoryEntry cacheEntry = map.get(key);
-        if (cacheEntry == null) {
-            cacheEntry = new MemoryEntry(this, key);
-            put(key, cacheEntry);
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        MemoryEntry cacheEntry = data.get(key);
+        if (cacheEntry != null && !isExpired(cacheEntry)) {
+            afterRead(key);
+            return beginReplace(key, cacheEntry);
         }
+        MemoryEntry expired = null;
+        evictionLock.lock();
+        try {
+            //在同一把锁内完成查找与放入，避免并发创建出两个条目
+            cacheEntry = data.get(key);
+            if (cacheEntry != null) {
+                if (!isExpired(cacheEntry)) {
+                    return beginReplace(key, cacheEntry);
+                }
+                //过期的条目不再复用，避免写入期间被时间轮回收
+                expired = cacheEntry;
+                data.remove(key);
+                policy.onRemove(key);
+                descheduleExpiration(expired);
+                size -= expired.getWeight();
+                expiredCount++;
+            }
+            drainReadBuffer();
+            drainReferenceQueue();
+            evicting.remove(key);
+            //溢出区中仍然存活的条目直接复用，写入的数据会覆盖旧值
+            cacheEntry = takeOverflow(key);
+            if (cacheEntry == null || isExpired(cacheEntry)) {
+                cacheEntry = new MemoryEntry(this, key, storeByReference);
+            } else {
+                //旧数据已在淘汰时通知过，提交时不再视为替换
+                cacheEntry.setWriteTime(0);
+            }
+            stats.recordPut();
+            int weight = safeSizeOf(key, cacheEntry);
+            cacheEntry.setWeight(weight);
+            size += weight;
+            data.put(key, cacheEntry);
+            policy.onInsert(key, weight);
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (expired != null) {
+            notifyRemoval(key, expired, null, RemovalCause.EXPIRED);
+        }
+        trimToSize(maxSize);
         return cacheEntry;
     }
 
+    /**
+     * @see <p>复用已提交的条目写入新数据，写入会覆盖条目中的数据，所以先保留一份旧的数据</p>
+     */
+    private MemoryEntry beginReplace(String key, MemoryEntry cacheEntry) {
+        if (cacheEntry.getWriteTime() != 0) {
+            replacing.putIfAbsent(key, cacheEntry.snapshot());
+        }
+        return cacheEntry;
+    }
+
+    /**
+     * Re-weighs {@code memoryEntry} once its value has been written. An entry
+     * heavier than the whole cache is dropped rather than flushing every
+     * other entry out to make room for it.
+     */
+    @Override
+    public void commit(MemoryEntry memoryEntry) {
+        long startTime = stats.startTimer();
+        String key = memoryEntry.getmKey();
+        boolean rejected = false;
+        boolean replaced = false;
+        MemoryEntry previous = replacing.remove(key);
+        evictionLock.lock();
+        try {
+            if (data.get(key) != memoryEntry) {
+                //条目已被淘汰或替换
+                return;
+            }
+            drainReadBuffer();
+            int weight = safeSizeOf(key, memoryEntry);
+            if (weight > maxEntryWeight()) {
+                data.remove(key);
+                policy.onRemove(key);
+                descheduleExpiration(memoryEntry);
+                size -= memoryEntry.getWeight();
+                stats.recordEviction(memoryEntry.getWeight());
+                rejected = true;
+            } else {
+                size += weight - memoryEntry.getWeight();
+                memoryEntry.setWeight(weight);
+                //提交过的条目再次提交，旧数据已被覆盖
+                replaced = memoryEntry.getWriteTime() != 0;
+                memoryEntry.setWriteTime(now());
+                policy.onUpdate(key, weight);
+                scheduleExpiration(memoryEntry, true);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (rejected) {
+            notifyRemoval(key, memoryEntry, null, RemovalCause.EVICTED);
+        } else {
+            if (replaced) {
+                notifyRemoval(key, previous != null ? previous : memoryEntry, memoryEntry, RemovalCause.REPLACED);
+            }
+            trimToSize(maxSize);
+        }
+        stats.recordPut(startTime);
+    }
+
     @Override
     public boolean has(String key) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
 
-        MemoryEntry mapValue;
-        synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                return true;
-            }else{
-                return false;
-            }
+        MemoryEntry entry = data.get(key);
+        if (entry != null) {
+            return !isExpired(entry);
         }
+        Reference<MemoryEntry> reference = overflow.get(key);
+        return reference != null && reference.get() != null;
     }
 
     /**
@@ -238,57 +947,243 @@ public class LruCache implements CacheFacade {
             throw new NullPointerException("key == null || value == null");
         }
 
-        Object previous;
-        synchronized (this) {
-            putCount++;
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
+        long startTime = stats.startTimer();
+        MemoryEntry previous;
+        boolean rejected;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            previous = putLocked(key, value);
+            rejected = data.get(key) != value;
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (previous != null) {
+            notifyRemoval(key, previous, rejected ? null : value, RemovalCause.REPLACED);
+        }
+        if (!rejected) {
+            trimToSize(maxSize);
+        }
+        stats.recordPut(startTime);
+        return previous;
+    }
+
+    /**
+     * @see <p>在淘汰锁内放入条目，超过整个缓存容量的条目不放入，同时移除旧的数据</p>
+     * @return 原有的条目
+     */
+    private MemoryEntry putLocked(String key, MemoryEntry value) {
+        overflow.remove(key);
+        evicting.remove(key);
+        stats.recordPut();
+        MemoryEntry previous;
+        int weight = safeSizeOf(key, value);
+        boolean rejected = weight > maxEntryWeight();
+        if (rejected) {
+            previous = data.remove(key);
+            if (previous != null) {
+                policy.onRemove(key);
+            }
+        } else {
+            value.setWeight(weight);
+            value.setWriteTime(now());
+            size += weight;
+            previous = data.put(key, value);
             if (previous != null) {
-                size -= safeSizeOf(key, previous);
+                policy.onUpdate(key, weight);
+            } else {
+                policy.onInsert(key, weight);
             }
         }
-
         if (previous != null) {
-            entryRemoved(false, key, previous, value);
+            size -= previous.getWeight();
+            descheduleExpiration(previous);
+        }
+        if (!rejected) {
+            scheduleExpiration(value, true);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the cached entries for {@code keys}, in the order of
+     * {@code keys}. Keys that are neither cached nor created by
+     * {@link #create} are left out of the result. Hits take no lock.
+     */
+    @Override
+    public Map<String, MemoryEntry> getAll(Collection<String> keys) {
+        Map<String, MemoryEntry> result = new LinkedHashMap<String, MemoryEntry>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            MemoryEntry entry = getEntry(key);
+            if (entry != null) {
+                result.put(key, entry);
+            }
         }
+        return result;
+    }
 
+    /**
+     * Caches every value of {@code values}. The values are encoded before the
+     * eviction lock is taken; the lock is then held once for the whole batch
+     * and the cache is trimmed once at the end.
+     */
+    @Override
+    public void putAll(Map<String, ?> values) {
+        List<MemoryEntry> entries = new ArrayList<MemoryEntry>(values.size());
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            if (value.getKey() == null || value.getValue() == null) {
+                throw new NullPointerException("key == null || value == null");
+            }
+            MemoryEntry entry = new MemoryEntry(this, value.getKey(), storeByReference);
+            try {
+                entry.newOutputStream(value.getValue());
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            //编码失败的数据不放入缓存
+            if (!entry.hasErrors()) {
+                entries.add(entry);
+            }
+        }
+
+        List<MemoryEntry> previous = new ArrayList<MemoryEntry>();
+        List<MemoryEntry> replacements = new ArrayList<MemoryEntry>();
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            for (MemoryEntry entry : entries) {
+                String key = entry.getmKey();
+                MemoryEntry old = putLocked(key, entry);
+                if (old != null) {
+                    previous.add(old);
+                    replacements.add(data.get(key) == entry ? entry : null);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        for (int i = 0; i < previous.size(); i++) {
+            MemoryEntry old = previous.get(i);
+            notifyRemoval(old.getmKey(), old, replacements.get(i), RemovalCause.REPLACED);
+        }
         trimToSize(maxSize);
-        return previous;
+    }
+
+    /**
+     * Removes the entries for {@code keys} under a single acquisition of the
+     * eviction lock.
+     */
+    @Override
+    public void removeAll(Collection<String> keys) {
+        List<MemoryEntry> removed = new ArrayList<MemoryEntry>();
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            for (String key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+                overflow.remove(key);
+                evicting.remove(key);
+                MemoryEntry previous = data.remove(key);
+                if (previous != null) {
+                    policy.onRemove(key);
+                    descheduleExpiration(previous);
+                    size -= previous.getWeight();
+                    removed.add(previous);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        for (MemoryEntry previous : removed) {
+            notifyRemoval(previous.getmKey(), previous, null, RemovalCause.EXPLICIT);
+        }
     }
 
     /**
      * Remove the eldest entries until the total of remaining entries is at or
      * below the requested size.
      *
+     * <p>The lock is taken once and the work done is proportional to the
+     * number of evicted entries, so a heavy entry that pushes out many small
+     * ones does not rescan the cache.
+     *
      * @param maxSize the maximum size of the cache before returning. May be -1
      *            to evict even 0-sized elements.
      */
     public void trimToSize(int maxSize) {
-        while (true) {
-            Object key;
-            Object value;
-            synchronized (this) {
-                if (size < 0 || (map.isEmpty() && size != 0)) {
+        List<MemoryEntry> expired;
+        List<MemoryEntry> evicted = null;
+        //清空缓存时不交给下一级缓存
+        VictimCache victims = maxSize < 0 ? null : victimCache;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            drainReferenceQueue();
+            //清空缓存时不保留到溢出区，有下一级缓存时也不保留
+            Overflow keepType = maxSize < 0 || victims != null ? Overflow.NONE : overflowType;
+            if (maxSize < 0) {
+                clearOverflow();
+                evicting.clear();
+            }
+            expired = expireEntries(null);
+            while (true) {
+                if (size < 0 || (data.isEmpty() && size != 0)) {
                     throw new IllegalStateException(getClass().getName()
                             + ".sizeOf() is reporting inconsistent results!");
                 }
 
-                if (size <= maxSize || map.isEmpty()) {
+                if (size <= maxSize || data.isEmpty()) {
                     break;
                 }
-                //如果size>=maxSize的话,则移除，最后一条缓存(最近未使用的缓存键值)
-                Map.Entry<String, MemoryEntry> toEvict = map.entrySet().iterator().next();
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                map.remove(key);
-                size -= safeSizeOf(key, value);
-                evictionCount++;
-                //将当前指针回收
-                toEvict=null;
+                //如果size>=maxSize的话,则由淘汰策略选出要移除的缓存键值
+                String toEvict = policy.victim();
+                if (toEvict == null) {
+                    throw new IllegalStateException("eviction policy lost track of "
+                            + data.size() + " entries");
+                }
+                MemoryEntry value = data.remove(toEvict);
+                policy.onRemove(toEvict);
+                if (value == null) {
+                    continue;
+                }
+                size -= value.getWeight();
+                stats.recordEviction(value.getWeight());
+                //定时器保留在条目中，从溢出区放回时用于判断是否已过期
+                descheduleExpiration(value);
+                if (victims != null) {
+                    evicting.put(toEvict, value);
+                } else if (keepType == Overflow.SOFT) {
+                    overflow.put(toEvict, new SoftReferenceMemory(value, mQueue));
+                } else if (keepType == Overflow.WEAK) {
+                    overflow.put(toEvict, new WeakReferenceMemory(value, mQueue));
+                }
+                if (evicted == null) {
+                    evicted = new ArrayList<MemoryEntry>();
+                }
+                evicted.add(value);
             }
+        } finally {
+            evictionLock.unlock();
+        }
 
-            entryRemoved(true, key, value, null);
+        if (victims != null && evicted != null) {
+            for (MemoryEntry value : evicted) {
+                try {
+                    victims.offer(this, value);
+                } finally {
+                    evicting.remove(value.getmKey(), value);
+                }
+            }
         }
+        notifyEvicted(expired, RemovalCause.EXPIRED);
+        //清空缓存属于使用方的删除
+        notifyEvicted(evicted, maxSize < 0 ? RemovalCause.EXPLICIT : RemovalCause.EVICTED);
     }
 
     /**
@@ -301,16 +1196,24 @@ public class LruCache implements CacheFacade {
             throw new NullPointerException("key == null");
         }
 
-        Object previous;
-        synchronized (this) {
-            previous = map.remove(key);
+        MemoryEntry previous;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            overflow.remove(key);
+            evicting.remove(key);
+            previous = data.remove(key);
             if (previous != null) {
-                size -= safeSizeOf(key, previous);
+                policy.onRemove((String) key);
+                descheduleExpiration(previous);
+                size -= previous.getWeight();
             }
+        } finally {
+            evictionLock.unlock();
         }
 
         if (previous != null) {
-            entryRemoved(false, key, previous, null);
+            notifyRemoval((String) key, previous, null, RemovalCause.EXPLICIT);
         }
 
         return previous;
@@ -332,16 +1235,73 @@ public class LruCache implements CacheFacade {
      *     an eviction or a {@link #remove}.
      */
     protected void entryRemoved(boolean evicted, Object key, Object oldValue, Object newValue) {
+    }
 
-        //执行内存回收的操作
-        WeakReferenceMemory weakRefrence=null;
-        while((weakRefrence=(WeakReferenceMemory)mQueue.poll()) !=null){
-            MemoryEntry entry = (MemoryEntry) map.get(key);
-            map.remove(entry);
-            System.out.println("对象ID : " + entry.getmKey() + "已经被JVM回收");
+    /**
+     * @see <p>溢出区命中后，把条目重新放回LRU</p>
+     * @return 溢出区中没有该key，或已被GC回收时返回null
+     */
+    private MemoryEntry promoteFromOverflow(String key) {
+        MemoryEntry entry;
+        evictionLock.lock();
+        try {
+            drainReferenceQueue();
+            entry = data.get(key);
+            if (entry != null) {
+                //加锁期间已被其他线程放回
+                return entry;
+            }
+            entry = takeOverflow(key);
+            if (entry == null || isExpired(entry)) {
+                return null;
+            }
+            drainReadBuffer();
+            int weight = safeSizeOf(key, entry);
+            if (weight > maxEntryWeight()) {
+                return entry;
+            }
+            entry.setWeight(weight);
+            size += weight;
+            data.put(key, entry);
+            policy.onInsert(key, weight);
+            if (entry.getTimer() != null) {
+                entry.getTimer().accessTime = now();
+            }
+            scheduleExpiration(entry, false);
+            overflowHitCount++;
+        } finally {
+            evictionLock.unlock();
+        }
 
+        trimToSize(maxSize);
+        return entry;
+    }
+
+    /**
+     * @see <p>从溢出区中取出仍然存活的条目，必须在持有淘汰锁时调用</p>
+     */
+    private MemoryEntry takeOverflow(String key) {
+        Reference<MemoryEntry> reference = overflow.remove(key);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * @see <p>批量清理已被GC回收的引用，必须在持有淘汰锁时调用</p>
+     */
+    private void drainReferenceQueue() {
+        Reference<? extends MemoryEntry> reference;
+        while ((reference = mQueue.poll()) != null) {
+            //只删除同一个引用，key可能已经重新被淘汰到溢出区
+            if (overflow.remove(((KeyedReference) reference).getKey(), reference)) {
+                reclaimedCount++;
+            }
         }
+    }
 
+    private void clearOverflow() {
+        overflow.clear();
+        while (mQueue.poll() != null) {
+        }
     }
 
     /**
@@ -354,10 +1314,10 @@ public class LruCache implements CacheFacade {
      *
      * <p>If a value for {@code key} exists in the cache when this method
      * returns, the created value will be released with {@link #entryRemoved}
-     * and discarded. This can occur when multiple threads request the same key
-     * at the same time (causing multiple values to be created), or when one
-     * thread calls {@link #put} while another is creating a value for the same
-     * key.
+     * and discarded. This can occur when one thread calls {@link #put} while
+     * another is creating a value for the same key. Threads that miss on a key
+     * while it is being created wait for that result; they do not call this
+     * method again.
      */
     protected MemoryEntry create(Object key) {
         return null;
@@ -373,12 +1333,20 @@ public class LruCache implements CacheFacade {
 
     /**
      * Returns the size of the entry for {@code key} and {@code value} in
-     * user-defined units.  The default implementation returns 1 so that size
-     * is the number of entries and max size is the maximum number of entries.
+     * user-defined units.  The default implementation returns the number of
+     * bytes the entry holds: the payload weight reported by
+     * {@link MemoryEntry#getPayloadWeight()}, the key's characters and a
+     * fixed per-entry overhead.
      *
-     * <p>An entry's size must not change while it is in the cache.
+     * <p>The size is computed when an entry is added and again when it is
+     * committed; the cache remembers the last result, so the size may change
+     * between those points without corrupting the totals.
      */
     protected int sizeOf(Object key, Object value) {
+        if (value instanceof MemoryEntry) {
+            int keyWeight = key instanceof String ? ((String) key).length() << 1 : 0;
+            return ENTRY_OVERHEAD + keyWeight + ((MemoryEntry) value).getPayloadWeight();
+        }
         if(value instanceof Bitmap){
             Bitmap bitmap= (Bitmap) value;
             return  bitmap.getRowBytes() * bitmap.getHeight();
@@ -395,73 +1363,328 @@ public class LruCache implements CacheFacade {
 
     /**
      * For caches that do not override {@link #sizeOf}, this returns the number
-     * of entries in the cache. For all other caches, this returns the sum of
+     * of bytes held by the cache. For all other caches, this returns the sum of
      * the sizes of the entries in this cache.
      */
-    public synchronized final int size() {
-        return size;
+    public final int size() {
+        evictionLock.lock();
+        try {
+            return size;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
      * For caches that do not override {@link #sizeOf}, this returns the maximum
-     * number of entries in the cache. For all other caches, this returns the
+     * number of bytes held by the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
-    public synchronized final int maxSize() {
-        return maxSize;
+    public final int maxSize() {
+        evictionLock.lock();
+        try {
+            return maxSize;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
      * Returns the number of times {@link #} returned a value that was
      * already present in the cache.
      */
-    public synchronized final int hitCount() {
-        return hitCount;
+    public final int hitCount() {
+        return (int) stats.hitCount();
     }
 
     /**
      * Returns the number of times {@link #} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return missCount;
+    public final int missCount() {
+        return (int) stats.missCount();
     }
 
     /**
      * Returns the number of times {@link #create(Object)} returned a value.
      */
-    public synchronized final int createCount() {
-        return createCount;
+    public final int createCount() {
+        evictionLock.lock();
+        try {
+            return createCount;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} was called. Misses
+     * that joined a load already in flight are not counted.
+     */
+    public final int loadCount() {
+        return (int) stats.loadCount();
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} threw.
+     */
+    public final int loadExceptionCount() {
+        return loadExceptionCount.get();
+    }
+
+    /**
+     * Returns the number of misses that waited for another caller's load
+     * instead of calling {@link #create(Object)} themselves.
+     */
+    public final int coalescedCount() {
+        return coalescedCount.get();
     }
 
     /**
      * Returns the number of times {@link #put} was called.
      */
-    public synchronized final int putCount() {
-        return putCount;
+    public final int putCount() {
+        return (int) stats.putCount();
     }
 
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return evictionCount;
+    public final int evictionCount() {
+        return (int) stats.evictionCount();
+    }
+
+    /**
+     * Returns an immutable snapshot of the hit, miss, put, eviction and load
+     * statistics. Reading it takes no lock.
+     */
+    @Override
+    public TierStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Records get and put latencies into the histograms of {@link #stats()}.
+     * Off by default; load times are always recorded.
+     */
+    @Override
+    public void setRecordLatency(boolean recordLatency) {
+        stats.setRecordLatency(recordLatency);
+    }
+
+    /**
+     * Returns the number of entries held in the overflow area, including
+     * references the GC has cleared but the cache has not drained yet.
+     */
+    public final int overflowSize() {
+        return overflow.size();
+    }
+
+    /**
+     * Returns the number of hits served by promoting an overflow entry.
+     */
+    public final int overflowHitCount() {
+        evictionLock.lock();
+        try {
+            return overflowHitCount;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of overflow entries reclaimed by the GC.
+     */
+    public final int reclaimedCount() {
+        evictionLock.lock();
+        try {
+            drainReferenceQueue();
+            return reclaimedCount;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries removed because they expired.
+     */
+    public final int expiredCount() {
+        evictionLock.lock();
+        try {
+            return expiredCount;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache. The access order
+     * is owned by the eviction policy, so the copy is not ordered.
+     */
+    public final Map<Object, Object> snapshot() {
+        return new LinkedHashMap<Object, Object>(data);
+    }
+
+    /**
+     * @see <p>命中后记录访问，缓冲区积累到一定数量时尝试回放</p>
+     */
+    private void afterRead(String key) {
+        if (readBuffer.record(key)) {
+            tryMaintenance();
+        }
+    }
+
+    /**
+     * @see <p>淘汰锁空闲时回放访问记录并回收过期的条目，锁被占用时直接返回，由持有锁的线程处理</p>
+     */
+    private void tryMaintenance() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        List<MemoryEntry> expired;
+        try {
+            drainReadBuffer();
+            expired = expireEntries(null);
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyEvicted(expired, RemovalCause.EXPIRED);
+    }
+
+    private void notifyEvicted(List<MemoryEntry> evicted, RemovalCause cause) {
+        if (evicted != null) {
+            for (MemoryEntry value : evicted) {
+                entryRemoved(true, value.getmKey(), value, null);
+                notifyListener(value.getmKey(), value, cause);
+            }
+        }
+    }
+
+    private void notifyRemoval(String key, MemoryEntry oldValue, MemoryEntry newValue, RemovalCause cause) {
+        entryRemoved(cause.wasEvicted(), key, oldValue, newValue);
+        notifyListener(key, oldValue, cause);
+    }
+
+    /**
+     * @see <p>在移除线程池中通知监听器，调用时不能持有淘汰锁</p>
+     */
+    private void notifyListener(String key, MemoryEntry value, RemovalCause cause) {
+        RemovalListener<MemoryEntry> listener = removalListener;
+        if (listener == null) {
+            return;
+        }
+        Executor executor = removalExecutor;
+        RemovalExecutor.notifyRemoval(executor != null ? executor : RemovalExecutor.getDefault(),
+                listener, key, value, cause);
+    }
+
+    private long now() {
+        SystemFacade clock = this.clock;
+        return clock != null ? clock.currentTimeMillis() : System.currentTimeMillis();
+    }
+
+    /**
+     * @see <p>条目是否已过期，没有设置过期时间的条目不读取时钟</p>
+     */
+    private boolean isExpired(MemoryEntry entry) {
+        TimerWheel.Node timer = entry.getTimer();
+        return timer != null && isExpired(timer, now());
+    }
+
+    /**
+     * @see <p>访问记录回放之前expiresAt仍是上一次计算的值，设置了空闲过期时按最后一次访问的时间重新判断</p>
+     */
+    private boolean isExpired(TimerWheel.Node timer, long now) {
+        if (!timer.isExpired(now)) {
+            return false;
+        }
+        long idle = expireAfterAccessMillis;
+        return idle <= 0 || timer.writeExpiresAt - now <= 0 || timer.accessTime + idle - now <= 0;
+    }
+
+    /**
+     * @see <p>计算条目的过期时间并放入时间轮，必须在持有淘汰锁时调用</p>
+     * @param written true表示条目刚被写入，重新计算写入后的过期时间
+     */
+    private void scheduleExpiration(MemoryEntry entry, boolean written) {
+        long ttl = entry.getTimeToLive() > 0 ? entry.getTimeToLive() : expireAfterWriteMillis;
+        long idle = expireAfterAccessMillis;
+        TimerWheel.Node timer = entry.getTimer();
+        if (timer == null) {
+            if (ttl <= 0 && idle <= 0) {
+                return;
+            }
+            timer = new TimerWheel.Node(entry.getmKey());
+            entry.setTimer(timer);
+        }
+        long now = now();
+        if (timerWheel == null) {
+            timerWheel = new TimerWheel(now);
+        }
+        if (written) {
+            timer.writeExpiresAt = ttl > 0 ? now + ttl : Long.MAX_VALUE;
+            timer.accessTime = now;
+        }
+        long accessExpiresAt = idle > 0 ? timer.accessTime + idle : Long.MAX_VALUE;
+        timer.expiresAt = Math.min(timer.writeExpiresAt, accessExpiresAt);
+        timerWheel.schedule(timer);
+    }
+
+    private void descheduleExpiration(MemoryEntry entry) {
+        TimerWheel.Node timer = entry.getTimer();
+        if (timer != null && timerWheel != null) {
+            timerWheel.deschedule(timer);
+        }
+    }
+
+    /**
+     * @see <p>推进时间轮，移除所有过期的条目，必须在持有淘汰锁时调用</p>
+     * @param removed 追加被移除条目的列表，为空时按需创建
+     */
+    private List<MemoryEntry> expireEntries(List<MemoryEntry> removed) {
+        if (timerWheel == null) {
+            return removed;
+        }
+        timerWheel.advance(now(), expiredTimers);
+        for (int i = 0; i < expiredTimers.size(); i++) {
+            String key = expiredTimers.get(i).key;
+            MemoryEntry entry = data.get(key);
+            if (entry == null || entry.getTimer() != expiredTimers.get(i)) {
+                continue;
+            }
+            if (!isExpired(entry.getTimer(), now())) {
+                //访问记录被丢弃或还未回放，按最后一次访问重新放入时间轮
+                scheduleExpiration(entry, false);
+                continue;
+            }
+            data.remove(key);
+            policy.onRemove(key);
+            size -= entry.getWeight();
+            expiredCount++;
+            if (removed == null) {
+                removed = new ArrayList<MemoryEntry>();
+            }
+            removed.add(entry);
+        }
+        expiredTimers.clear();
+        return removed;
     }
 
     /**
-     * Returns a copy of the current contents of the cache, ordered from least
-     * recently accessed to most recently accessed.
+     * @see <p>将缓冲区中的访问记录批量回放到LRU顺序中，必须在持有淘汰锁时调用</p>
      */
-    public synchronized final Map<Object, Object> snapshot() {
-        return new LinkedHashMap<Object, Object>(map);
+    private void drainReadBuffer() {
+        readBuffer.drainTo(accessRecorder);
     }
 
     @Override
-    public synchronized final String toString() {
-        int accesses = hitCount + missCount;
-        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+    public final String toString() {
+        int hits = hitCount();
+        int misses = missCount();
+        int accesses = hits + misses;
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
         return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
-                maxSize, hitCount, missCount, hitPercent);
+                maxSize(), hits, misses, hitPercent);
     }
 
 
@@ -0,0 +1,42 @@
+package com.richsjeson.cache.memory;
+
+import java.util.LinkedHashMap;
+
+/**
+ * @see <p>最近最少使用的淘汰策略，按照访问顺序淘汰最久未使用的key</p>
+ */
+final class LruPolicy implements EvictionPolicy {
+
+    private final LinkedHashMap<String, Boolean> order
+            = new LinkedHashMap<String, Boolean>(0, 0.75f, true);
+
+    @Override
+    public void setMaximum(long maximum) {
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onUpdate(String key, int weight) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        //access-order的LinkedHashMap在get时会把key移动到队尾
+        order.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        order.remove(key);
+    }
+
+    @Override
+    public String victim() {
+        return order.isEmpty() ? null : order.keySet().iterator().next();
+    }
+}
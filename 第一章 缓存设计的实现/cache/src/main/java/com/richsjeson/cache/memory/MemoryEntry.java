@@ -1,64 +1,149 @@
 package com.richsjeson.cache.memory;
 
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.CodecRegistry;
+import com.richsjeson.cache.codec.Weigher;
 import com.richsjeson.cache.interf.CacheFacade;
-import com.richsjeson.cache.utils.FileUtils;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 
 import java.io.IOException;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
 /**
  * Created by richsjeson on 16-3-17.
  * @see <p>内存缓存
- * 1)数据序列化
- * 2)数据的反序列化
+ * 1)数据序列化：按照数据类型从{@link CodecRegistry}中选择编解码器，编码为字节数组保存
+ * 2)数据的反序列化：按照保存的编解码器ID解码
+ * 3)引用模式下，不可变的数据（String、基本类型的包装类、枚举等）直接保存对象引用，
+ *   读取时不需要反序列化，也不会分配新的对象
+ * 4)读取不加锁：写入方持有facade的锁，在替换数据的前后各递增一次mFlags中的版本号，
+ *   读取方在读取数据的前后各读一次mFlags，版本号为偶数且没有变化时，编解码器ID与数据是一致的，
+ *   只有与写入同时发生时才加锁重新读取。编码与解码都在锁外进行
  * </p>
  */
 public class MemoryEntry{
+
+    private static final int CODEC_MASK = 0xff;
     /**
-     * @serialField <p>key的值</p>
+     * 最近一次编码失败
      */
-    private String mKey;
+    private static final int FLAG_ERRORS = 1 << 8;
     /**
-     * @serialField  <p>是否发生异常</p>
+     * 正在编辑，尚未提交
      */
-    private boolean hasErrors;
+    private static final int FLAG_EDITING = 1 << 9;
     /**
-     * @serialField  <p>缓存的类型</p>
+     * 允许直接保存不可变对象的引用
      */
-    private String mType;
+    private static final int FLAG_STORE_BY_REFERENCE = 1 << 10;
     /**
-     * @serialField  <p>该文件是否被修改</p>
+     * 版本号的最低位，版本号为奇数表示正在替换数据
      */
-    private boolean mIsEditor=false;
-
-    private  CacheFacade facade;
+    private static final int SEQ_ONE = 1 << 11;
     /**
-     * @serialField  <p>使用序列化操作</p>
+     * 编解码器ID与版本号，FLAG_*标记的变化不影响数据的一致性
      */
-    private  ByteArrayOutputStream mByteOutStream;
-
-    private  ObjectOutputStream mObjectStream;
+    private static final int STAMP_MASK = ~(FLAG_ERRORS | FLAG_EDITING | FLAG_STORE_BY_REFERENCE);
 
     /**
-     * @serialField  <p>使用序列化操作</p>
+     * @serialField <p>key的值，与缓存中的key是同一个对象</p>
      */
-    private  ByteArrayInputStream mByteInputStream;
+    private String mKey;
 
-    private  ObjectInputStream mInputStream;
+    private final CacheFacade facade;
+    /**
+     * @serialField  <p>数据：编码后的byte[]，或者引用模式下保存的不可变对象。
+     * 以byte[]区分两种模式，不需要额外的字段，读取引用时无锁访问</p>
+     */
+    private volatile Object mPayload;
+    /**
+     * @serialField  <p>低8位是编解码器ID，之后3位是FLAG_*标记，其余位是数据的版本号，只在持有facade的锁时修改</p>
+     */
+    private volatile int mFlags;
+    /**
+     * @serialField  <p>所属缓存记录的权重，由缓存在放入与提交时更新</p>
+     */
+    private int mWeight;
+    /**
+     * @serialField  <p>过期定时器，同时保存该条目自己的有效期，没有设置过期时间时为空</p>
+     */
+    private volatile TimerWheel.Node mTimer;
+    /**
+     * @serialField  <p>最后一次写入缓存的时间，由缓存在提交时记录</p>
+     */
+    private volatile long mWriteTime;
 
-    private String obj;
+    private static final int DEFAULT_REFERENCE_WEIGHT = 16;
 
     public MemoryEntry(CacheFacade facade,String mKey){
+        this(facade, mKey, false);
+    }
+
+    /**
+     * @param storeByReference true表示不可变的数据直接保存引用，可变的数据仍然序列化保存，
+     *                         保证调用方修改原对象时不会影响缓存中的数据
+     */
+    public MemoryEntry(CacheFacade facade,String mKey,boolean storeByReference){
         this.mKey=mKey;
         this.facade=facade;
+        this.mFlags=storeByReference ? FLAG_STORE_BY_REFERENCE : 0;
+    }
+
+    /**
+     * @see <p>从其他存储中还原的条目，创建时即带有数据（编码后的byte[]或共享的引用），不需要加锁</p>
+     */
+    MemoryEntry(CacheFacade facade,String mKey,Object payload,int codecId){
+        this.mKey=mKey;
+        this.facade=facade;
+        this.mFlags=codecId & CODEC_MASK;
+        this.mPayload=payload;
+    }
+
+    /**
+     * @see <p>当前数据的副本，条目被复用写入新数据之前保留旧的数据，用于移除通知</p>
+     */
+    MemoryEntry snapshot() {
+        int flags = mFlags;
+        Object payload = mPayload;
+        if (!isStable(flags)) {
+            synchronized (facade) {
+                flags = mFlags;
+                payload = mPayload;
+            }
+        }
+        MemoryEntry copy = new MemoryEntry(facade, mKey, payload, flags & CODEC_MASK);
+        copy.mWeight = mWeight;
+        copy.mWriteTime = mWriteTime;
+        return copy;
+    }
+
+    /**
+     * @see <p>判断对象是否可以在多个调用方之间共享，用于补充没有专用编解码器、但同样不可变的类型，
+     * 其余类型以{@link Codec#isShareable()}为准</p>
+     * @param value
+     * @return
+     */
+    public static boolean isImmutable(Object value) {
+        return value instanceof BigInteger
+                || value instanceof BigDecimal
+                || value instanceof Enum;
+    }
+
+    /**
+     * @see <p>是否有尚未提交或回滚的写入</p>
+     */
+    boolean isEditing() {
+        return (mFlags & FLAG_EDITING) != 0;
+    }
+
+    /**
+     * @see <p>当前是否以引用的方式保存数据</p>
+     */
+    public boolean isReference() {
+        Object payload = mPayload;
+        return payload != null && !(payload instanceof byte[]);
     }
 
 
@@ -74,82 +159,238 @@ public class MemoryEntry{
      * @see <p>执行事务的提交</p>
      */
     public void commit() throws Exception {
-        if (!mIsEditor) {
+        if ((mFlags & FLAG_EDITING) == 0) {
             throw new IOException("MemoryEntry has been closed.");
         }
-        if (hasErrors) {
+        if ((mFlags & FLAG_ERRORS) != 0) {
             facade.delete(mKey);
         }else{
-            abort();
+            facade.commit(this);
         }
 
-        mIsEditor = false;
+        synchronized (facade) {
+            mFlags &= ~FLAG_EDITING;
+        }
     }
 
     /**
-     * @see <p>执行数据序列化</p>
+     * @see <p>执行数据序列化，编码在锁外完成，加锁只是为了替换数据</p>
      * @param obj
      * @return
      * @throws IOException
      */
     public void newOutputStream(Object obj) throws IOException {
-
-        synchronized (facade) {
-            if (!mIsEditor) {
-                mIsEditor=true;
-            }
+        Object payload = null;
+        int codecId = 0;
+        boolean failed = false;
+        if (obj != null) {
             try {
-                mByteOutStream = new ByteArrayOutputStream();
-                mObjectStream = new ObjectOutputStream(
-                        mByteOutStream);
-                mObjectStream.writeObject(obj);
-                this.obj=java.net.URLEncoder.encode(mByteOutStream.toString("ISO-8859-1"), "UTF-8");
+                CodecRegistry registry = CodecRegistry.getDefault();
+                codecId = registry.idFor(obj.getClass());
+                Codec<Object> codec = registry.codecFor(codecId);
+                //编解码器声明可以共享的对象，直接保存引用，byte[]用于区分编码后的数据，不能以引用保存
+                if ((mFlags & FLAG_STORE_BY_REFERENCE) != 0 && !(obj instanceof byte[])
+                        && (codec.isShareable() || isImmutable(obj))) {
+                    payload = obj;
+                } else {
+                    //编码到线程复用的缓冲区，只按照实际长度拷贝一次
+                    ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+                    try {
+                        codec.encode(obj, buffer);
+                        payload = buffer.toByteArray();
+                    } finally {
+                        buffer.release();
+                    }
+                }
             }catch (Exception e){
+                failed = true;
                 e.printStackTrace();
-            }finally {
-                FileUtils.closeQuietly(mByteOutStream);
-                FileUtils.closeQuietly(mObjectStream);
+            }
+        }
+
+        synchronized (facade) {
+            mFlags = (mFlags | FLAG_EDITING) & ~FLAG_ERRORS;
+            if (failed) {
+                mFlags |= FLAG_ERRORS;
+            } else {
+                publish(payload, codecId);
             }
         }
     }
 
+    /**
+     * @see <p>替换数据与编解码器ID，必须在持有facade的锁时调用</p>
+     */
+    private void publish(Object payload, int codecId) {
+        int flags = mFlags + SEQ_ONE;
+        mFlags = flags;
+        mPayload = payload;
+        mFlags = ((flags + SEQ_ONE) & ~CODEC_MASK) | (codecId & CODEC_MASK);
+    }
+
+    /**
+     * @see <p>读取数据之前读到的flags在读取之后没有变化，并且当时没有正在进行的写入，
+     * 说明flags中的编解码器ID与读到的数据属于同一次写入</p>
+     */
+    private boolean isStable(int flags) {
+        return (flags & SEQ_ONE) == 0 && ((mFlags ^ flags) & STAMP_MASK) == 0;
+    }
 
     /**
-     * @see <p>执行反序列化</p>
+     * @see <p>执行反序列化，不加锁，也不修改条目的状态</p>
      * @param
      * @return
      * @throws IOException
      */
     public Object newInputStream() throws IOException {
-
-        synchronized (facade) {
-            if (!mIsEditor) {
-                mIsEditor=true;
+        int flags = mFlags;
+        Object payload = mPayload;
+        //引用模式直接返回对象，不分配内存
+        if (!(payload instanceof byte[])) {
+            return payload;
+        }
+        if (!isStable(flags)) {
+            //与写入同时发生，加锁读取写入完成后的数据，解码仍然在锁外进行
+            synchronized (facade) {
+                flags = mFlags;
+                payload = mPayload;
             }
-            try {
-                String redStr = java.net.URLDecoder.decode(this.obj, "UTF-8");
-                mByteInputStream = new ByteArrayInputStream(
-                        redStr.getBytes("ISO-8859-1"));
-                mInputStream= new ObjectInputStream(
-                        mByteInputStream);
-               return mInputStream.readObject();
-            }catch (Exception e){
-                e.printStackTrace();
-            }finally {
-                FileUtils.closeQuietly(mByteInputStream);
-                FileUtils.closeQuietly(mInputStream);
+            if (!(payload instanceof byte[])) {
+                return payload;
             }
         }
+        byte[] data = (byte[]) payload;
+        try {
+            Codec<Object> codec = CodecRegistry.getDefault().codecFor(flags & CODEC_MASK);
+            return codec.decode(data, 0, data.length);
+        }catch (Exception e){
+            e.printStackTrace();
+        }
         return null;
     }
 
+    /**
+     * @see <p>编码后的数据，引用模式下返回null</p>
+     */
+    byte[] getData() {
+        Object payload = mPayload;
+        return payload instanceof byte[] ? (byte[]) payload : null;
+    }
+
+    int getCodecId() {
+        return mFlags & CODEC_MASK;
+    }
 
     /**
-     * @see <p>执行事务的回滚</p>
+     * @see <p>最近一次编码是否失败</p>
+     */
+    boolean hasErrors() {
+        return (mFlags & FLAG_ERRORS) != 0;
+    }
+
+    /**
+     * @see <p>编码后的字节数，引用模式下返回0</p>
+     */
+    public int getEncodedSize() {
+        byte[] data = getData();
+        return data != null ? data.length : 0;
+    }
+
+
+    /**
+     * @see <p>数据占用的字节数：编码后的数据按实际长度计算，
+     * 引用模式下由编解码器的{@link Weigher}估算，没有Weigher时按一个对象头计算</p>
+     */
+    public int getPayloadWeight() {
+        int flags = mFlags;
+        Object payload = mPayload;
+        if (payload != null && !(payload instanceof byte[]) && !isStable(flags)) {
+            synchronized (facade) {
+                flags = mFlags;
+                payload = mPayload;
+            }
+        }
+        if (payload == null) {
+            return 0;
+        }
+        if (payload instanceof byte[]) {
+            return ((byte[]) payload).length;
+        }
+        Weigher<Object> weigher = CodecRegistry.getDefault().weigherFor(flags & CODEC_MASK);
+        return weigher != null ? weigher.weigh(payload) : DEFAULT_REFERENCE_WEIGHT;
+    }
+
+    int getWeight() {
+        return mWeight;
+    }
+
+    void setWeight(int weight) {
+        mWeight = weight;
+    }
+
+    /**
+     * @see <p>设置该条目写入后的有效期，需要在{@link #commit()}之前调用</p>
+     * @param millis 毫秒，0表示使用缓存的设置
+     */
+    public void setTimeToLive(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis < 0");
+        }
+        TimerWheel.Node timer = mTimer;
+        if (timer == null) {
+            if (millis == 0) {
+                return;
+            }
+            //有效期保存在定时器中，没有设置有效期的条目不占用这个字段
+            timer = new TimerWheel.Node(mKey);
+            mTimer = timer;
+        }
+        timer.timeToLive = millis;
+    }
+
+    public long getTimeToLive() {
+        TimerWheel.Node timer = mTimer;
+        return timer != null ? timer.timeToLive : 0;
+    }
+
+    /**
+     * @see <p>最后一次写入缓存的时间（毫秒），尚未提交时为0</p>
+     */
+    public long getWriteTime() {
+        return mWriteTime;
+    }
+
+    void setWriteTime(long writeTime) {
+        mWriteTime = writeTime;
+    }
+
+    TimerWheel.Node getTimer() {
+        return mTimer;
+    }
+
+    void setTimer(TimerWheel.Node timer) {
+        mTimer = timer;
+    }
+
+    /**
+     * @see <p>回滚时恢复{@link #snapshot()}保留的数据与编解码器ID。
+     * 权重与写入时间只在提交时更新，回滚前没有变化，不需要恢复</p>
+     */
+    void restore(MemoryEntry snapshot) {
+        synchronized (facade) {
+            publish(snapshot.mPayload, snapshot.getCodecId());
+        }
+    }
+
+    /**
+     * @see <p>执行事务的回滚，结束编辑。写入的数据由所属缓存在调用前恢复</p>
      */
     public void abort() throws IOException {
-        if (!mIsEditor) {
-            throw new IOException("CacheEntry has been closed.");
+        synchronized (facade) {
+            if ((mFlags & FLAG_EDITING) == 0) {
+                throw new IOException("CacheEntry has been closed.");
+            }
+            mFlags &= ~(FLAG_EDITING | FLAG_ERRORS);
         }
     }
 
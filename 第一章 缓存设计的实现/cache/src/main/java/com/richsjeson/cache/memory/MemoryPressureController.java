@@ -0,0 +1,170 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.codec.BufferPool;
+import com.richsjeson.cache.interf.PressureSource;
+import com.richsjeson.cache.interf.ResizableCache;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @see <p>根据内存压力调整缓存的容量
+ * 1）后台线程周期性读取所有{@link PressureSource}，取其中最大的压力计算目标容量：
+ * 没有压力时为初始容量，压力为{@link PressureSource#CRITICAL}时为初始容量的{@link #MIN_PERCENT}%
+ * 2）缩小时每次只降低初始容量的1/{@link #TRIM_CHUNKS}，每一块淘汰完后释放锁，前台的读写不会被长时间阻塞
+ * 3）扩大时每个周期只增加初始容量的1/{@link #GROW_STEPS}，压力反复波动时容量不会大起大落
+ * </p>
+ */
+public class MemoryPressureController {
+
+    static final int MIN_PERCENT = 25;
+
+    static final int GROW_STEPS = 8;
+
+    static final int TRIM_CHUNKS = 64;
+
+    private static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final ResizableCache cache;
+
+    private final PressureSource[] sources;
+
+    /**
+     * @serialField <p>创建时缓存的容量，没有压力时恢复到这个容量</p>
+     */
+    private final int baseMaxSize;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private ScheduledFuture<?> task;
+
+    private final Runnable adjustTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                adjust();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    public MemoryPressureController(ResizableCache cache, PressureSource... sources) {
+        if (cache == null) {
+            throw new NullPointerException("cache == null");
+        }
+        this.cache = cache;
+        this.sources = sources.clone();
+        this.baseMaxSize = cache.maxSize();
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Cache-pressure");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @see <p>开始周期性采样，间隔为1秒</p>
+     */
+    public void start() {
+        start(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (task == null) {
+            task = executor.scheduleWithFixedDelay(adjustTask, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @see <p>停止采样并关闭后台线程，缓存保持当前的容量</p>
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * @see <p>不等待下一次采样，立即在后台线程中调整一次，例如收到onTrimMemory回调时</p>
+     */
+    public void poll() {
+        try {
+            executor.execute(adjustTask);
+        } catch (RejectedExecutionException e) {
+            //已经停止
+        }
+    }
+
+    public int getBaseMaxSize() {
+        return baseMaxSize;
+    }
+
+    /**
+     * @see <p>所有来源中最大的压力</p>
+     */
+    int pressure() {
+        int pressure = PressureSource.NONE;
+        for (PressureSource source : sources) {
+            try {
+                pressure = Math.max(pressure, source.getPressure());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return Math.min(pressure, PressureSource.CRITICAL);
+    }
+
+    /**
+     * @see <p>压力对应的目标容量</p>
+     */
+    int targetSize(int pressure) {
+        long shrinkable = (long) baseMaxSize * (100 - MIN_PERCENT) / 100;
+        return (int) (baseMaxSize - shrinkable * pressure / PressureSource.CRITICAL);
+    }
+
+    /**
+     * @see <p>读取一次压力，把容量向目标调整一步，只在后台线程中调用</p>
+     */
+    void adjust() {
+        int pressure = pressure();
+        if (pressure >= PressureSource.CRITICAL) {
+            //内存即将耗尽，缓冲池中空闲的数组也一并释放
+            BufferPool.getDefault().clear();
+        }
+        int target = targetSize(pressure);
+        int current = cache.maxSize();
+        if (target < current) {
+            shrink(current, target);
+        } else if (target > current) {
+            cache.resize((int) Math.min(target, (long) current + Math.max(1, baseMaxSize / GROW_STEPS)));
+        }
+    }
+
+    /**
+     * @see <p>分块缩小容量，每一块只淘汰有限的数据</p>
+     */
+    private void shrink(int current, int target) {
+        int chunk = Math.max(1, baseMaxSize / TRIM_CHUNKS);
+        //缓存没有装满时，可以直接降到当前的大小而不淘汰任何数据
+        int next = Math.max(target, Math.min(current, cache.size()));
+        if (next < current) {
+            cache.resize(next);
+        }
+        while (next > target && !executor.isShutdown()) {
+            next = Math.max(target, next - chunk);
+            cache.resize(next);
+            Thread.yield();
+        }
+    }
+}
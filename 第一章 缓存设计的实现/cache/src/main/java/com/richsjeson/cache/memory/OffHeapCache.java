@@ -0,0 +1,551 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.CodecRegistry;
+import com.richsjeson.cache.interf.CacheFacade;
+import com.richsjeson.cache.stats.StatsRecorder;
+import com.richsjeson.cache.stats.TierStats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @see <p>堆外内存缓存
+ * 1）数据编码后保存在1MB的直接内存(DirectByteBuffer)块中，不占用Java堆，也不会增加GC的停顿时间
+ * 2）按照数据大小划分尺寸等级，每个内存块只分配一种尺寸的槽位，槽位释放后放回该等级的空闲列表复用，没有内存碎片
+ * 3）堆内只保留key到槽位地址的索引，地址为int：高位是内存块序号，低位是块内偏移
+ * 4）每个尺寸等级各自维护访问顺序，空间不足时淘汰同一等级中最久未使用的数据
+ * 5）内存块一旦分配给某个等级就不再回收，所有块分配完且该等级没有数据可淘汰时，写入会被拒绝
+ * </p>
+ * 槽位的格式：[int 数据长度][byte 编解码器ID][数据]
+ */
+public class OffHeapCache implements CacheFacade, LruCache.VictimCache {
+
+    private static final int SLAB_SHIFT = 20;
+    /**
+     * @serialField <p>每个内存块的大小</p>
+     */
+    public static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+
+    private static final int OFFSET_MASK = SLAB_SIZE - 1;
+    /**
+     * @serialField <p>int地址最多能表示的内存块数量</p>
+     */
+    private static final int MAX_SLABS = (1 << (31 - SLAB_SHIFT)) - 1;
+
+    private static final int HEADER_SIZE = 5;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+    /**
+     * @serialField <p>相邻尺寸等级之间的增长系数</p>
+     */
+    private static final float GROWTH_FACTOR = 1.25f;
+
+    /**
+     * @serialField <p>单条数据的最大长度，超过后不进入堆外缓存</p>
+     */
+    public static final int MAX_VALUE_SIZE = SLAB_SIZE - HEADER_SIZE;
+
+    private final int[] chunkSizes;
+
+    private final ByteBuffer[] slabs;
+
+    private final int[] slabClass;
+
+    private int slabCount;
+
+    /**
+     * @serialField <p>每个尺寸等级的空闲槽位，以栈的方式保存</p>
+     */
+    private final int[][] freeChunks;
+
+    private final int[] freeCounts;
+
+    /**
+     * @serialField <p>每个尺寸等级按访问顺序排列的key与地址</p>
+     */
+    private final LinkedHashMap<String, Integer>[] lruByClass;
+
+    private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+    private final long maxSize;
+
+    private long size;
+
+    private int rejectCount;
+    /**
+     * @serialField <p>命中、写入、淘汰与读写字节数的统计</p>
+     */
+    private final StatsRecorder stats = new StatsRecorder();
+
+    /**
+     * @param maxSize 可使用的堆外内存的字节数，按内存块的大小向下取整，至少为一个内存块
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OffHeapCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        int slabLimit = (int) Math.max(1, Math.min(maxSize >>> SLAB_SHIFT, MAX_SLABS));
+        this.maxSize = (long) slabLimit << SLAB_SHIFT;
+        this.slabs = new ByteBuffer[slabLimit];
+        this.slabClass = new int[slabLimit];
+
+        int[] sizes = new int[64];
+        int count = 0;
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (chunkSize < SLAB_SIZE / 2) {
+            sizes[count++] = chunkSize;
+            //按8字节对齐
+            chunkSize = ((int) (chunkSize * GROWTH_FACTOR) + 7) & ~7;
+        }
+        sizes[count++] = SLAB_SIZE;
+        this.chunkSizes = Arrays.copyOf(sizes, count);
+
+        this.freeChunks = new int[count][];
+        this.freeCounts = new int[count];
+        this.lruByClass = new LinkedHashMap[count];
+        for (int i = 0; i < count; i++) {
+            freeChunks[i] = new int[0];
+            lruByClass[i] = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+        }
+    }
+
+    /**
+     * @see <p>读取数据，返回的条目持有数据的堆内拷贝，与堆外的槽位无关</p>
+     */
+    @Override
+    public MemoryEntry getEntry(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        long startTime = stats.startTimer();
+        byte[] data;
+        int codecId;
+        synchronized (this) {
+            Integer address = index.get(key);
+            if (address == null) {
+                stats.recordMiss();
+                stats.recordGet(startTime);
+                return null;
+            }
+            stats.recordHit();
+            //更新该等级中的访问顺序
+            lruByClass[classOf(address)].get(key);
+            ByteBuffer slab = slabs[address >>> SLAB_SHIFT];
+            int offset = address & OFFSET_MASK;
+            int length = slab.getInt(offset);
+            codecId = slab.get(offset + 4) & 0xff;
+            data = new byte[length];
+            slab.position(offset + HEADER_SIZE);
+            slab.get(data, 0, length);
+        }
+        stats.recordBytesRead(data.length);
+        MemoryEntry entry = new MemoryEntry(this, key, data, codecId);
+        stats.recordGet(startTime);
+        return entry;
+    }
+
+    /**
+     * @see <p>返回一个新的条目，数据在{@link MemoryEntry#commit()}时才写入堆外内存</p>
+     */
+    @Override
+    public MemoryEntry editor(String mKey) {
+        if (mKey == null) {
+            throw new NullPointerException("key == null");
+        }
+        return new MemoryEntry(this, mKey);
+    }
+
+    @Override
+    public void commit(MemoryEntry memoryEntry) {
+        byte[] data = memoryEntry.getData();
+        if (data == null) {
+            //写入的是null，删除原有的数据
+            remove(memoryEntry.getmKey());
+            return;
+        }
+        long startTime = stats.startTimer();
+        put(memoryEntry.getmKey(), data, memoryEntry.getCodecId());
+        stats.recordPut(startTime);
+    }
+
+    /**
+     * @see <p>写入编码后的数据</p>
+     * @return 是否写入成功，数据过大或内存不足时返回false
+     */
+    public synchronized boolean put(String key, byte[] data, int codecId) {
+        if (key == null || data == null) {
+            throw new NullPointerException("key == null || data == null");
+        }
+        //先释放旧的槽位，新数据可能属于不同的尺寸等级
+        removeInternal(key);
+        if (data.length > MAX_VALUE_SIZE) {
+            rejectCount++;
+            return false;
+        }
+        int sizeClass = classFor(data.length + HEADER_SIZE);
+        int address = allocate(sizeClass);
+        if (address < 0) {
+            rejectCount++;
+            return false;
+        }
+        ByteBuffer slab = slabs[address >>> SLAB_SHIFT];
+        int offset = address & OFFSET_MASK;
+        slab.putInt(offset, data.length);
+        slab.put(offset + 4, (byte) codecId);
+        slab.position(offset + HEADER_SIZE);
+        slab.put(data, 0, data.length);
+
+        Integer boxed = address;
+        index.put(key, boxed);
+        lruByClass[sizeClass].put(key, boxed);
+        size += chunkSizes[sizeClass];
+        stats.recordPut();
+        stats.recordBytesWritten(data.length);
+        return true;
+    }
+
+    /**
+     * @see <p>存储策略</p>
+     */
+    @Override
+    public Object put(String key) {
+        return null;
+    }
+
+    /**
+     * @see <p>批量读取，在同一次加锁内拷贝出所有命中的数据，加锁之外再构造条目</p>
+     */
+    @Override
+    public Map<String, MemoryEntry> getAll(Collection<String> keys) {
+        List<String> found = new ArrayList<String>(keys.size());
+        List<byte[]> data = new ArrayList<byte[]>(keys.size());
+        int[] codecIds = new int[keys.size()];
+        synchronized (this) {
+            for (String key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+                Integer address = index.get(key);
+                if (address == null) {
+                    stats.recordMiss();
+                    continue;
+                }
+                stats.recordHit();
+                lruByClass[classOf(address)].get(key);
+                ByteBuffer slab = slabs[address >>> SLAB_SHIFT];
+                int offset = address & OFFSET_MASK;
+                byte[] bytes = new byte[slab.getInt(offset)];
+                codecIds[found.size()] = slab.get(offset + 4) & 0xff;
+                slab.position(offset + HEADER_SIZE);
+                slab.get(bytes, 0, bytes.length);
+                found.add(key);
+                data.add(bytes);
+                stats.recordBytesRead(bytes.length);
+            }
+        }
+        Map<String, MemoryEntry> result = new LinkedHashMap<String, MemoryEntry>(found.size() * 4 / 3 + 1);
+        for (int i = 0; i < found.size(); i++) {
+            MemoryEntry entry = new MemoryEntry(this, found.get(i), data.get(i), codecIds[i]);
+            result.put(found.get(i), entry);
+        }
+        return result;
+    }
+
+    /**
+     * @see <p>批量写入，所有数据在锁外编码，之后只加锁一次拷贝到堆外内存</p>
+     */
+    @Override
+    public void putAll(Map<String, ?> values) {
+        CodecRegistry registry = CodecRegistry.getDefault();
+        List<String> keys = new ArrayList<String>(values.size());
+        List<byte[]> data = new ArrayList<byte[]>(values.size());
+        int[] codecIds = new int[values.size()];
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            if (value.getKey() == null) {
+                throw new NullPointerException("key == null");
+            }
+            byte[] encoded = null;
+            if (value.getValue() != null) {
+                int codecId = registry.idFor(value.getValue().getClass());
+                encoded = encode(value.getValue(), codecId);
+                if (encoded == null) {
+                    //编码失败的数据不写入
+                    continue;
+                }
+                codecIds[keys.size()] = codecId;
+            }
+            keys.add(value.getKey());
+            data.add(encoded);
+        }
+        synchronized (this) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (data.get(i) == null) {
+                    //写入的是null，删除原有的数据
+                    removeInternal(keys.get(i));
+                } else {
+                    put(keys.get(i), data.get(i), codecIds[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see <p>放入一级缓存淘汰的条目，在淘汰的线程上同步执行。已编码的数据直接拷贝，引用模式的数据在锁外编码，
+     * 写入前在锁内确认淘汰仍然有效，淘汰之后被删除或重新写入的key不会被写回。
+     * 带有效期的条目与尚未提交的条目不转入，堆外缓存不保存过期时间</p>
+     * @return 是否写入成功
+     */
+    @Override
+    public boolean offer(LruCache owner, MemoryEntry entry) {
+        if (entry.getTimeToLive() > 0 || entry.isEditing()) {
+            return false;
+        }
+        MemoryEntry snapshot = entry.snapshot();
+        byte[] data = snapshot.getData();
+        if (data == null && snapshot.isReference()) {
+            try {
+                data = encode(snapshot.newInputStream(), snapshot.getCodecId());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (data == null) {
+            return false;
+        }
+        synchronized (this) {
+            return owner.isEvicting(entry) && put(entry.getmKey(), data, snapshot.getCodecId());
+        }
+    }
+
+    /**
+     * @see <p>编码到线程复用的缓冲区，再按实际长度拷贝出来，不持有任何锁</p>
+     * @return 编码失败时返回null
+     */
+    private static byte[] encode(Object value, int codecId) {
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+        try {
+            CodecRegistry.getDefault().codecFor(codecId).encode(value, buffer);
+            return buffer.toByteArray();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public synchronized void removeAll(Collection<String> keys) {
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * @see <p>删除数据并释放槽位</p>
+     * @return 是否存在该数据
+     */
+    public synchronized boolean remove(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return removeInternal(key);
+    }
+
+    @Override
+    public void delete(String key) throws Exception {
+        if (!remove(key)) {
+            throw new Exception("cache entry is null,i can't delete");
+        }
+    }
+
+    @Override
+    public synchronized boolean has(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public void abort(MemoryEntry memoryEntry) {
+        try {
+            memoryEntry.abort();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @see <p>清空所有数据，已分配的内存块保留给原来的尺寸等级继续使用</p>
+     */
+    @Override
+    public synchronized void memoryAll() {
+        index.clear();
+        for (int i = 0; i < lruByClass.length; i++) {
+            lruByClass[i].clear();
+            freeCounts[i] = 0;
+        }
+        for (int slab = 0; slab < slabCount; slab++) {
+            addChunks(slab, slabClass[slab]);
+        }
+        size = 0;
+    }
+
+    private boolean removeInternal(String key) {
+        Integer address = index.remove(key);
+        if (address == null) {
+            return false;
+        }
+        int sizeClass = classOf(address);
+        lruByClass[sizeClass].remove(key);
+        free(sizeClass, address);
+        return true;
+    }
+
+    /**
+     * @see <p>分配槽位，依次尝试：空闲列表、新的内存块、淘汰同一等级中最久未使用的数据</p>
+     * @return 槽位地址，无法分配时返回-1
+     */
+    private int allocate(int sizeClass) {
+        if (freeCounts[sizeClass] == 0 && slabCount < slabs.length) {
+            int slab = slabCount++;
+            slabs[slab] = ByteBuffer.allocateDirect(SLAB_SIZE);
+            slabClass[slab] = sizeClass;
+            addChunks(slab, sizeClass);
+        }
+        if (freeCounts[sizeClass] == 0) {
+            Iterator<Map.Entry<String, Integer>> it = lruByClass[sizeClass].entrySet().iterator();
+            if (!it.hasNext()) {
+                return -1;
+            }
+            Map.Entry<String, Integer> eldest = it.next();
+            it.remove();
+            index.remove(eldest.getKey());
+            free(sizeClass, eldest.getValue());
+            stats.recordEviction(chunkSizes[sizeClass]);
+        }
+        return freeChunks[sizeClass][--freeCounts[sizeClass]];
+    }
+
+    private void free(int sizeClass, int address) {
+        int[] stack = freeChunks[sizeClass];
+        if (freeCounts[sizeClass] == stack.length) {
+            stack = freeChunks[sizeClass] = Arrays.copyOf(stack, Math.max(16, stack.length << 1));
+        }
+        stack[freeCounts[sizeClass]++] = address;
+        size -= chunkSizes[sizeClass];
+    }
+
+    /**
+     * @see <p>将内存块切分为槽位，放入空闲列表，低地址的槽位先被使用</p>
+     */
+    private void addChunks(int slab, int sizeClass) {
+        int chunkSize = chunkSizes[sizeClass];
+        int chunks = SLAB_SIZE / chunkSize;
+        int[] stack = freeChunks[sizeClass];
+        int required = freeCounts[sizeClass] + chunks;
+        if (required > stack.length) {
+            stack = freeChunks[sizeClass] = Arrays.copyOf(stack, Math.max(required, stack.length << 1));
+        }
+        for (int i = chunks - 1; i >= 0; i--) {
+            stack[freeCounts[sizeClass]++] = (slab << SLAB_SHIFT) | (i * chunkSize);
+        }
+    }
+
+    private int classOf(int address) {
+        return slabClass[address >>> SLAB_SHIFT];
+    }
+
+    /**
+     * @see <p>能容纳该长度的最小尺寸等级</p>
+     */
+    private int classFor(int length) {
+        int low = 0;
+        int high = chunkSizes.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunkSizes[mid] < length) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @see <p>已占用槽位的字节数之和</p>
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @see <p>已分配的内存块数量</p>
+     */
+    public synchronized int slabCount() {
+        return slabCount;
+    }
+
+    public synchronized int entryCount() {
+        return index.size();
+    }
+
+    public int hitCount() {
+        return (int) stats.hitCount();
+    }
+
+    public int missCount() {
+        return (int) stats.missCount();
+    }
+
+    public int putCount() {
+        return (int) stats.putCount();
+    }
+
+    public int evictionCount() {
+        return (int) stats.evictionCount();
+    }
+
+    /**
+     * @see <p>因数据过大或内存不足而被拒绝写入的次数</p>
+     */
+    public synchronized int rejectCount() {
+        return rejectCount;
+    }
+
+    /**
+     * @see <p>淘汰权重为被淘汰槽位的字节数</p>
+     */
+    @Override
+    public TierStats stats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void setRecordLatency(boolean recordLatency) {
+        stats.setRecordLatency(recordLatency);
+    }
+
+    @Override
+    public synchronized String toString() {
+        int hitCount = hitCount();
+        int missCount = missCount();
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("OffHeapCache[maxSize=%d,slabs=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, slabCount, hitCount, missCount, hitPercent);
+    }
+}
@@ -0,0 +1,113 @@
+package com.richsjeson.cache.memory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @see <p>读访问记录缓冲区
+ * 1）命中时不加锁，只把key记录到当前线程所属的环形缓冲区中
+ * 2）缓冲区按线程ID分条，每个线程基本上独占一个环，写入时没有竞争
+ * 3）由持有淘汰锁的线程批量取出，回放到LRU的访问顺序中
+ * 4）缓冲区写满时直接丢弃访问记录，只影响LRU顺序的精确度，不影响数据
+ * </p>
+ */
+final class ReadBuffer {
+
+    /**
+     * @serialField <p>每个环的容量，必须是2的幂</p>
+     */
+    static final int BUFFER_SIZE = 32;
+
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    /**
+     * @serialField <p>环中积累到该数量时请求回放</p>
+     */
+    static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    private final int stripeMask;
+
+    private final AtomicReferenceArray<String> buffer;
+
+    /**
+     * @serialField <p>每个环的写入计数，由记录访问的线程递增</p>
+     */
+    private final AtomicLongArray writeCounts;
+
+    /**
+     * @serialField <p>每个环的读取计数，只在持有淘汰锁时修改</p>
+     */
+    private final AtomicLongArray readCounts;
+
+    ReadBuffer() {
+        int stripes = 1;
+        int target = Runtime.getRuntime().availableProcessors() * 2;
+        while (stripes < target) {
+            stripes <<= 1;
+        }
+        this.stripeMask = stripes - 1;
+        this.buffer = new AtomicReferenceArray<String>(stripes * BUFFER_SIZE);
+        this.writeCounts = new AtomicLongArray(stripes);
+        this.readCounts = new AtomicLongArray(stripes);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & stripeMask;
+    }
+
+    /**
+     * @see <p>记录一次读访问</p>
+     * @return true表示该环已积累足够的记录，调用方应尝试回放
+     */
+    boolean record(String key) {
+        int stripe = stripe();
+        long head = readCounts.get(stripe);
+        long tail = writeCounts.get(stripe);
+        long pending = tail - head;
+        if (pending >= BUFFER_SIZE) {
+            //缓冲区已满，丢弃本次记录
+            return true;
+        }
+        if (!writeCounts.compareAndSet(stripe, tail, tail + 1)) {
+            //同一条上的其他线程抢先写入，同样丢弃本次记录
+            return false;
+        }
+        buffer.lazySet(stripe * BUFFER_SIZE + (int) (tail & BUFFER_MASK), key);
+        return pending + 1 >= DRAIN_THRESHOLD;
+    }
+
+    /**
+     * @see <p>取出所有已记录的访问，必须在持有淘汰锁时调用</p>
+     */
+    void drainTo(Consumer consumer) {
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            long head = readCounts.get(stripe);
+            long tail = writeCounts.get(stripe);
+            int base = stripe * BUFFER_SIZE;
+            while (head < tail) {
+                int index = base + (int) (head & BUFFER_MASK);
+                String key = buffer.get(index);
+                if (key == null) {
+                    //写入线程已占位但还未写入数据，留到下一次回放
+                    break;
+                }
+                buffer.lazySet(index, null);
+                consumer.accept(key);
+                head++;
+            }
+            readCounts.lazySet(stripe, head);
+        }
+    }
+
+    /**
+     * @see <p>回放访问记录的回调</p>
+     */
+    interface Consumer {
+        void accept(String key);
+    }
+}
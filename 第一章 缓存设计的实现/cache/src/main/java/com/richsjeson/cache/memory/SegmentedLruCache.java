@@ -0,0 +1,424 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.interf.CacheFacade;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.interf.ResizableCache;
+import com.richsjeson.cache.interf.SystemFacade;
+import com.richsjeson.cache.stats.StatsRecorder;
+import com.richsjeson.cache.stats.TierStats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * @see <p>分段锁的内存缓存
+ * 1）根据key的hash值，将数据分散到N个独立加锁的{@link LruCache}段中
+ * 2）每个段拥有各自的访问顺序与容量，所有段的容量之和等于maxSize，超过单个段容量的条目不会被缓存，
+ *   可以通过{@link #setMaxEntryPercent}进一步限制单个条目占段容量的比例，大条目交给下一层缓存
+ * 3）不同段之间的读写互不阻塞，吞吐量随CPU核数增长
+ * </p>
+ */
+public class SegmentedLruCache implements CacheFacade, ResizableCache {
+
+    /**
+     * @serialField <p>段的上限，避免每个段分到的容量过小</p>
+     */
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private final LruCache[] segments;
+
+    private final int segmentMask;
+    /**
+     * @serialField <p>所有段共用的统计，不需要逐段汇总</p>
+     */
+    private final StatsRecorder stats = new StatsRecorder();
+
+    /**
+     * @param maxSize 所有段的容量之和，段数根据CPU核数计算
+     */
+    public SegmentedLruCache(int maxSize) {
+        this(maxSize, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param maxSize 所有段的容量之和
+     * @param concurrencyLevel 期望的并发写线程数，会向上取整为2的幂
+     */
+    public SegmentedLruCache(int maxSize, int concurrencyLevel) {
+        this(maxSize, concurrencyLevel, EvictionPolicy.Type.LRU);
+    }
+
+    /**
+     * @param maxSize 所有段的容量之和
+     * @param concurrencyLevel 期望的并发写线程数，会向上取整为2的幂
+     * @param policyType 每个段使用的淘汰策略
+     */
+    public SegmentedLruCache(int maxSize, int concurrencyLevel, EvictionPolicy.Type policyType) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < MAX_SEGMENTS) {
+            segmentCount <<= 1;
+        }
+        this.segmentMask = segmentCount - 1;
+        this.segments = new LruCache[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new LruCache(segmentSize(maxSize, i), policyType, stats);
+        }
+    }
+
+    /**
+     * @see <p>将总容量平均分配到各个段，余数分给前面的段</p>
+     */
+    private int segmentSize(int maxSize, int index) {
+        int segmentCount = segments.length;
+        int share = maxSize / segmentCount;
+        return index < maxSize % segmentCount ? share + 1 : share;
+    }
+
+    /**
+     * @see <p>根据key定位所在的段</p>
+     */
+    LruCache segmentFor(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        int h = key.hashCode();
+        //将高位扰动到低位，避免只有低位不同的key落到同一个段
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    @Override
+    public Object put(String key) {
+        return segmentFor(key).put(key);
+    }
+
+    @Override
+    public MemoryEntry getEntry(String key) {
+        return segmentFor(key).getEntry(key);
+    }
+
+    @Override
+    public void memoryAll() {
+        for (LruCache segment : segments) {
+            segment.memoryAll();
+        }
+    }
+
+    @Override
+    public void delete(String key) throws Exception {
+        segmentFor(key).delete(key);
+    }
+
+    @Override
+    public void abort(MemoryEntry memoryEntry) {
+        segmentFor(memoryEntry.getmKey()).abort(memoryEntry);
+    }
+
+    @Override
+    public MemoryEntry editor(String mKey) {
+        return segmentFor(mKey).editor(mKey);
+    }
+
+    @Override
+    public void commit(MemoryEntry memoryEntry) {
+        segmentFor(memoryEntry.getmKey()).commit(memoryEntry);
+    }
+
+    @Override
+    public boolean has(String key) {
+        return segmentFor(key).has(key);
+    }
+
+    @Override
+    public Map<String, MemoryEntry> getAll(Collection<String> keys) {
+        Map<String, MemoryEntry> result = new LinkedHashMap<String, MemoryEntry>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            MemoryEntry entry = segmentFor(key).getEntry(key);
+            if (entry != null) {
+                result.put(key, entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see <p>按段分组后写入，每个段的锁只获取一次</p>
+     */
+    @Override
+    public void putAll(Map<String, ?> values) {
+        Map<LruCache, Map<String, Object>> groups = new IdentityHashMap<LruCache, Map<String, Object>>();
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            LruCache segment = segmentFor(value.getKey());
+            Map<String, Object> group = groups.get(segment);
+            if (group == null) {
+                group = new LinkedHashMap<String, Object>();
+                groups.put(segment, group);
+            }
+            group.put(value.getKey(), value.getValue());
+        }
+        for (Map.Entry<LruCache, Map<String, Object>> group : groups.entrySet()) {
+            group.getKey().putAll(group.getValue());
+        }
+    }
+
+    /**
+     * @see <p>按段分组后删除，每个段的锁只获取一次</p>
+     */
+    @Override
+    public void removeAll(Collection<String> keys) {
+        Map<LruCache, List<String>> groups = new IdentityHashMap<LruCache, List<String>>();
+        for (String key : keys) {
+            LruCache segment = segmentFor(key);
+            List<String> group = groups.get(segment);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(segment, group);
+            }
+            group.add(key);
+        }
+        for (Map.Entry<LruCache, List<String>> group : groups.entrySet()) {
+            group.getKey().removeAll(group.getValue());
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final Object remove(String key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Sets the size of the cache. The new size is split across the segments
+     * the same way as in the constructor.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize < segments.length) {
+            throw new IllegalArgumentException("maxSize < segment count");
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].resize(segmentSize(maxSize, i));
+        }
+    }
+
+    /**
+     * @see LruCache#setMaxEntryPercent(int)
+     */
+    public void setMaxEntryPercent(int percent) {
+        for (LruCache segment : segments) {
+            segment.setMaxEntryPercent(percent);
+        }
+    }
+
+    /**
+     * @see LruCache#setStoreByReference(boolean)
+     */
+    public void setStoreByReference(boolean storeByReference) {
+        for (LruCache segment : segments) {
+            segment.setStoreByReference(storeByReference);
+        }
+    }
+
+    /**
+     * @see LruCache#setClock(SystemFacade)
+     */
+    public void setClock(SystemFacade clock) {
+        for (LruCache segment : segments) {
+            segment.setClock(clock);
+        }
+    }
+
+    /**
+     * @see LruCache#setExpireAfterWrite(long)
+     */
+    public void setExpireAfterWrite(long millis) {
+        for (LruCache segment : segments) {
+            segment.setExpireAfterWrite(millis);
+        }
+    }
+
+    /**
+     * @see LruCache#setExpireAfterAccess(long)
+     */
+    public void setExpireAfterAccess(long millis) {
+        for (LruCache segment : segments) {
+            segment.setExpireAfterAccess(millis);
+        }
+    }
+
+    /**
+     * @see LruCache#setRemovalListener(RemovalListener)
+     */
+    public void setRemovalListener(RemovalListener<MemoryEntry> listener) {
+        for (LruCache segment : segments) {
+            segment.setRemovalListener(listener);
+        }
+    }
+
+    /**
+     * @see LruCache#setRemovalExecutor(Executor)
+     */
+    public void setRemovalExecutor(Executor executor) {
+        for (LruCache segment : segments) {
+            segment.setRemovalExecutor(executor);
+        }
+    }
+
+    /**
+     * @see LruCache#cleanUp()
+     */
+    public void cleanUp() {
+        for (LruCache segment : segments) {
+            segment.cleanUp();
+        }
+    }
+
+    /**
+     * @see LruCache#setVictimCache(LruCache.VictimCache)
+     */
+    public void setVictimCache(LruCache.VictimCache victimCache) {
+        for (LruCache segment : segments) {
+            segment.setVictimCache(victimCache);
+        }
+    }
+
+    /**
+     * @see LruCache#setOverflow(LruCache.Overflow)
+     */
+    public void setOverflow(LruCache.Overflow type) {
+        for (LruCache segment : segments) {
+            segment.setOverflow(type);
+        }
+    }
+
+    /**
+     * -1 will evict 0-sized elements
+     */
+    public final void evictAll() {
+        for (LruCache segment : segments) {
+            segment.evictAll();
+        }
+    }
+
+    public final int segmentCount() {
+        return segments.length;
+    }
+
+    public final int size() {
+        int size = 0;
+        for (LruCache segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public final int maxSize() {
+        int maxSize = 0;
+        for (LruCache segment : segments) {
+            maxSize += segment.maxSize();
+        }
+        return maxSize;
+    }
+
+    public final int hitCount() {
+        return (int) stats.hitCount();
+    }
+
+    public final int missCount() {
+        return (int) stats.missCount();
+    }
+
+    public final int createCount() {
+        int count = 0;
+        for (LruCache segment : segments) {
+            count += segment.createCount();
+        }
+        return count;
+    }
+
+    public final int putCount() {
+        return (int) stats.putCount();
+    }
+
+    public final int evictionCount() {
+        return (int) stats.evictionCount();
+    }
+
+    public final int expiredCount() {
+        int count = 0;
+        for (LruCache segment : segments) {
+            count += segment.expiredCount();
+        }
+        return count;
+    }
+
+    public final int overflowSize() {
+        int count = 0;
+        for (LruCache segment : segments) {
+            count += segment.overflowSize();
+        }
+        return count;
+    }
+
+    public final int overflowHitCount() {
+        int count = 0;
+        for (LruCache segment : segments) {
+            count += segment.overflowHitCount();
+        }
+        return count;
+    }
+
+    public final int reclaimedCount() {
+        int count = 0;
+        for (LruCache segment : segments) {
+            count += segment.reclaimedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public TierStats stats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void setRecordLatency(boolean recordLatency) {
+        stats.setRecordLatency(recordLatency);
+    }
+
+    /**
+     * Returns a copy of the current contents of all segments. The copy is
+     * not ordered.
+     */
+    public final Map<Object, Object> snapshot() {
+        Map<Object, Object> snapshot = new LinkedHashMap<Object, Object>();
+        for (LruCache segment : segments) {
+            snapshot.putAll(segment.snapshot());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public final String toString() {
+        int hitCount = hitCount();
+        int accesses = hitCount + missCount();
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("SegmentedLruCache[segments=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                segments.length, maxSize(), hitCount, accesses - hitCount, hitPercent);
+    }
+}
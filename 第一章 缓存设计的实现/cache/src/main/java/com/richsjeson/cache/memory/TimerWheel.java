@@ -0,0 +1,191 @@
+package com.richsjeson.cache.memory;
+
+import java.util.List;
+
+/**
+ * @see <p>分层时间轮，用于回收过期的条目
+ * 1）每一层由若干个桶组成，桶是以哨兵节点开头的双向链表，越往上的层每个桶覆盖的时间越长
+ * 2）条目按照过期时间距离当前时间的远近放入对应层的桶中，添加与删除都是O(1)
+ * 3）时间前进时只检查经过的桶，过期的条目取出，尚未过期的条目重新放入更精确的下层桶中
+ * 4）不是线程安全的，只在持有淘汰锁时访问
+ * </p>
+ * 时间单位为毫秒，最低一层的精度约为1秒
+ */
+final class TimerWheel {
+
+    /**
+     * @serialField <p>每一层桶的数量</p>
+     */
+    static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    /**
+     * @serialField <p>每一层单个桶覆盖的时长：1.02秒、1.09分钟、1.17小时、1.55天、6.21天</p>
+     */
+    static final long[] SPANS = {
+            1L << 10,
+            1L << 16,
+            1L << 22,
+            1L << 27,
+            1L << 29,
+            1L << 29,
+    };
+
+    static final long[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private final Node[][] wheel;
+
+    /**
+     * @serialField <p>时间轮当前的时间</p>
+     */
+    private long time;
+
+    TimerWheel(long time) {
+        this.time = time;
+        wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                wheel[i][j] = new Node(null);
+            }
+        }
+    }
+
+    /**
+     * @see <p>条目的定时器，保存过期时间与所在桶中的链表指针</p>
+     */
+    static final class Node {
+
+        final String key;
+        /**
+         * @serialField <p>最终的过期时间，读操作不加锁判断是否过期</p>
+         */
+        volatile long expiresAt = Long.MAX_VALUE;
+        /**
+         * @serialField <p>写入后的过期时间，没有设置时为Long.MAX_VALUE，读操作不加锁读取</p>
+         */
+        volatile long writeExpiresAt = Long.MAX_VALUE;
+        /**
+         * @serialField <p>条目自己的有效期（毫秒），0表示使用缓存的设置，提交前由{@link MemoryEntry#setTimeToLive}设置</p>
+         */
+        volatile long timeToLive;
+        /**
+         * @serialField <p>最后一次访问的时间，读操作不加锁更新，回放访问记录时据此计算空闲过期时间</p>
+         */
+        volatile long accessTime;
+
+        Node prev;
+        Node next;
+
+        Node(String key) {
+            this.key = key;
+            //哨兵节点指向自己，表示空链表
+            if (key == null) {
+                prev = this;
+                next = this;
+            }
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt - now <= 0;
+        }
+    }
+
+    /**
+     * @see <p>时间前进到now，把过期的定时器放入expired</p>
+     */
+    void advance(long now, List<Node> expired) {
+        long previous = time;
+        if (now - previous <= 0) {
+            return;
+        }
+        time = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0) {
+                break;
+            }
+            expire(i, previousTicks, currentTicks, expired);
+        }
+    }
+
+    /**
+     * @see <p>检查一层中经过的所有桶</p>
+     */
+    private void expire(int index, long previousTicks, long currentTicks, List<Node> expired) {
+        Node[] timerWheel = wheel[index];
+        int mask = timerWheel.length - 1;
+        //经过的桶数超过一圈时，整层都需要检查
+        int steps = (int) Math.min(1 + currentTicks - previousTicks, timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            Node sentinel = timerWheel[i & mask];
+            Node node = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            while (node != sentinel) {
+                Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                if (node.isExpired(time)) {
+                    expired.add(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * @see <p>按照过期时间放入对应的桶，已在时间轮中的定时器先移除</p>
+     */
+    void schedule(Node node) {
+        if (node.next != null) {
+            unlink(node);
+        }
+        if (node.expiresAt == Long.MAX_VALUE) {
+            return;
+        }
+        Node sentinel = findBucket(node.expiresAt);
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    /**
+     * @see <p>从时间轮中移除定时器</p>
+     */
+    void deschedule(Node node) {
+        if (node.next != null) {
+            unlink(node);
+        }
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private Node findBucket(long expiresAt) {
+        long duration = expiresAt - time;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = expiresAt >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+}
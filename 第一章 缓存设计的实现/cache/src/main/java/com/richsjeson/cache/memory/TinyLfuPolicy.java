@@ -0,0 +1,199 @@
+package com.richsjeson.cache.memory;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @see <p>W-TinyLFU淘汰策略
+ * 1）新的key先进入容量为1%的窗口LRU，窗口满后最久未使用的key进入试用区；此时缓存已超出容量的，成为准入候选者
+ * 2）主区域分为试用区与保护区（80%），试用区的key再次命中后晋升到保护区
+ * 3）淘汰时用{@link FrequencySketch}比较最早的候选者与试用区队头的访问频率，频率低的一方被淘汰，
+ * 候选者无论胜负都不再参与比较；缓存填充期间进入试用区的key不是候选者
+ * 4）只访问一次的key（例如顺序扫描）无法挤掉热点数据
+ * </p>
+ */
+final class TinyLfuPolicy implements EvictionPolicy {
+
+    private static final double WINDOW_RATIO = 0.01d;
+
+    private static final double PROTECTED_RATIO = 0.8d;
+
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private final LinkedHashMap<String, Integer> window
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> probation
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> protectedRegion
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    /**
+     * @serialField <p>缓存超出容量时从窗口进入试用区、尚未经过准入比较的候选者，按进入的先后排列，
+     * 缓存回到容量以内时清空</p>
+     */
+    private final ArrayDeque<String> candidates = new ArrayDeque<String>();
+
+    private long maximum;
+
+    private long maxWindow = 1;
+
+    private long maxProtected;
+
+    private long windowWeight;
+
+    private long probationWeight;
+
+    private long protectedWeight;
+
+    @Override
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+        maxWindow = Math.max(1, (long) (maximum * WINDOW_RATIO));
+        maxProtected = (long) ((maximum - maxWindow) * PROTECTED_RATIO);
+        sketch.ensureCapacity(maximum);
+        evictFromWindow();
+        demoteFromProtected();
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+        sketch.increment(key);
+        window.put(key, weight);
+        windowWeight += weight;
+        evictFromWindow();
+    }
+
+    @Override
+    public void onUpdate(String key, int weight) {
+        sketch.increment(key);
+        Integer old = window.get(key);
+        if (old != null) {
+            window.put(key, weight);
+            windowWeight += weight - old;
+            evictFromWindow();
+            return;
+        }
+        old = protectedRegion.get(key);
+        if (old != null) {
+            protectedRegion.put(key, weight);
+            protectedWeight += weight - old;
+            demoteFromProtected();
+            return;
+        }
+        old = probation.remove(key);
+        if (old != null) {
+            //试用区的key被再次写入，视同一次命中
+            probationWeight -= old;
+            protectedRegion.put(key, weight);
+            protectedWeight += weight;
+            demoteFromProtected();
+            return;
+        }
+        window.put(key, weight);
+        windowWeight += weight;
+        evictFromWindow();
+    }
+
+    @Override
+    public void onAccess(String key) {
+        sketch.increment(key);
+        if (window.get(key) != null || protectedRegion.get(key) != null) {
+            return;
+        }
+        Integer weight = probation.remove(key);
+        if (weight != null) {
+            probationWeight -= weight;
+            protectedRegion.put(key, weight);
+            protectedWeight += weight;
+            demoteFromProtected();
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Integer weight = window.remove(key);
+        if (weight != null) {
+            windowWeight -= weight;
+        } else if ((weight = probation.remove(key)) != null) {
+            probationWeight -= weight;
+        } else if ((weight = protectedRegion.remove(key)) != null) {
+            protectedWeight -= weight;
+        }
+        if (!isOverCapacity()) {
+            //本轮淘汰结束，剩余的候选者已经被准入
+            candidates.clear();
+        }
+    }
+
+    @Override
+    public String victim() {
+        String candidate;
+        while ((candidate = candidates.peekFirst()) != null && !probation.containsKey(candidate)) {
+            candidates.pollFirst();
+        }
+        String victim = eldest(probation);
+        if (candidate == null) {
+            if (victim != null) {
+                return victim;
+            }
+            victim = eldest(protectedRegion);
+            return victim != null ? victim : eldest(window);
+        }
+        if (victim == null || victim.equals(candidate)) {
+            //试用区只剩下候选者，与保护区最久未使用的key比较
+            victim = eldest(protectedRegion);
+        }
+        //候选者无论胜负都只比较一次
+        candidates.pollFirst();
+        if (victim == null || sketch.frequency(candidate) <= sketch.frequency(victim)) {
+            //候选者的频率不高于主区域的key，拒绝准入
+            return candidate;
+        }
+        return victim;
+    }
+
+    /**
+     * @see <p>窗口超出容量时，把最久未使用的key移动到试用区；缓存此时超出容量的，该key需要与主区域比较，
+     * 成为准入候选者，缓存仍在填充时直接准入</p>
+     */
+    private void evictFromWindow() {
+        while (windowWeight > maxWindow && !window.isEmpty()) {
+            Map.Entry<String, Integer> eldest = window.entrySet().iterator().next();
+            String key = eldest.getKey();
+            int weight = eldest.getValue();
+            window.remove(key);
+            windowWeight -= weight;
+            probation.put(key, weight);
+            probationWeight += weight;
+            if (isOverCapacity()) {
+                candidates.addLast(key);
+            }
+        }
+    }
+
+    private boolean isOverCapacity() {
+        return windowWeight + probationWeight + protectedWeight > maximum;
+    }
+
+    /**
+     * @see <p>保护区超出容量时，把最久未使用的key降级到试用区</p>
+     */
+    private void demoteFromProtected() {
+        while (protectedWeight > maxProtected && !protectedRegion.isEmpty()) {
+            Map.Entry<String, Integer> eldest = protectedRegion.entrySet().iterator().next();
+            String key = eldest.getKey();
+            int weight = eldest.getValue();
+            protectedRegion.remove(key);
+            protectedWeight -= weight;
+            probation.put(key, weight);
+            probationWeight += weight;
+        }
+    }
+
+    private static String eldest(LinkedHashMap<String, Integer> region) {
+        return region.isEmpty() ? null : region.keySet().iterator().next();
+    }
+}
@@ -0,0 +1,101 @@
+package com.richsjeson.cache.memory;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+import com.richsjeson.cache.interf.PressureSource;
+import com.richsjeson.cache.interf.SystemFacade;
+
+/**
+ * @see <p>把Android的onTrimMemory回调转换为内存压力
+ * 1）通过Context.registerComponentCallbacks注册，系统在内存紧张或应用进入后台时回调
+ * 2）系统不会通知内存压力的解除，收到的级别在{@link #HOLD_MILLIS}后失效，缓存逐步恢复容量
+ * 3）收到回调后通知监听器，不需要等到下一次采样
+ * </p>
+ */
+public class TrimMemoryPressureSource implements PressureSource, ComponentCallbacks2 {
+
+    static final long HOLD_MILLIS = 30 * 1000L;
+
+    private final SystemFacade clock;
+
+    private volatile int pressure = NONE;
+
+    private volatile long receivedAt;
+
+    private volatile Runnable listener;
+
+    /**
+     * @param clock 判断回调是否失效使用的时钟
+     */
+    public TrimMemoryPressureSource(SystemFacade clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @see <p>收到回调后执行，例如让{@link MemoryPressureController}立即调整容量</p>
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public int getPressure() {
+        int current = pressure;
+        if (current != NONE && clock.currentTimeMillis() - receivedAt > HOLD_MILLIS) {
+            return NONE;
+        }
+        return current;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        update(pressureOf(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        update(CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void update(int newPressure) {
+        receivedAt = clock.currentTimeMillis();
+        pressure = newPressure;
+        Runnable current = listener;
+        if (current != null) {
+            current.run();
+        }
+    }
+
+    /**
+     * @see <p>onTrimMemory的级别对应的压力，后台进程的级别越高越可能被系统杀死</p>
+     */
+    static int pressureOf(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return CRITICAL;
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 75;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 50;
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 25;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 90;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 60;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 30;
+        }
+        return NONE;
+    }
+}
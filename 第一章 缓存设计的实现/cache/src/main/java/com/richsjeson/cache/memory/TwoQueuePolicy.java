@@ -0,0 +1,119 @@
+package com.richsjeson.cache.memory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @see <p>2Q淘汰策略
+ * 1）新的key进入先进先出的A1in（容量的25%），期间的重复访问被视为相关访问，不改变顺序
+ * 2）从A1in淘汰的key记录在幽灵队列A1out中（容量的50%），只保存key与权重
+ * 3）A1out中的key再次放入时说明确实被重复使用，直接进入按LRU排列的Am
+ * 4）只访问一次的key（例如顺序扫描）只会在A1in中流过，不会挤掉Am中的热点数据
+ * </p>
+ */
+final class TwoQueuePolicy implements EvictionPolicy {
+
+    private static final double IN_RATIO = 0.25d;
+
+    private static final double OUT_RATIO = 0.5d;
+
+    private final LinkedHashMap<String, Integer> in = new LinkedHashMap<String, Integer>();
+
+    private final LinkedHashMap<String, Integer> out = new LinkedHashMap<String, Integer>();
+
+    private final LinkedHashMap<String, Integer> main
+            = new LinkedHashMap<String, Integer>(0, 0.75f, true);
+
+    private long maxIn = 1;
+
+    private long maxOut = 1;
+
+    private long inWeight;
+
+    private long outWeight;
+
+    /**
+     * @serialField <p>上一次{@link #victim()}选出的key，随后的{@link #onRemove}据此区分淘汰与删除</p>
+     */
+    private String pendingVictim;
+
+    @Override
+    public void setMaximum(long maximum) {
+        maxIn = Math.max(1, (long) (maximum * IN_RATIO));
+        maxOut = Math.max(1, (long) (maximum * OUT_RATIO));
+        trimOut();
+    }
+
+    @Override
+    public void onInsert(String key, int weight) {
+        Integer ghost = out.remove(key);
+        if (ghost != null) {
+            outWeight -= ghost;
+            main.put(key, weight);
+        } else {
+            in.put(key, weight);
+            inWeight += weight;
+        }
+    }
+
+    @Override
+    public void onUpdate(String key, int weight) {
+        Integer old = in.get(key);
+        if (old != null) {
+            //A1in是先进先出的，替换权重不改变顺序
+            in.put(key, weight);
+            inWeight += weight - old;
+        } else if (main.containsKey(key)) {
+            main.put(key, weight);
+        } else {
+            onInsert(key, weight);
+        }
+    }
+
+    @Override
+    public void onAccess(String key) {
+        //access-order的LinkedHashMap在get时会把key移动到队尾，A1in中的key不受影响
+        main.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        boolean evicted = key.equals(pendingVictim);
+        pendingVictim = null;
+        Integer weight = in.remove(key);
+        if (weight != null) {
+            inWeight -= weight;
+            if (evicted) {
+                out.put(key, weight);
+                outWeight += weight;
+                trimOut();
+            }
+        } else {
+            main.remove(key);
+        }
+    }
+
+    @Override
+    public String victim() {
+        String victim;
+        if (!in.isEmpty() && (inWeight > maxIn || main.isEmpty())) {
+            victim = eldest(in);
+        } else {
+            victim = eldest(main);
+        }
+        pendingVictim = victim;
+        return victim;
+    }
+
+    private void trimOut() {
+        while (outWeight > maxOut && !out.isEmpty()) {
+            Map.Entry<String, Integer> eldest = out.entrySet().iterator().next();
+            out.remove(eldest.getKey());
+            outWeight -= eldest.getValue();
+        }
+    }
+
+    private static String eldest(LinkedHashMap<String, Integer> region) {
+        return region.isEmpty() ? null : region.keySet().iterator().next();
+    }
+}
@@ -0,0 +1,60 @@
+package com.richsjeson.cache.stats;
+
+/**
+ * @see <p>{@link com.richsjeson.cache.CacheManager}各层缓存的统计快照，不可变
+ * 1）L1：堆内的内存缓存
+ * 2）堆外缓存
+ * 3）L2：磁盘缓存
+ * </p>
+ */
+public final class CacheStats {
+
+    private final TierStats memory;
+    private final TierStats offHeap;
+    private final TierStats disk;
+
+    public CacheStats(TierStats memory, TierStats offHeap, TierStats disk) {
+        if (memory == null || offHeap == null || disk == null) {
+            throw new NullPointerException("memory == null || offHeap == null || disk == null");
+        }
+        this.memory = memory;
+        this.offHeap = offHeap;
+        this.disk = disk;
+    }
+
+    /**
+     * @see <p>L1内存缓存</p>
+     */
+    public TierStats memory() {
+        return memory;
+    }
+
+    public TierStats offHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @see <p>L2磁盘缓存</p>
+     */
+    public TierStats disk() {
+        return disk;
+    }
+
+    /**
+     * @see <p>整体命中率：L1的请求中，最终由任意一层返回数据的比例</p>
+     */
+    public double hitRate() {
+        long requestCount = memory.requestCount();
+        if (requestCount == 0) {
+            return 1.0;
+        }
+        long served = memory.hitCount() + offHeap.hitCount() + disk.hitCount();
+        return Math.min(1.0, (double) served / requestCount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStats[hitRate=%.2f%%,L1=%s,offHeap=%s,L2=%s]",
+                hitRate() * 100, memory, offHeap, disk);
+    }
+}
@@ -0,0 +1,158 @@
+package com.richsjeson.cache.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @see <p>对数线性的延迟直方图，单位为纳秒
+ * 1）每个2的幂区间再平均分为8个桶，任意延迟的相对误差不超过12.5%
+ * 2）记录时只对一个桶做一次原子加，不加锁，不分配内存
+ * 3）读取时拷贝为不可变的{@link Snapshot}，用于计算平均值与百分位
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * @serialField <p>桶的数量，覆盖0到Long.MAX_VALUE</p>
+     */
+    static final int BUCKETS = ((63 - SUB_BITS) << SUB_BITS) + SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter total = new StripedCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(indexOf(nanos));
+        total.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, total.sum(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    /**
+     * @see <p>桶中最小的值</p>
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exp = (index >> SUB_BITS) + SUB_BITS - 1;
+        long sub = index & (SUB_COUNT - 1);
+        return (1L << exp) + (sub << (exp - SUB_BITS));
+    }
+
+    /**
+     * @see <p>桶中最大的值</p>
+     */
+    static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * @see <p>直方图的不可变快照</p>
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long total, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @see <p>记录的次数</p>
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @see <p>所有延迟之和，纳秒</p>
+         */
+        public long totalTime() {
+            return total;
+        }
+
+        /**
+         * @see <p>平均延迟，纳秒，没有记录时为0</p>
+         */
+        public double mean() {
+            return count == 0 ? 0.0 : (double) total / count;
+        }
+
+        /**
+         * @see <p>最大延迟，纳秒</p>
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @see <p>百分位延迟，返回所在桶的上界（不超过最大值），没有记录时为0</p>
+         * @param percentile 0到100之间，例如99表示P99
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * (percentile / 100.0));
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Latency[count=%d,mean=%.0fns,p50=%dns,p99=%dns,max=%dns]",
+                    count, mean(), percentile(50), percentile(99), max);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.richsjeson.cache.stats;
+
+/**
+ * @see <p>单个缓存层的统计记录
+ * 1）计数使用{@link StripedCounter}，多线程同时记录时不会争抢同一个变量，也不需要持有缓存的锁
+ * 2）读写延迟默认不记录，开启后每次读写多调用两次System.nanoTime()；加载本身耗时较长，始终记录
+ * 3）{@link #snapshot()}返回不可变的{@link TierStats}
+ * </p>
+ */
+public final class StatsRecorder {
+
+    private final StripedCounter hitCount = new StripedCounter();
+    private final StripedCounter missCount = new StripedCounter();
+    private final StripedCounter putCount = new StripedCounter();
+    private final StripedCounter evictionCount = new StripedCounter();
+    private final StripedCounter evictionWeight = new StripedCounter();
+    private final StripedCounter loadSuccessCount = new StripedCounter();
+    private final StripedCounter loadFailureCount = new StripedCounter();
+    private final StripedCounter bytesRead = new StripedCounter();
+    private final StripedCounter bytesWritten = new StripedCounter();
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    private volatile boolean recordLatency;
+
+    /**
+     * @see <p>是否记录读写延迟</p>
+     */
+    public void setRecordLatency(boolean recordLatency) {
+        this.recordLatency = recordLatency;
+    }
+
+    public boolean isRecordingLatency() {
+        return recordLatency;
+    }
+
+    /**
+     * @see <p>开始计时，没有开启延迟统计时返回0，结果交给{@link #recordGet}或{@link #recordPut}</p>
+     */
+    public long startTimer() {
+        return recordLatency ? System.nanoTime() : 0;
+    }
+
+    public void recordHit() {
+        hitCount.increment();
+    }
+
+    public void recordMiss() {
+        missCount.increment();
+    }
+
+    public void recordPut() {
+        putCount.increment();
+    }
+
+    /**
+     * @param weight 被淘汰条目的权重
+     */
+    public void recordEviction(long weight) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+    }
+
+    /**
+     * @param nanos 加载耗时
+     */
+    public void recordLoadSuccess(long nanos) {
+        loadSuccessCount.increment();
+        loadLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos 加载耗时，加载抛出异常或没有结果都视为失败
+     */
+    public void recordLoadFailure(long nanos) {
+        loadFailureCount.increment();
+        loadLatency.record(nanos);
+    }
+
+    public void recordBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void recordBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * @param startTime {@link #startTimer()}的返回值，为0时不记录
+     */
+    public void recordGet(long startTime) {
+        if (startTime != 0) {
+            getLatency.record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * @param startTime {@link #startTimer()}的返回值，为0时不记录
+     */
+    public void recordPut(long startTime) {
+        if (startTime != 0) {
+            putLatency.record(System.nanoTime() - startTime);
+        }
+    }
+
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    public long putCount() {
+        return putCount.sum();
+    }
+
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long loadCount() {
+        return loadSuccessCount.sum() + loadFailureCount.sum();
+    }
+
+    public TierStats snapshot() {
+        return new TierStats(hitCount.sum(), missCount.sum(), putCount.sum(),
+                evictionCount.sum(), evictionWeight.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(),
+                bytesRead.sum(), bytesWritten.sum(),
+                getLatency.snapshot(), putLatency.snapshot(), loadLatency.snapshot());
+    }
+}
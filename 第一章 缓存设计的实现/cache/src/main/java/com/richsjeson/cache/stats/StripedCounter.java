@@ -0,0 +1,107 @@
+package com.richsjeson.cache.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @see <p>分段计数器，功能与Java 8的LongAdder相同
+ * 1）没有竞争时只更新一个base值，与AtomicLong一样快
+ * 2）CAS失败说明有竞争，此时创建按CPU核数分段的计数数组，线程各自更新自己的段
+ * 3）每段之间间隔一个缓存行，避免伪共享
+ * 4）读取时把所有段相加，结果不是某一时刻的精确快照，适合统计使用
+ * </p>
+ */
+public final class StripedCounter {
+
+    /**
+     * @serialField <p>相邻两段之间间隔的long个数，8个long为64字节，即一个缓存行</p>
+     */
+    private static final int PAD = 8;
+
+    private static final int MAX_STRIPES = 64;
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (stripes < cpus && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /**
+     * @serialField <p>每个线程选择段使用的随机数，CAS失败后更换</p>
+     */
+    private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int seed = (int) (Thread.currentThread().getId() * 0x9E3779B9L);
+            return new int[]{seed != 0 ? seed : 1};
+        }
+    };
+
+    private final AtomicLong base = new AtomicLong();
+
+    private volatile AtomicLongArray cells;
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long x) {
+        AtomicLongArray cs = cells;
+        if (cs == null) {
+            long b = base.get();
+            if (base.compareAndSet(b, b + x)) {
+                return;
+            }
+            cs = createCells();
+        }
+        int[] probe = PROBE.get();
+        int h = probe[0];
+        int mask = STRIPES - 1;
+        while (true) {
+            int i = (h & mask) * PAD;
+            long v = cs.get(i);
+            if (cs.compareAndSet(i, v, v + x)) {
+                probe[0] = h;
+                return;
+            }
+            //xorshift，换到另一段重试
+            h ^= h << 13;
+            h ^= h >>> 17;
+            h ^= h << 5;
+        }
+    }
+
+    private AtomicLongArray createCells() {
+        synchronized (this) {
+            AtomicLongArray cs = cells;
+            if (cs == null) {
+                cells = cs = new AtomicLongArray(STRIPES * PAD);
+            }
+            return cs;
+        }
+    }
+
+    /**
+     * @see <p>所有段的和，读取期间的并发更新可能不包含在内</p>
+     */
+    public long sum() {
+        long sum = base.get();
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+            for (int i = 0; i < cs.length(); i += PAD) {
+                sum += cs.get(i);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
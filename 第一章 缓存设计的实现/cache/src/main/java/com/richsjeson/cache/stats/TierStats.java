@@ -0,0 +1,131 @@
+package com.richsjeson.cache.stats;
+
+/**
+ * @see <p>单个缓存层的统计快照，不可变，由{@link StatsRecorder#snapshot()}创建</p>
+ */
+public final class TierStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long evictionCount;
+    private final long evictionWeight;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final LatencyHistogram.Snapshot getLatency;
+    private final LatencyHistogram.Snapshot putLatency;
+    private final LatencyHistogram.Snapshot loadLatency;
+
+    TierStats(long hitCount, long missCount, long putCount,
+              long evictionCount, long evictionWeight,
+              long loadSuccessCount, long loadFailureCount,
+              long bytesRead, long bytesWritten,
+              LatencyHistogram.Snapshot getLatency,
+              LatencyHistogram.Snapshot putLatency,
+              LatencyHistogram.Snapshot loadLatency) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.getLatency = getLatency;
+        this.putLatency = putLatency;
+        this.loadLatency = loadLatency;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @see <p>命中率，没有请求时为1</p>
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public double missRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    public long putCount() {
+        return putCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @see <p>被淘汰条目的权重之和，内存缓存为字节数，磁盘缓存为文件大小</p>
+     */
+    public long evictionWeight() {
+        return evictionWeight;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @see <p>加载的总耗时，纳秒</p>
+     */
+    public long totalLoadTime() {
+        return loadLatency.totalTime();
+    }
+
+    /**
+     * @see <p>平均每次加载的耗时，纳秒</p>
+     */
+    public double averageLoadPenalty() {
+        return loadLatency.mean();
+    }
+
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public LatencyHistogram.Snapshot getLatency() {
+        return getLatency;
+    }
+
+    public LatencyHistogram.Snapshot putLatency() {
+        return putLatency;
+    }
+
+    public LatencyHistogram.Snapshot loadLatency() {
+        return loadLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TierStats[hits=%d,misses=%d,hitRate=%.2f%%,puts=%d,evictions=%d,"
+                        + "evictionWeight=%d,loads=%d,loadFailures=%d,bytesRead=%d,bytesWritten=%d]",
+                hitCount, missCount, hitRate() * 100, putCount, evictionCount, evictionWeight,
+                loadSuccessCount, loadFailureCount, bytesRead, bytesWritten);
+    }
+}
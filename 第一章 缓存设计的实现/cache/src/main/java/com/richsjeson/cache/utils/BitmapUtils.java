@@ -24,10 +24,13 @@ import android.graphics.Paint;
 import android.os.Build;
 import android.util.Log;
 
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.Codec;
+import com.richsjeson.cache.codec.CodecRegistry;
+import com.richsjeson.cache.codec.Codecs;
 import com.richsjeson.cache.disk.CacheEntry;
 import com.richsjeson.cache.interf.DiskFacade;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -36,6 +39,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Provides I/O operations
@@ -48,6 +53,8 @@ public final class BitmapUtils {
 	private static final String TAG = "BitmapUtils";
 	private static final int DEFAULT_JPEG_QUALITY = 90;
 	public static final int UNCONSTRAINED = -1;
+	private static final Codec<Bitmap> BITMAP_CODEC =
+			CodecRegistry.getDefault().codecFor(Codecs.ID_BITMAP);
 
 	private BitmapUtils(){}
 
@@ -254,9 +261,13 @@ public final class BitmapUtils {
 	}
 
 	public static byte[] compressToBytes(Bitmap bitmap, int quality) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(65536);
-		bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-		return baos.toByteArray();
+		ByteArrayBuffer buffer = CodecRegistry.localBuffer();
+		try {
+			bitmap.compress(Bitmap.CompressFormat.JPEG, quality, buffer);
+			return buffer.toByteArray();
+		} finally {
+			buffer.release();
+		}
 	}
 
 	public static boolean isSupportedByRegionDecoder(String mimeType) {
@@ -280,26 +291,44 @@ public final class BitmapUtils {
 	 */
 	public static void put(DiskFacade mDiskLruCache,String key,Bitmap bitmap){
 		try {
-			CacheEntry cacheEntry =mDiskLruCache.editor(FileUtils.generate(key));
-			if(cacheEntry == null){
-				FileOutputStream os= (FileOutputStream) cacheEntry.newOutputStream(0);
-				try {
-					boolean isSuccess=bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
-					if (isSuccess) {
-						cacheEntry.commit();
-						mDiskLruCache.flush();
-					} else {
-						cacheEntry.abort();
-					}
-				}catch (Exception e){
-					FileUtils.closeQuietly(os);
-				}
-			}
+			//写入与提交在同一次加锁内完成，日志由后台线程合并写入，不在这里刷新
+			mDiskLruCache.put(FileUtils.generate(key), bitmap, BITMAP_CODEC);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * @see <p>批量保存Bitmap至文件，所有数据在同一次加锁内写入</p>
+	 * @param mDiskLruCache
+	 * @param bitmaps
+	 */
+	public static void putAll(DiskFacade mDiskLruCache,Map<String,Bitmap> bitmaps){
+		Map<String,Bitmap> files = new LinkedHashMap<String,Bitmap>(bitmaps.size() * 4 / 3 + 1);
+		for (Map.Entry<String,Bitmap> bitmap : bitmaps.entrySet()) {
+			files.put(FileUtils.generate(bitmap.getKey()), bitmap.getValue());
+		}
+		try {
+			mDiskLruCache.putAll(files, BITMAP_CODEC);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @see <p>读取已查找到的缓存条目中的Bitmap</p>
+	 * @param cacheEntry
+	 * @return
+	 */
+	public static Bitmap get(CacheEntry cacheEntry){
+		try {
+			return cacheEntry.read(BITMAP_CODEC);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * @see <p>根据Key,查找日志表记录，并从key所对应的缓存文件读取数据</p>
 	 * @param mDiskLruCache
@@ -308,16 +337,12 @@ public final class BitmapUtils {
 	 */
 	public static Bitmap get(DiskFacade mDiskLruCache,String key){
 		try{
-			if (!mDiskLruCache.has(key)) {
+			if (!mDiskLruCache.has(FileUtils.generate(key))) {
 				return null;
 			}
 			try {
 				CacheEntry cacheEntry = mDiskLruCache.getEntry(FileUtils.generate(key));
-				if(cacheEntry.getInputStream() != null){
-					return BitmapFactory.decodeStream(cacheEntry.getInputStream());
-				}else{
-					return null;
-				}
+				return cacheEntry != null ? cacheEntry.read(BITMAP_CODEC) : null;
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
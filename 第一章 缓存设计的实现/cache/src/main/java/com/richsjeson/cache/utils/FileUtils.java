@@ -4,7 +4,9 @@ import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import com.richsjeson.cache.codec.ByteArrayBuffer;
+import com.richsjeson.cache.codec.CodecRegistry;
+
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
@@ -13,10 +15,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringWriter;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -29,16 +28,27 @@ public class FileUtils {
     private static final String HASH_ALGORITHM = "MD5";
     private static final int RADIX = 10 + 26; // 10 digits + 26 letters
 
+    private static final int CHAR_BUFFER_SIZE = 1024;
+    /**
+     * 当前线程复用的字符缓冲区，大小固定，不会随读取的数据增长。
+     */
+    private static final ThreadLocal<char[]> LOCAL_CHARS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[CHAR_BUFFER_SIZE];
+        }
+    };
+
     /**
      *@see <p>执行读的方法</p>
      */
     public static String readFully(Reader reader) throws IOException {
         try {
-            StringWriter writer = new StringWriter();
-            char[] buffer = new char[1024];
+            StringBuilder writer = new StringBuilder(CHAR_BUFFER_SIZE);
+            char[] buffer = LOCAL_CHARS.get();
             int count;
             while ((count = reader.read(buffer)) != -1) {
-                writer.write(buffer, 0, count);
+                writer.append(buffer, 0, count);
             }
             return writer.toString();
         } finally {
@@ -48,18 +58,15 @@ public class FileUtils {
 
 
     /**
-     *@see <p>执行读的方法</p>
+     *@see <p>执行读的方法，以UTF-8解码输入流中的所有数据</p>
      */
     public static String readString(InputStream reader) throws IOException {
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
         try {
-            ByteArrayOutputStream outSteam = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int len = -1;
-            while ((len = reader.read(buffer)) != -1) {
-                outSteam.write(buffer, 0, len);
-            }
-            return new String(buffer,"UTF-8").trim();
+            buffer.readFrom(reader);
+            return new String(buffer.buffer(), 0, buffer.size(), "UTF-8");
         } finally {
+            buffer.release();
             reader.close();
         }
     }
@@ -234,19 +241,16 @@ public class FileUtils {
             return null;
 
         FileInputStream fileInput = null;
-        FileChannel channel = null;
+        ByteArrayBuffer buffer = CodecRegistry.localBuffer();
         try {
             fileInput = new FileInputStream(filePath);
-            channel = fileInput.getChannel();
-            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
-            channel.read(buffer);
-
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            byteArrayOutputStream.write(buffer.array());
-            return byteArrayOutputStream.toString();
+            //按文件大小一次申请足够的缓冲区，读取时不需要扩容
+            buffer.ensureCapacity((int) file.length() + 1);
+            buffer.readFrom(fileInput);
+            return new String(buffer.buffer(), 0, buffer.size());
         } catch (Exception e) {
         } finally {
-
+            buffer.release();
             if (fileInput != null) {
                 try {
                     fileInput.close();
@@ -254,14 +258,6 @@ public class FileUtils {
                     e.printStackTrace();
                 }
             }
-
-            if (channel != null) {
-                try {
-                    channel.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
         return null;
     }
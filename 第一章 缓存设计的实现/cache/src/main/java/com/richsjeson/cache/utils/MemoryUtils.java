@@ -25,6 +25,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @see <p></p>
@@ -42,10 +45,20 @@ public final class MemoryUtils {
 	 * @param  mKey
 	 */
 	public static void put(CacheFacade facade,String mKey,Object value){
+		put(facade, mKey, value, 0);
+	}
+
+	/**
+	 * @see <p>保存数据，并指定该数据的有效期</p>
+	 * @param timeToLive 毫秒，0表示使用缓存的设置
+	 */
+	public static void put(CacheFacade facade,String mKey,Object value,long timeToLive){
 		try {
 			MemoryEntry cacheEntry =facade.editor(mKey);
+			cacheEntry.setTimeToLive(timeToLive);
 			cacheEntry.newOutputStream(value);
-		} catch (IOException e) {
+			cacheEntry.commit();
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
@@ -58,18 +71,49 @@ public final class MemoryUtils {
 	 */
 	public static Object get(CacheFacade facade,String key){
 		try{
-			if (!facade.has(key)) {
+			MemoryEntry cacheEntry = facade.getEntry(key);
+			if (cacheEntry == null) {
 				return null;
 			}
-			try {
-				MemoryEntry cacheEntry = facade.getEntry(key);
-				return cacheEntry.newInputStream();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			return get(cacheEntry);
 		}catch (Exception e){
 			e.printStackTrace();
 		}
 		return null;
 	}
+
+	/**
+	 * @see <p>批量读取，只返回命中且能解码的数据，顺序与keys一致</p>
+	 * @param facade
+	 * @param keys
+	 * @return
+	 */
+	public static Map<String,Object> getAll(CacheFacade facade,Collection<String> keys){
+		Map<String,Object> values = new LinkedHashMap<String,Object>();
+		try {
+			for (Map.Entry<String,MemoryEntry> entry : facade.getAll(keys).entrySet()) {
+				Object value = get(entry.getValue());
+				if (value != null) {
+					values.put(entry.getKey(), value);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return values;
+	}
+
+	/**
+	 * @see <p>读取已查找到的缓存条目中的数据</p>
+	 * @param cacheEntry
+	 * @return
+	 */
+	public static Object get(MemoryEntry cacheEntry){
+		try {
+			return cacheEntry.newInputStream();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
 }
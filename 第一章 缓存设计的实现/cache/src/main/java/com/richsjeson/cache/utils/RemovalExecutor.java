@@ -0,0 +1,78 @@
+package com.richsjeson.cache.utils;
+
+import com.richsjeson.cache.interf.RemovalCause;
+import com.richsjeson.cache.interf.RemovalListener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @see <p>执行移除通知与文件删除的后台线程
+ * 1）所有缓存共用一个后台线程，空闲60秒后退出
+ * 2）队列有界，积压的任务超过上限时由提交任务的线程自己执行，不会无限占用内存
+ * </p>
+ */
+public final class RemovalExecutor {
+
+    private static final int QUEUE_SIZE = 1024;
+
+    private static volatile Executor sDefault;
+
+    private RemovalExecutor() {
+    }
+
+    public static Executor getDefault() {
+        Executor executor = sDefault;
+        if (executor == null) {
+            synchronized (RemovalExecutor.class) {
+                executor = sDefault;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Cache-removal");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+                    pool.allowCoreThreadTimeOut(true);
+                    sDefault = executor = pool;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @see <p>在executor中执行任务，executor拒绝时在当前线程执行</p>
+     */
+    public static void execute(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * @see <p>在executor中通知监听器，监听器抛出的异常不会影响其他通知</p>
+     */
+    public static <V> void notifyRemoval(Executor executor, final RemovalListener<V> listener,
+                                  final String key, final V value, final RemovalCause cause) {
+        execute(executor, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onRemoval(key, value, cause);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+}
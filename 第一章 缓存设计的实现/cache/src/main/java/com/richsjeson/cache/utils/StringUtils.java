@@ -15,12 +15,14 @@
  *******************************************************************************/
 package com.richsjeson.cache.utils;
 
+import com.richsjeson.cache.codec.Codecs;
 import com.richsjeson.cache.disk.CacheEntry;
 import com.richsjeson.cache.interf.DiskFacade;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @see <p></p>
@@ -38,21 +40,26 @@ public final class StringUtils {
 	 */
 	public static void put(DiskFacade mDiskLruCache,String key,String value){
 		try {
-			CacheEntry cacheEntry =mDiskLruCache.editor(key);
-			if(cacheEntry != null){
-				OutputStream os= (OutputStream) cacheEntry.newOutputStream(0);
-				try {
-					boolean isSuccess = StringUtils.write(os, value);
-					if (isSuccess) {
-						cacheEntry.commit();
-						mDiskLruCache.flush();
-					} else {
-						cacheEntry.abort();
-					}
-				}catch (Exception e){
-					FileUtils.closeQuietly(os);
-				}
-			}
+			//以UTF-8编码直接写入，不再经过String.getBytes的中间数组；
+			//写入与提交在同一次加锁内完成，日志由后台线程合并写入，不在这里刷新
+			mDiskLruCache.put(FileUtils.generate(key), value, Codecs.STRING);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @see <p>批量保存数据至文件，所有数据在同一次加锁内写入</p>
+	 * @param mDiskLruCache
+	 * @param values
+	 */
+	public static void putAll(DiskFacade mDiskLruCache,Map<String,String> values){
+		Map<String,String> files = new LinkedHashMap<String,String>(values.size() * 4 / 3 + 1);
+		for (Map.Entry<String,String> value : values.entrySet()) {
+			files.put(FileUtils.generate(value.getKey()), value.getValue());
+		}
+		try {
+			mDiskLruCache.putAll(files, Codecs.STRING);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -71,7 +78,7 @@ public final class StringUtils {
 //			}
 			try {
 				CacheEntry cacheEntry = mDiskLruCache.getEntry(FileUtils.generate(key));
-				return cacheEntry.getInputStream();
+				return cacheEntry != null ? cacheEntry.getInputStream() : null;
 			} catch (IOException e) {
 				e.printStackTrace();
 				return null;
@@ -84,20 +91,32 @@ public final class StringUtils {
 	}
 
 	/**
-	 * @see <p>保存数据到文件中</p>
-	 * @param os
-	 * @param content
-	 * @return
+	 * @see <p>读取已查找到的缓存条目，并以UTF-8解码为字符串</p>
+	 * @param cacheEntry
+	 * @return 没有缓存时返回null
 	 */
-	private  static boolean write(OutputStream os,String content){
+	public static String getString(CacheEntry cacheEntry){
 		try {
-			os.write(content.getBytes());
-			os.flush();
-			return true;
-		}catch (Exception e){
-			return false;
-		}finally {
-			FileUtils.closeQuietly(os);
+			return cacheEntry.read(Codecs.STRING);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @see <p>根据Key读取缓存文件，并以UTF-8解码为字符串</p>
+	 * @param mDiskLruCache
+	 * @param key
+	 * @return 没有缓存时返回null
+	 */
+	public static String getString(DiskFacade mDiskLruCache,String key){
+		try {
+			CacheEntry cacheEntry = mDiskLruCache.getEntry(FileUtils.generate(key));
+			return cacheEntry != null ? cacheEntry.read(Codecs.STRING) : null;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
 		}
 	}
 
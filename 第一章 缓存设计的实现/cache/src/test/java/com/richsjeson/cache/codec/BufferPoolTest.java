@@ -0,0 +1,71 @@
+package com.richsjeson.cache.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>BufferPool与使用缓冲池的ByteArrayBuffer的测试</p>
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testTierSizes() throws Exception {
+        assertEquals(0, BufferPool.tierFor(1));
+        assertEquals(0, BufferPool.tierFor(BufferPool.MIN_SIZE));
+        assertEquals(1, BufferPool.tierFor(BufferPool.MIN_SIZE + 1));
+        assertEquals(1, BufferPool.tierFor(4096));
+        assertEquals(2, BufferPool.tierFor(4097));
+        assertEquals(BufferPool.MAX_SIZE, BufferPool.sizeOf(BufferPool.tierFor(BufferPool.MAX_SIZE)));
+        assertEquals(-1, BufferPool.tierFor(BufferPool.MAX_SIZE + 1));
+    }
+
+    @Test
+    public void testReusesReleasedBuffers() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] first = pool.acquire(3000);
+        assertEquals(4096, first.length);
+        assertEquals(1, pool.missCount());
+        pool.release(first);
+        assertSame(first, pool.acquire(4000));
+        assertEquals(1, pool.hitCount());
+        assertEquals(0.5d, pool.hitRate(), 0.0001d);
+    }
+
+    @Test
+    public void testOversizedAndForeignBuffersAreDiscarded() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] large = pool.acquire(BufferPool.MAX_SIZE + 1);
+        assertEquals(BufferPool.MAX_SIZE + 1, large.length);
+        pool.release(large);
+        pool.release(new byte[3000]);
+        assertEquals(2, pool.discardCount());
+        assertEquals(0, pool.pooledBytes());
+    }
+
+    @Test
+    public void testPooledByteArrayBuffer() throws Exception {
+        BufferPool pool = new BufferPool();
+        ByteArrayBuffer buffer = new ByteArrayBuffer(pool);
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        buffer.readFrom(new ByteArrayInputStream(data));
+        assertTrue(Arrays.equals(data, buffer.toByteArray()));
+        buffer.release();
+        assertEquals(0, buffer.size());
+        long pooled = pool.pooledBytes();
+        assertTrue(pooled > 0);
+        //再次使用时从池中取回数组，不需要新分配
+        long misses = pool.missCount();
+        buffer.writeUtf8("缓存");
+        buffer.write(data, 0, 5000);
+        assertEquals(misses, pool.missCount());
+        assertEquals(5006, buffer.size());
+        buffer.release();
+    }
+}
@@ -0,0 +1,84 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.Codecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>CacheEntry.transferTo的测试：文件条目与段条目都发送完整的数据</p>
+ */
+public class CacheEntryTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTransferFileEntry() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(new File(folder.getRoot(), "cache"), 1, 1, 1 << 22);
+        byte[] value = value(1 << 20);
+        cache.put("key", value, Codecs.BYTES);
+        File out = new File(folder.getRoot(), "out");
+        FileOutputStream target = new FileOutputStream(out);
+        try {
+            assertEquals(value.length, cache.getEntry("key").transferTo(target.getChannel()));
+        } finally {
+            target.close();
+        }
+        assertTrue(Arrays.equals(value, readFile(out)));
+
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        assertEquals(10, cache.getEntry("key").transferTo(100, 10, Channels.newChannel(part)));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(value, 100, 110), part.toByteArray()));
+        assertEquals(0, cache.getEntry("key").transferTo(value.length, 10, Channels.newChannel(part)));
+        cache.close();
+    }
+
+    @Test
+    public void testTransferSegmentEntry() throws Exception {
+        SegmentStore store = SegmentStore.open(new File(folder.getRoot(), "segments"), 1 << 20, 4096);
+        byte[] value = value(1000);
+        store.put("a", value(3000), Codecs.BYTES);
+        store.put("b", value, Codecs.BYTES);
+        store.put("c", value(3000), Codecs.BYTES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(value.length, store.getEntry("b").transferTo(Channels.newChannel(out)));
+        assertTrue(Arrays.equals(value, out.toByteArray()));
+        CacheEntry removed = store.getEntry("b");
+        store.delete("b");
+        assertEquals(-1, removed.transferTo(Channels.newChannel(out)));
+        store.close();
+    }
+
+    private static byte[] value(int length) {
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte) (i * 31);
+        }
+        return value;
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.Codecs;
+import com.richsjeson.cache.interf.DiskFacade;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>磁盘缓存批量操作的测试：文件缓存、分片的文件缓存与段存储的getAll、putAll、removeAll</p>
+ */
+public class DiskBatchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDiskLruCache() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder("single"), 1, 1, 1 << 20);
+        assertBatchResults(cache);
+        cache.close();
+    }
+
+    @Test
+    public void testShardedDiskLruCache() throws Exception {
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.newFolder("sharded"), 1, 1, 1 << 20, 4);
+        assertBatchResults(cache);
+        cache.close();
+    }
+
+    @Test
+    public void testSegmentStore() throws Exception {
+        SegmentStore store = SegmentStore.open(folder.newFolder("segments"), 1 << 20);
+        assertBatchResults(store);
+        store.close();
+    }
+
+    /**
+     * @see <p>写入三个值，读取时跳过不存在的key，删除返回实际删除的个数</p>
+     */
+    private static void assertBatchResults(DiskFacade cache) throws Exception {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("a", "1");
+        values.put("b", "2");
+        values.put("c", "3");
+        assertEquals(3, cache.putAll(values, Codecs.STRING));
+
+        Map<String, CacheEntry> found = cache.getAll(Arrays.asList("c", "missing", "a"));
+        assertEquals(2, found.size());
+        assertEquals("3", found.get("c").read(Codecs.STRING));
+        assertEquals("1", found.get("a").read(Codecs.STRING));
+        assertFalse(found.containsKey("missing"));
+
+        Map<String, String> replacement = new LinkedHashMap<String, String>();
+        replacement.put("b", "two");
+        assertEquals(1, cache.putAll(replacement, Codecs.STRING));
+        assertEquals(1, cache.removeAll(Arrays.asList("a", "missing")));
+        assertEquals(0, cache.removeAll(Arrays.asList("a")));
+
+        found = cache.getAll(Arrays.asList("a", "b", "c"));
+        assertEquals(Arrays.asList("b", "c"), sorted(found.keySet()));
+        assertEquals("two", found.get("b").read(Codecs.STRING));
+    }
+
+    private static ArrayList<String> sorted(Collection<String> keys) {
+        ArrayList<String> list = new ArrayList<String>(keys);
+        Collections.sort(list);
+        return list;
+    }
+}
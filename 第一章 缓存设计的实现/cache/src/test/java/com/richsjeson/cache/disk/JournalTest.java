@@ -0,0 +1,273 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.Codecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>二进制日志的测试：校验和、重新打开后的重放、尾部损坏、编解码器ID的记录与旧日志的转换</p>
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCrc32cKnownValue() throws Exception {
+        byte[] data = "123456789".getBytes("US-ASCII");
+        assertEquals(0xE3069283, Crc32c.compute(data, 0, data.length));
+        assertEquals(0x8A9136AA, Crc32c.compute(new byte[32], 0, 32));
+    }
+
+    @Test
+    public void testReplayAfterReopen() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        put(cache, "a", "first");
+        put(cache, "b", "second");
+        put(cache, "a", "third");
+        cache.delete("b");
+        cache.flush();
+        //不调用close，模拟进程被杀，日志不会被重建
+        DiskLruCache reopened = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertTrue(reopened.has("a"));
+        assertFalse(reopened.has("b"));
+        assertEquals(5, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        put(cache, "a", "first");
+        put(cache, "b", "second");
+        cache.flush();
+        File journal = new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE);
+        long length = journal.length();
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            //最后一条记录（b的CLEAN）只写入了一部分
+            file.setLength(length - 3);
+        } finally {
+            file.close();
+        }
+
+        DiskLruCache reopened = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertTrue(reopened.has("a"));
+        //b的DIRTY完整，文件仍然可读，保留并以文件大小为准
+        assertTrue(reopened.has("b"));
+        assertEquals(11, reopened.size());
+        put(reopened, "c", "third");
+        reopened.flush();
+
+        JournalReader reader = new JournalReader(journal);
+        reader.readHeader(1, 2);
+        int records = 0;
+        while (reader.next()) {
+            records++;
+        }
+        assertFalse(reader.isTruncated());
+        assertEquals(4, records);
+        reopened.close();
+    }
+
+    @Test
+    public void testCorruptRecordStopsReplay() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        put(cache, "a", "first");
+        cache.flush();
+        File journal = new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE);
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            //修改最后一条记录的校验和
+            file.seek(journal.length() - 1);
+            int last = file.read();
+            file.seek(journal.length() - 1);
+            file.write(last ^ 0xff);
+        } finally {
+            file.close();
+        }
+        JournalReader reader = new JournalReader(journal);
+        reader.readHeader(1, 2);
+        assertTrue(reader.next());
+        assertEquals(JournalWriter.DIRTY, reader.op());
+        assertEquals("a", reader.key());
+        assertFalse(reader.next());
+        assertTrue(reader.isTruncated());
+    }
+
+    @Test
+    public void testTextJournalIsMigrated() throws Exception {
+        writeFile(new File(folder.getRoot(), "a"), "first");
+        writeFile(new File(folder.getRoot(), "b"), "second");
+        writeFile(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE), DiskLruCache.MAGIC + "\n"
+                + DiskLruCache.VERSION_1 + "\n1\n\n"
+                + "DIRTY a\nCLEAN a 5\nDIRTY b\nCLEAN b 6\nREAD a\nDIRTY c\nREMOVE x\n");
+
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertTrue(cache.has("a"));
+        assertTrue(cache.has("b"));
+        assertFalse(cache.has("c"));
+        assertEquals(11, cache.size());
+        assertFalse(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE_BACKUP).exists());
+        cache.close();
+
+        JournalReader reader = new JournalReader(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE));
+        reader.readHeader(1, 2);
+        assertTrue(reader.next());
+        //访问顺序保持不变
+        assertEquals("b", reader.key());
+        assertEquals(6, reader.size());
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        File journal = new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE);
+        long header = journal.length();
+        cache.setJournalCommit(60 * 1000, false);
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final int id = i;
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            put(cache, "k" + id + "_" + j, "v");
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        //窗口未结束，记录都还在内存中
+        assertEquals(header, journal.length());
+        cache.flush();
+        assertTrue(journal.length() > header);
+
+        cache.setJournalCommit(20, false);
+        long flushed = journal.length();
+        put(cache, "late", "v");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.length() == flushed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(journal.length() > flushed);
+
+        DiskLruCache reopened = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertEquals(201, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testCodecIdIsReplayed() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        cache.put("s", "text", Codecs.STRING);
+        cache.put("n", 42, Codecs.INTEGER);
+        put(cache, "raw", "stream");
+        cache.put("bytes", new byte[]{1, 2, 3}, Codecs.BYTES);
+        //直接通过输出流重新写入，原来记录的ID不再适用
+        put(cache, "bytes", "stream");
+        cache.flush();
+
+        DiskLruCache reopened = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertEquals(Codecs.ID_STRING, reopened.getEntry("s").getCodecId());
+        assertEquals("text", reopened.getEntry("s").read());
+        assertEquals(42, reopened.getEntry("n").read());
+        assertEquals(Codecs.ID_NONE, reopened.getEntry("raw").getCodecId());
+        assertEquals(Codecs.ID_NONE, reopened.getEntry("bytes").getCodecId());
+        try {
+            reopened.getEntry("raw").read();
+            fail("read without a recorded codec");
+        } catch (IOException expected) {
+        }
+        //重建后的日志同样保留ID
+        reopened.close();
+        DiskLruCache rebuilt = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertEquals(Codecs.ID_INTEGER, rebuilt.getEntry("n").getCodecId());
+        rebuilt.close();
+    }
+
+    @Test
+    public void testVersionWithoutCodecIsRebuilt() throws Exception {
+        writeFile(new File(folder.getRoot(), "a"), "first");
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        byte[] header = {0x52, 0x4A, 0x44, 0x4C, JournalWriter.VERSION_NO_CODEC, 1, 2};
+        writeChecksummed(journal, header);
+        byte[] record = {JournalWriter.CLEAN, 1, 'a', 5, 0};
+        writeChecksummed(journal, record);
+        FileOutputStream out = new FileOutputStream(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE));
+        try {
+            journal.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertEquals(5, cache.size());
+        assertEquals(Codecs.ID_NONE, cache.getEntry("a").getCodecId());
+        cache.put("b", "second", Codecs.STRING);
+        cache.flush();
+
+        JournalReader reader = new JournalReader(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE));
+        reader.readHeader(1, 2);
+        assertEquals(JournalWriter.VERSION, reader.version());
+        int clean = 0;
+        while (reader.next()) {
+            if (reader.op() == JournalWriter.CLEAN) {
+                clean++;
+                assertEquals(reader.key().equals("b") ? Codecs.ID_STRING : Codecs.ID_NONE, reader.codecId());
+            }
+        }
+        assertFalse(reader.isTruncated());
+        assertEquals(2, clean);
+        cache.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testHeaderMismatch() throws Exception {
+        DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20).close();
+        new JournalReader(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE)).readHeader(2, 2);
+    }
+
+    private static void put(DiskLruCache cache, String key, String value) throws IOException {
+        CacheEntry entry = cache.editor(key);
+        entry.set(0, value);
+        entry.commit();
+    }
+
+    private static void writeChecksummed(ByteArrayOutputStream out, byte[] data) {
+        out.write(data, 0, data.length);
+        int crc = Crc32c.compute(data, 0, data.length);
+        out.write(crc >>> 24);
+        out.write(crc >>> 16);
+        out.write(crc >>> 8);
+        out.write(crc);
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
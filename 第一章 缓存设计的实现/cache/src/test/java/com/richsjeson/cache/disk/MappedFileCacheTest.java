@@ -0,0 +1,107 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.Codecs;
+import com.richsjeson.cache.utils.FileUtils;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>MappedFileCache的测试：映射的上限、失效，以及磁盘缓存的映射读取</p>
+ */
+public class MappedFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() throws Exception {
+        MappedFileCache.getDefault().invalidateDirectory(folder.getRoot());
+    }
+
+    @Test
+    public void testBoundsAndInvalidation() throws Exception {
+        MappedFileCache cache = new MappedFileCache(2, 250);
+        File a = write("a", 100);
+        File b = write("b", 100);
+        File c = write("c", 100);
+        assertEquals(100, cache.map(a).remaining());
+        cache.map(b);
+        cache.map(a);
+        cache.map(c);
+        assertEquals(2, cache.mappedFileCount());
+        assertEquals(200, cache.mappedBytes());
+        assertEquals(1, cache.hitCount());
+        cache.map(a);
+        cache.map(c);
+        assertEquals(3, cache.hitCount());
+        cache.map(b);
+        assertEquals(4, cache.missCount());
+
+        assertNull(cache.map(write("large", 300)));
+        assertNull(cache.map(new File(folder.getRoot(), "missing")));
+
+        ByteBuffer view = cache.map(a, 10, 20);
+        assertEquals(20, view.remaining());
+        assertEquals(10, view.get(0));
+        assertTrue(view.isReadOnly());
+
+        write("a", 50);
+        cache.invalidate(a);
+        assertEquals(50, cache.map(a).remaining());
+    }
+
+    @Test
+    public void testMappedReadsFromDiskLruCache() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.getRoot(), 1, 1, 1 << 20);
+        cache.setMappedReads(true);
+        cache.put("key", "first", Codecs.STRING);
+        assertEquals("first", cache.getEntry("key").read(Codecs.STRING));
+        cache.put("key", "second", Codecs.STRING);
+        assertEquals("second", cache.getEntry("key").read(Codecs.STRING));
+        InputStream in = cache.getEntry("key").getInputStream();
+        assertTrue(in instanceof ByteBufferInputStream);
+        assertEquals("second", FileUtils.readString(in));
+        assertEquals(6, cache.getEntry("key").map().remaining());
+        cache.close();
+    }
+
+    @Test
+    public void testMappedReadsFromSealedSegments() throws Exception {
+        SegmentStore store = SegmentStore.open(folder.getRoot(), 1 << 20, 256);
+        store.setMappedReads(true);
+        for (int i = 0; i < 10; i++) {
+            store.put("key" + i, "value" + i, Codecs.STRING);
+            store.put("pad" + i, new byte[100], Codecs.BYTES);
+        }
+        assertTrue(store.segmentCount() > 2);
+        long misses = MappedFileCache.getDefault().missCount();
+        assertEquals("value0", store.getEntry("key0").read(Codecs.STRING));
+        assertEquals("value0", store.getEntry("key0").read(Codecs.STRING));
+        assertEquals(misses + 1, MappedFileCache.getDefault().missCount());
+        assertEquals(6, store.getEntry("key0").map().remaining());
+        assertEquals("value9", store.getEntry("key9").read(Codecs.STRING));
+        store.close();
+    }
+
+    private File write(String name, int length) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,117 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.Codecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>SegmentStore的测试：读写、重新打开、尾部损坏的恢复与压缩</p>
+ */
+public class SegmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutGetAndReopen() throws Exception {
+        SegmentStore store = SegmentStore.open(folder.getRoot(), 1 << 20);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.put("key" + i, "value" + i, Codecs.STRING));
+        }
+        store.put("key1", "changed", Codecs.STRING);
+        assertTrue(store.delete("key2"));
+        CacheEntry entry = store.editor("edited");
+        entry.write(0, "streamed", Codecs.STRING);
+        store.commit(entry);
+        assertEquals("value0", store.getEntry("key0").read(Codecs.STRING));
+        assertEquals("changed", store.getEntry("key1").read(Codecs.STRING));
+        assertNull(store.getEntry("key2"));
+        long size = store.getSize();
+        store.close();
+
+        store = SegmentStore.open(folder.getRoot(), 1 << 20);
+        assertEquals(size, store.getSize());
+        assertEquals("value99", store.getEntry("key99").read(Codecs.STRING));
+        assertEquals("changed", store.getEntry("key1").read(Codecs.STRING));
+        assertEquals("streamed", store.getEntry("edited").read(Codecs.STRING));
+        assertFalse(store.has("key2"));
+        assertEquals(1, store.segmentCount());
+        store.close();
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        SegmentStore store = SegmentStore.open(folder.getRoot(), 1 << 20);
+        store.put("a", "first", Codecs.STRING);
+        store.put("b", "second", Codecs.STRING);
+        store.close();
+
+        File segment = new File(folder.getRoot(), SegmentStore.SEGMENT_PREFIX + 0);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        store = SegmentStore.open(folder.getRoot(), 1 << 20);
+        assertEquals("first", store.getEntry("a").read(Codecs.STRING));
+        assertFalse(store.has("b"));
+        store.put("c", "third", Codecs.STRING);
+        store.close();
+
+        store = SegmentStore.open(folder.getRoot(), 1 << 20);
+        assertEquals("first", store.getEntry("a").read(Codecs.STRING));
+        assertEquals("third", store.getEntry("c").read(Codecs.STRING));
+        store.close();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        SegmentStore store = SegmentStore.open(folder.getRoot(), 300);
+        byte[] value = new byte[100];
+        store.put("a", value, Codecs.BYTES);
+        store.put("b", value, Codecs.BYTES);
+        store.put("c", value, Codecs.BYTES);
+        store.getEntry("a");
+        store.put("d", value, Codecs.BYTES);
+        assertTrue(store.has("a"));
+        assertFalse(store.has("b"));
+        assertEquals(300, store.getSize());
+        assertEquals(1, store.stats().evictionCount());
+        store.close();
+    }
+
+    @Test
+    public void testCompactionReclaimsSpace() throws Exception {
+        SegmentStore store = SegmentStore.open(folder.getRoot(), 1 << 20, 4096);
+        byte[] value = new byte[200];
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                Arrays.fill(value, (byte) (round + i));
+                store.put("key" + i, value, Codecs.BYTES);
+            }
+        }
+        store.delete("key0");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getDiskUsage() > 3 * 4096 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(store.getDiskUsage() <= 3 * 4096);
+        store.close();
+
+        store = SegmentStore.open(folder.getRoot(), 1 << 20, 4096);
+        assertFalse(store.has("key0"));
+        for (int i = 1; i < 20; i++) {
+            byte[] read = store.getEntry("key" + i).read(Codecs.BYTES);
+            assertEquals(200, read.length);
+            assertEquals((byte) (4 + i), read[0]);
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,200 @@
+package com.richsjeson.cache.disk;
+
+import com.richsjeson.cache.codec.Codecs;
+import com.richsjeson.cache.utils.FileUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>ShardedDiskLruCache的测试：分片的容量、批量操作、重新打开、未分片缓存的迁移、损坏的未分片日志与并发写入</p>
+ */
+public class ShardedDiskLruCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testShardsSplitCapacity() throws Exception {
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1003, 3);
+        assertEquals(4, cache.shardCount());
+        Map<DiskLruCache, Boolean> shards = new IdentityHashMap<DiskLruCache, Boolean>();
+        for (int i = 0; i < 1000; i++) {
+            shards.put(cache.shardFor(FileUtils.generate("key" + i)), Boolean.TRUE);
+        }
+        assertEquals(4, shards.size());
+        long total = 0;
+        for (DiskLruCache shard : shards.keySet()) {
+            assertTrue(shard.maxSize() == 250 || shard.maxSize() == 251);
+            total += shard.maxSize();
+        }
+        assertEquals(1003, total);
+        assertEquals(1003, cache.getCapacity());
+        cache.close();
+    }
+
+    @Test
+    public void testBatchOperationsKeepOrder() throws Exception {
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 40; i++) {
+            values.put("key" + i, "value" + i);
+        }
+        assertEquals(40, cache.putAll(values, Codecs.STRING));
+        assertTrue(cache.put("single", "v", Codecs.STRING));
+
+        List<String> keys = new ArrayList<String>(values.keySet());
+        keys.add(5, "missing");
+        assertEquals(new ArrayList<String>(values.keySet()),
+                new ArrayList<String>(cache.getAll(keys).keySet()));
+        assertEquals("value7", cache.getEntry("key7").read(Codecs.STRING));
+
+        assertEquals(2, cache.removeAll(Arrays.asList("key1", "key2", "missing")));
+        assertFalse(cache.has("key1"));
+        assertTrue(cache.delete("key3"));
+        cache.flush();
+        long size = cache.getSize();
+        cache.close();
+
+        ShardedDiskLruCache reopened = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        assertEquals(size, reopened.getSize());
+        assertTrue(reopened.has("key39"));
+        assertFalse(reopened.has("key2"));
+        reopened.close();
+    }
+
+    @Test
+    public void testMigratesUnshardedCache() throws Exception {
+        DiskLruCache unsharded = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(unsharded.put("key" + i, "value" + i, Codecs.STRING));
+        }
+        //未提交的写入不迁移
+        unsharded.editor("dirty");
+        long size = unsharded.size();
+        unsharded.close();
+
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        assertFalse(new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE).exists());
+        assertFalse(new File(folder.getRoot(), "key0").exists());
+        assertEquals(size, cache.getSize());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value" + i, cache.getEntry("key" + i).read(Codecs.STRING));
+        }
+        assertFalse(cache.has("dirty"));
+        cache.close();
+
+        ShardedDiskLruCache reopened = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        assertEquals(size, reopened.getSize());
+        assertEquals("value7", reopened.getEntry("key7").read(Codecs.STRING));
+        reopened.close();
+    }
+
+    @Test
+    public void testMigrationEvictsBeyondShardCapacity() throws Exception {
+        DiskLruCache unsharded = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(unsharded.put("key" + i, "value", Codecs.STRING));
+        }
+        unsharded.close();
+
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 100, 2);
+        assertTrue(cache.getSize() <= 100);
+        assertTrue(cache.has("key99"));
+        cache.close();
+    }
+
+    @Test
+    public void testCorruptUnshardedJournalKeepsShards() throws Exception {
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(cache.put("key" + i, "value" + i, Codecs.STRING));
+        }
+        long size = cache.getSize();
+        cache.close();
+
+        //顶层留下一个未分片的缓存，它的日志只写入了一半
+        DiskLruCache unsharded = DiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20);
+        assertTrue(unsharded.put("loose", "value", Codecs.STRING));
+        unsharded.close();
+        File journal = new File(folder.getRoot(), DiskLruCache.JOURNAL_FILE);
+        File loose = new File(folder.getRoot(), "loose");
+        assertTrue(loose.exists());
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            file.setLength(6);
+        } finally {
+            file.close();
+        }
+
+        ShardedDiskLruCache reopened = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        assertFalse(journal.exists());
+        assertFalse(loose.exists());
+        assertFalse(reopened.has("loose"));
+        assertEquals(size, reopened.getSize());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value" + i, reopened.getEntry("key" + i).read(Codecs.STRING));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testRemovesStaleShards() throws Exception {
+        ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 8);
+        cache.close();
+        assertTrue(new File(folder.getRoot(), ShardedDiskLruCache.SHARD_PREFIX + 7).exists());
+
+        ShardedDiskLruCache smaller = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 2);
+        assertFalse(new File(folder.getRoot(), ShardedDiskLruCache.SHARD_PREFIX + 7).exists());
+        assertTrue(new File(folder.getRoot(), ShardedDiskLruCache.SHARD_PREFIX + 1).exists());
+        smaller.close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final ShardedDiskLruCache cache = ShardedDiskLruCache.open(folder.getRoot(), 1, 2, 1 << 20, 4);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] writers = new Thread[8];
+        for (int i = 0; i < writers.length; i++) {
+            final int id = i;
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            //所有线程反复写入同一组key
+                            String key = "k" + (j % 20);
+                            assertTrue(cache.put(key, "writer" + id, Codecs.STRING));
+                            String value = cache.getEntry(key).read(Codecs.STRING);
+                            assertTrue(value, value.startsWith("writer"));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(20 * "writerN".length(), cache.getSize());
+        cache.close();
+    }
+}
@@ -0,0 +1,109 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.interf.CacheFacade;
+import com.richsjeson.cache.interf.RemovalCause;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.utils.MemoryUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>内存缓存批量操作的测试：一级缓存（单段与分段）与堆外缓存的getAll、putAll、removeAll</p>
+ */
+public class BatchOperationsTest {
+
+    @Test
+    public void testLruCache() throws Exception {
+        LruCache cache = new LruCache(1 << 20);
+        List<String> causes = recordRemovals(cache);
+        assertBatchResults(cache);
+        //替换与删除各通知一次
+        assertEquals(Arrays.asList("b:REPLACED", "a:EXPLICIT"), causes);
+    }
+
+    @Test
+    public void testSegmentedLruCache() throws Exception {
+        SegmentedLruCache cache = new SegmentedLruCache(1 << 20, 8);
+        List<String> causes = new ArrayList<String>();
+        cache.setRemovalExecutor(directExecutor());
+        cache.setRemovalListener(recorder(causes));
+        assertBatchResults(cache);
+        assertEquals(Arrays.asList("b:REPLACED", "a:EXPLICIT"), causes);
+    }
+
+    @Test
+    public void testOffHeapCache() throws Exception {
+        OffHeapCache cache = new OffHeapCache(4 * OffHeapCache.SLAB_SIZE);
+        assertBatchResults(cache);
+        assertEquals(2, cache.entryCount());
+
+        //写入null删除原有的数据，超过槽位上限的数据被拒绝
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("b", null);
+        values.put("large", new byte[OffHeapCache.MAX_VALUE_SIZE + 1]);
+        cache.putAll(values);
+        assertFalse(cache.has("b"));
+        assertFalse(cache.has("large"));
+        assertEquals(1, cache.rejectCount());
+    }
+
+    /**
+     * @see <p>写入a、b、c，读取时结果按keys的顺序并跳过不存在的key，再替换b、删除a</p>
+     */
+    private static void assertBatchResults(CacheFacade cache) {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("a", "1");
+        values.put("b", "2");
+        values.put("c", 3);
+        cache.putAll(values);
+
+        Map<String, Object> found = MemoryUtils.getAll(cache, Arrays.asList("c", "missing", "a", "b"));
+        assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<String>(found.keySet()));
+        assertEquals(3, found.get("c"));
+        assertEquals("1", found.get("a"));
+
+        Map<String, Object> replacement = new LinkedHashMap<String, Object>();
+        replacement.put("b", "two");
+        cache.putAll(replacement);
+        cache.removeAll(Arrays.asList("a", "missing"));
+
+        found = MemoryUtils.getAll(cache, Arrays.asList("a", "b", "c"));
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<String>(found.keySet()));
+        assertEquals("two", found.get("b"));
+        assertTrue(cache.getAll(Arrays.asList("a", "missing")).isEmpty());
+    }
+
+    private static List<String> recordRemovals(LruCache cache) {
+        List<String> causes = new ArrayList<String>();
+        cache.setRemovalExecutor(directExecutor());
+        cache.setRemovalListener(recorder(causes));
+        return causes;
+    }
+
+    private static RemovalListener<MemoryEntry> recorder(final List<String> causes) {
+        return new RemovalListener<MemoryEntry>() {
+            @Override
+            public void onRemoval(String key, MemoryEntry value, RemovalCause cause) {
+                causes.add(key + ":" + cause);
+            }
+        };
+    }
+
+    private static Executor directExecutor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+}
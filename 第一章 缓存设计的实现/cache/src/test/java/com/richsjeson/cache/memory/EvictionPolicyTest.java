@@ -0,0 +1,230 @@
+package com.richsjeson.cache.memory;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>所有淘汰策略共用的测试
+ * 1）正确性：随机的写入、访问、删除与容量调整下，选出的key必须在缓存中，权重不超过容量
+ * 2）命中率：同一组访问序列下比较各个策略的命中率
+ * </p>
+ */
+public class EvictionPolicyTest {
+
+    /**
+     * @see <p>按照{@link LruCache}调用策略的方式模拟一个缓存</p>
+     */
+    private static final class Simulator {
+
+        final EvictionPolicy.Type type;
+        final EvictionPolicy policy;
+        final Map<String, Integer> resident = new HashMap<String, Integer>();
+        long maximum;
+        long weight;
+        long hits;
+        long requests;
+
+        Simulator(EvictionPolicy.Type type, long maximum) {
+            this.type = type;
+            this.maximum = maximum;
+            policy = type.newPolicy();
+            policy.setMaximum(maximum);
+        }
+
+        void put(String key, int keyWeight) {
+            Integer old = resident.put(key, keyWeight);
+            if (old != null) {
+                weight -= old;
+                policy.onUpdate(key, keyWeight);
+            } else {
+                policy.onInsert(key, keyWeight);
+            }
+            weight += keyWeight;
+            trimToSize(maximum);
+        }
+
+        boolean get(String key) {
+            requests++;
+            if (resident.containsKey(key)) {
+                hits++;
+                policy.onAccess(key);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @see <p>未命中时放入，用于命中率测试</p>
+         */
+        void request(String key) {
+            if (!get(key)) {
+                put(key, 1);
+            }
+        }
+
+        void remove(String key) {
+            Integer old = resident.remove(key);
+            if (old != null) {
+                weight -= old;
+                policy.onRemove(key);
+            }
+        }
+
+        void resize(long maximum) {
+            this.maximum = maximum;
+            policy.setMaximum(maximum);
+            trimToSize(maximum);
+        }
+
+        void trimToSize(long maxSize) {
+            while (weight > maxSize && !resident.isEmpty()) {
+                String victim = policy.victim();
+                assertNotNull(type + " lost track of " + resident.size() + " entries", victim);
+                Integer old = resident.remove(victim);
+                assertNotNull(type + " chose a key that is not cached: " + victim, old);
+                weight -= old;
+                policy.onRemove(victim);
+            }
+            assertTrue(type + " weight " + weight + " > " + maxSize, weight <= maxSize);
+        }
+
+        double hitRate() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            Random random = new Random(7);
+            Simulator cache = new Simulator(type, 200);
+            for (int i = 0; i < 200000; i++) {
+                String key = "k" + random.nextInt(600);
+                int op = random.nextInt(100);
+                if (op < 45) {
+                    cache.put(key, 1 + random.nextInt(4));
+                } else if (op < 90) {
+                    cache.get(key);
+                } else if (op < 99) {
+                    cache.remove(key);
+                } else {
+                    cache.resize(50 + random.nextInt(300));
+                }
+            }
+            cache.trimToSize(0);
+            assertTrue(type.toString(), cache.resident.isEmpty());
+            assertNull(type.toString(), cache.policy.victim());
+        }
+    }
+
+    @Test
+    public void testRemovedKeyIsNeverChosen() throws Exception {
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            Simulator cache = new Simulator(type, 10);
+            for (int i = 0; i < 10; i++) {
+                cache.put("k" + i, 1);
+            }
+            for (int i = 0; i < 10; i += 2) {
+                cache.remove("k" + i);
+            }
+            for (int i = 0; i < 5; i++) {
+                String victim = cache.policy.victim();
+                assertTrue(type + " chose " + victim, cache.resident.containsKey(victim));
+                cache.remove(victim);
+            }
+            assertNull(type.toString(), cache.policy.victim());
+        }
+    }
+
+    @Test
+    public void testLargeEntryStaysWithinMaximum() throws Exception {
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            Simulator cache = new Simulator(type, 100);
+            for (int i = 0; i < 100; i++) {
+                cache.put("k" + i, 1);
+            }
+            //LIRS把新的key作为HIR，可能直接淘汰它，只检查容量
+            cache.put("big", 100);
+            assertTrue(type.toString(), cache.weight <= 100);
+            cache.put("k0", 50);
+            assertTrue(type.toString(), cache.weight <= 100);
+        }
+    }
+
+    /**
+     * @see <p>偏斜分布的热点数据（key的数量是容量的4倍）中间穿插一次性的顺序扫描，
+     * 能识别频率或重用距离的策略应当好于LRU</p>
+     */
+    @Test
+    public void testHitRatioWithScans() throws Exception {
+        Map<EvictionPolicy.Type, Double> rates = new HashMap<EvictionPolicy.Type, Double>();
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            Random random = new Random(42);
+            Simulator cache = new Simulator(type, 100);
+            int scan = 0;
+            for (int i = 0; i < 100000; i++) {
+                if (i % 1000 < 200) {
+                    cache.request("scan" + scan++);
+                } else {
+                    cache.request("hot" + skewed(random, 400));
+                }
+            }
+            rates.put(type, cache.hitRate());
+        }
+        double lru = rates.get(EvictionPolicy.Type.LRU);
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            if (type != EvictionPolicy.Type.LRU) {
+                assertTrue(type + " " + rates.get(type) + " <= LRU " + lru, rates.get(type) > lru);
+            }
+        }
+    }
+
+    /**
+     * @see <p>循环访问比缓存稍大的key集合，LRU每次都淘汰下一个要访问的key；
+     * ARC的两个列表都按最近访问排序，同样退化为LRU，只要求不差于LRU；
+     * 其余策略应当让大部分循环常驻缓存</p>
+     */
+    @Test
+    public void testHitRatioWithLoop() throws Exception {
+        Map<EvictionPolicy.Type, Double> rates = new HashMap<EvictionPolicy.Type, Double>();
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            Simulator cache = new Simulator(type, 100);
+            for (int i = 0; i < 50000; i++) {
+                cache.request("loop" + i % 120);
+            }
+            rates.put(type, cache.hitRate());
+        }
+        double lru = rates.get(EvictionPolicy.Type.LRU);
+        assertEquals(0d, lru, 0.01d);
+        for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+            double rate = rates.get(type);
+            switch (type) {
+                case LRU:
+                    break;
+                case ARC:
+                    assertTrue(type + " " + rate + " < LRU " + lru, rate >= lru);
+                    break;
+                case TINY_LFU:
+                case TWO_QUEUE:
+                case LIRS:
+                    assertTrue(type + " " + rate + " <= 0.5", rate > 0.5d);
+                    break;
+                default:
+                    fail("no expected loop hit rate for " + type);
+            }
+        }
+    }
+
+    /**
+     * @see <p>偏斜的分布，小的key被访问的概率更高</p>
+     */
+    private static int skewed(Random random, int range) {
+        double u = random.nextDouble();
+        return (int) (range * u * u * u);
+    }
+}
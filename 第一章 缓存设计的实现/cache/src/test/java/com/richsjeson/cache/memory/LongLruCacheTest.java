@@ -0,0 +1,137 @@
+package com.richsjeson.cache.memory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>LongLruCache的测试，与LinkedHashMap实现的LRU对照</p>
+ */
+public class LongLruCacheTest {
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        LongLruCache<String> cache = new LongLruCache<String>(3);
+        assertNull(cache.put(1, "a"));
+        assertNull(cache.put(2, "b"));
+        assertEquals("a", cache.get(1));
+        assertEquals("b", cache.put(2, "c"));
+        assertEquals("c", cache.get(2));
+        assertNull(cache.get(3));
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        LongLruCache<String> cache = new LongLruCache<String>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        cache.get(1);
+        cache.put(4, "d");
+        assertFalse(cache.containsKey(2));
+        assertEquals("[3, 1, 4]", cache.snapshot().keySet().toString());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testRemoveKeepsProbeSequence() throws Exception {
+        LongLruCache<Long> cache = new LongLruCache<Long>(1000);
+        for (long i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        for (long i = 0; i < 1000; i += 2) {
+            assertEquals(Long.valueOf(i), cache.remove(i));
+        }
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? null : Long.valueOf(i), cache.get(i));
+        }
+        assertEquals(500, cache.size());
+    }
+
+    @Test
+    public void testNegativeAndZeroKeys() throws Exception {
+        LongLruCache<String> cache = new LongLruCache<String>(10);
+        cache.put(0, "zero");
+        cache.put(-1, "minus");
+        cache.put(Long.MIN_VALUE, "min");
+        assertEquals("zero", cache.get(0));
+        assertEquals("minus", cache.get(-1));
+        assertEquals("min", cache.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testCreateAndEntryRemoved() throws Exception {
+        final List<Long> removed = new ArrayList<Long>();
+        LongLruCache<String> cache = new LongLruCache<String>(2) {
+            @Override
+            protected String create(long key) {
+                return key < 0 ? null : "v" + key;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, long key, String oldValue, String newValue) {
+                removed.add(key);
+            }
+        };
+        assertEquals("v1", cache.get(1));
+        assertEquals("v2", cache.get(2));
+        assertEquals("v3", cache.get(3));
+        assertNull(cache.get(-1));
+        assertEquals(3, cache.createCount());
+        assertEquals("[1]", removed.toString());
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals("[1, 2, 3]", removed.toString());
+    }
+
+    @Test
+    public void testMatchesLinkedHashMap() throws Exception {
+        final int maxSize = 500;
+        LongLruCache<Long> cache = new LongLruCache<Long>(maxSize);
+        Map<Long, Long> expected = new LinkedHashMap<Long, Long>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(key, (long) i), cache.put(key, (long) i));
+                    break;
+                case 1:
+                    assertEquals(expected.get(key), cache.get(key));
+                    break;
+                default:
+                    assertEquals(expected.remove(key), cache.remove(key));
+                    break;
+            }
+        }
+        assertEquals(expected, cache.snapshot());
+        assertEquals(new ArrayList<Long>(expected.keySet()),
+                new ArrayList<Long>(cache.snapshot().keySet()));
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        LongLruCache<Integer> cache = new LongLruCache<Integer>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        cache.resize(10);
+        assertEquals(10, cache.size());
+        assertTrue(cache.containsKey(99));
+        assertFalse(cache.containsKey(89));
+    }
+}
@@ -0,0 +1,156 @@
+package com.richsjeson.cache.memory;
+
+import android.net.NetworkInfo;
+
+import com.richsjeson.cache.interf.RemovalCause;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.interf.SystemFacade;
+import com.richsjeson.cache.utils.MemoryUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>LruCache过期的测试，时间由FakeClock控制，移除通知在调用线程中同步执行</p>
+ */
+public class LruCacheExpiryTest {
+
+    /**
+     * @see <p>只提供时间的SystemFacade</p>
+     */
+    static final class FakeClock implements SystemFacade {
+
+        long now;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public NetworkInfo getActiveNetworkInfo() {
+            return null;
+        }
+
+        @Override
+        public boolean isActiveNetworkMetered() {
+            return false;
+        }
+
+        @Override
+        public boolean isNetworkRoaming() {
+            return false;
+        }
+
+        @Override
+        public Long getMaxBytesOverMobile() {
+            return null;
+        }
+    }
+
+    private FakeClock clock;
+
+    private LruCache cache;
+
+    private final List<String> expired = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new FakeClock();
+        cache = new LruCache(1 << 20);
+        cache.setClock(clock);
+        cache.setRemovalExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        cache.setRemovalListener(new RemovalListener<MemoryEntry>() {
+            @Override
+            public void onRemoval(String key, MemoryEntry value, RemovalCause cause) {
+                if (cause == RemovalCause.EXPIRED) {
+                    expired.add(key);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testExpireAfterWriteAtBoundary() throws Exception {
+        cache.setExpireAfterWrite(1000);
+        MemoryUtils.put(cache, "a", "value");
+        clock.now = 999;
+        assertEquals("value", MemoryUtils.get(cache, "a"));
+        clock.now = 1000;
+        assertNull(MemoryUtils.get(cache, "a"));
+    }
+
+    @Test
+    public void testTimeToLiveOverridesCacheSetting() throws Exception {
+        cache.setExpireAfterWrite(10000);
+        MemoryUtils.put(cache, "short", "value", 500);
+        MemoryUtils.put(cache, "long", "value");
+        clock.now = 500;
+        assertNull(MemoryUtils.get(cache, "short"));
+        assertEquals("value", MemoryUtils.get(cache, "long"));
+    }
+
+    @Test
+    public void testAccessRenewsIdleExpiration() throws Exception {
+        cache.setExpireAfterAccess(1000);
+        MemoryUtils.put(cache, "a", "value");
+        //每次读取都在上一次读取后的空闲时间内，访问记录不一定已经回放
+        for (clock.now = 800; clock.now <= 8000; clock.now += 800) {
+            assertEquals("read at " + clock.now, "value", MemoryUtils.get(cache, "a"));
+        }
+        clock.now += 1000 - 800;
+        assertNull(MemoryUtils.get(cache, "a"));
+    }
+
+    @Test
+    public void testIdleRenewalSurvivesWheelAdvance() throws Exception {
+        cache.setExpireAfterAccess(2000);
+        MemoryUtils.put(cache, "a", "value");
+        clock.now = 1500;
+        assertEquals("value", MemoryUtils.get(cache, "a"));
+        //写操作推进时间轮，原来的过期时间已过，但最后一次访问之后还没有空闲2秒
+        clock.now = 3000;
+        MemoryUtils.put(cache, "b", "value");
+        cache.cleanUp();
+        assertEquals("value", MemoryUtils.get(cache, "a"));
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testExpiredButUnreclaimedEntryIsMiss() throws Exception {
+        MemoryUtils.put(cache, "a", "value", 1000);
+        clock.now = 5000;
+        int hits = cache.hitCount();
+        assertNull(cache.getEntry("a"));
+        assertFalse(cache.has("a"));
+        assertEquals(hits, cache.hitCount());
+        //未命中时顺带回收，恰好通知一次
+        assertEquals(1, cache.expiredCount());
+        assertEquals(0, cache.size());
+        assertEquals(1, expired.size());
+        assertNull(cache.getEntry("a"));
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testEditorReplacesExpiredEntry() throws Exception {
+        MemoryUtils.put(cache, "a", "old", 1000);
+        clock.now = 1000;
+        MemoryUtils.put(cache, "a", "new");
+        assertEquals("new", MemoryUtils.get(cache, "a"));
+        assertEquals(1, expired.size());
+        clock.now = 100000;
+        assertEquals("new", MemoryUtils.get(cache, "a"));
+    }
+}
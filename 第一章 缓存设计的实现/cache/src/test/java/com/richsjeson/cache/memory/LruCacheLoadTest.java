@@ -0,0 +1,189 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.utils.MemoryUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>LruCache加载的测试：并发未命中合并为一次create，递归加载与异常的传递</p>
+ */
+public class LruCacheLoadTest {
+
+    private static final int THREADS = 8;
+
+    /**
+     * @see <p>create在release打开之前阻塞，entered在第一次调用create时打开</p>
+     */
+    private static class BlockingCache extends LruCache {
+
+        final AtomicInteger creates = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile RuntimeException failure;
+
+        BlockingCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected MemoryEntry create(Object key) {
+            creates.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return entry(this, (String) key, "created");
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesCallCreateOnce() throws Exception {
+        final BlockingCache cache = new BlockingCache(1 << 20);
+        List<Future<MemoryEntry>> results = getConcurrently(cache, "key");
+        awaitWaiters(cache, THREADS - 1);
+        cache.release.countDown();
+
+        MemoryEntry first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<MemoryEntry> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals("created", MemoryUtils.get(first));
+        assertEquals(1, cache.creates.get());
+        assertEquals(1, cache.createCount());
+        assertEquals(THREADS - 1, cache.coalescedCount());
+        //加载完成后直接命中，不再调用create
+        assertSame(first, cache.getEntry("key"));
+        assertEquals(1, cache.creates.get());
+    }
+
+    @Test
+    public void testExceptionPropagatesToWaiters() throws Exception {
+        final BlockingCache cache = new BlockingCache(1 << 20);
+        cache.failure = new IllegalArgumentException("boom");
+        List<Future<MemoryEntry>> results = getConcurrently(cache, "key");
+        awaitWaiters(cache, THREADS - 1);
+        cache.release.countDown();
+
+        for (Future<MemoryEntry> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("expected the load failure");
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertSame(cache.failure, e.getCause());
+            }
+        }
+        assertEquals(1, cache.creates.get());
+        assertEquals(1, cache.loadExceptionCount());
+        assertFalse(cache.has("key"));
+
+        //失败的加载不会留在缓存中，下一次未命中重新调用create
+        cache.failure = null;
+        assertEquals("created", MemoryUtils.get(cache.getEntry("key")));
+        assertEquals(2, cache.creates.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRecursiveLoadThrows() throws Exception {
+        LruCache cache = new LruCache(1 << 20) {
+            @Override
+            protected MemoryEntry create(Object key) {
+                return getEntry((String) key);
+            }
+        };
+        cache.getEntry("key");
+    }
+
+    @Test
+    public void testLoadReplacesExpiredEntry() throws Exception {
+        LruCacheExpiryTest.FakeClock clock = new LruCacheExpiryTest.FakeClock();
+        LruCache cache = new LruCache(1 << 20) {
+            @Override
+            protected MemoryEntry create(Object key) {
+                return entry(this, (String) key, "fresh");
+            }
+        };
+        cache.setClock(clock);
+        MemoryUtils.put(cache, "key", "stale", 1000);
+        //已过期，但时间轮还没有走过所在的桶，条目仍在缓存中
+        clock.now = 1000;
+        assertEquals("fresh", MemoryUtils.get(cache.getEntry("key")));
+        assertEquals(1, cache.expiredCount());
+        assertEquals("fresh", MemoryUtils.get(cache.getEntry("key")));
+    }
+
+    @Test
+    public void testLoadRejectsValueLargerThanCache() throws Exception {
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            large.append('x');
+        }
+        LruCache cache = new LruCache(200) {
+            @Override
+            protected MemoryEntry create(Object key) {
+                return entry(this, (String) key, large.toString());
+            }
+        };
+        MemoryEntry loaded = cache.getEntry("key");
+        assertEquals(large.toString(), MemoryUtils.get(loaded));
+        assertFalse(cache.has("key"));
+        assertEquals(0, cache.size());
+    }
+
+    private static MemoryEntry entry(LruCache cache, String key, String value) {
+        MemoryEntry entry = new MemoryEntry(cache, key);
+        try {
+            entry.newOutputStream(value);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return entry;
+    }
+
+    private static List<Future<MemoryEntry>> getConcurrently(final LruCache cache, final String key)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<MemoryEntry>> results = new ArrayList<Future<MemoryEntry>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<MemoryEntry>() {
+                @Override
+                public MemoryEntry call() throws Exception {
+                    start.await();
+                    return cache.getEntry(key);
+                }
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        return results;
+    }
+
+    /**
+     * @see <p>等待第一个线程进入create，其余的线程都加入了同一个加载任务</p>
+     */
+    private static void awaitWaiters(BlockingCache cache, int waiters) throws Exception {
+        assertTrue(cache.entered.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.coalescedCount() < waiters && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(waiters, cache.coalescedCount());
+    }
+}
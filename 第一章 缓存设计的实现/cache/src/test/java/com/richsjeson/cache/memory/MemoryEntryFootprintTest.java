@@ -0,0 +1,146 @@
+package com.richsjeson.cache.memory;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URLEncoder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>MemoryEntry的内存占用测试
+ * 这里的大小是估算值，不是JOL的测量结果：按照假定的HotSpot 64位压缩指针规则
+ * （对象头12字节，引用4字节，按8字节对齐）由字段布局计算，字段重排与填充的细节以实际虚拟机为准
+ * </p>
+ */
+public class MemoryEntryFootprintTest {
+
+    private static final int HEADER = 12;
+
+    private static final int REFERENCE = 4;
+
+    private static final int ALIGNMENT = 8;
+
+    /**
+     * @see <p>最初的MemoryEntry的字段，作为对照：四个流字段，以及URL编码后的String形式的数据</p>
+     */
+    @SuppressWarnings("unused")
+    private static final class LegacyEntry {
+        String mKey;
+        boolean hasErrors;
+        String mType;
+        boolean mIsEditor;
+        Object facade;
+        ByteArrayOutputStream mByteOutStream;
+        ObjectOutputStream mObjectStream;
+        ByteArrayInputStream mByteInputStream;
+        ObjectInputStream mInputStream;
+        String obj;
+    }
+
+    /**
+     * @see <p>对象本身没有比最初的实现更小：权重、定时器、写入时间与版本号是新增的，
+     * 合并标志位与数据字段省下的空间只是容纳了它们。节省来自数据本身（见{@link #testPayloadSize()}），
+     * 以及不再为每个条目创建的流对象</p>
+     */
+    @Test
+    public void testShallowSize() throws Exception {
+        assertEquals(48, shallowSize(LegacyEntry.class));
+        assertEquals(shallowSize(LegacyEntry.class), shallowSize(MemoryEntry.class));
+    }
+
+    /**
+     * @see <p>最初的实现把序列化结果按ISO-8859-1转成字符串后再做URL编码，数据以char[]保存，
+     * 现在保存的是编码后的byte[]，这里比较两者数组部分的估算大小，不包含最初实现仍然引用着的流对象</p>
+     */
+    @Test
+    public void testPayloadSize() throws Exception {
+        Long value = 123L;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        String legacy = URLEncoder.encode(bytes.toString("ISO-8859-1"), "UTF-8");
+
+        LruCache cache = new LruCache(1 << 20);
+        MemoryEntry entry = cache.editor("key");
+        entry.newOutputStream(value);
+        entry.commit();
+
+        long legacySize = arraySize(2, legacy.length());
+        long currentSize = arraySize(1, entry.getEncodedSize());
+        assertEquals(24, currentSize);
+        assertTrue(legacySize + " <= " + currentSize, legacySize > currentSize * 10);
+    }
+
+    @Test
+    public void testNoStreamOrStringFields() throws Exception {
+        for (Field field : MemoryEntry.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Class<?> type = field.getType();
+            assertFalse(field.getName(), InputStream.class.isAssignableFrom(type));
+            assertFalse(field.getName(), OutputStream.class.isAssignableFrom(type));
+            assertFalse(field.getName(), type == boolean.class);
+            if (type == String.class) {
+                assertEquals("mKey", field.getName());
+            }
+        }
+    }
+
+    @Test
+    public void testPackedFlagsKeepCodecAndTimeToLive() throws Exception {
+        LruCache cache = new LruCache(1 << 20);
+        MemoryEntry entry = cache.editor("key");
+        assertEquals(0, entry.getTimeToLive());
+        assertNull(entry.getTimer());
+        entry.setTimeToLive(1000);
+        entry.newOutputStream(123L);
+        entry.commit();
+        assertEquals(1000, entry.getTimeToLive());
+        assertFalse(entry.isReference());
+        assertEquals(Long.valueOf(123L), cache.getEntry("key").newInputStream());
+        assertEquals(8, entry.getEncodedSize());
+    }
+
+    private static long shallowSize(Class<?> type) {
+        long size = HEADER;
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += sizeOf(field.getType());
+                }
+            }
+        }
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static long arraySize(int elementSize, int length) {
+        long size = HEADER + 4 + (long) elementSize * length;
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+}
@@ -0,0 +1,140 @@
+package com.richsjeson.cache.memory;
+
+import android.content.ComponentCallbacks2;
+
+import com.richsjeson.cache.interf.PressureSource;
+import com.richsjeson.cache.interf.ResizableCache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>MemoryPressureController的测试，同步调用adjust，不启动后台线程</p>
+ */
+public class MemoryPressureControllerTest {
+
+    /**
+     * @see <p>记录每一次resize的缓存，size不超过maxSize</p>
+     */
+    private static final class FakeCache implements ResizableCache {
+
+        final List<Integer> resizes = new ArrayList<Integer>();
+        int size;
+        int maxSize;
+
+        FakeCache(int size, int maxSize) {
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int maxSize() {
+            return maxSize;
+        }
+
+        @Override
+        public void resize(int maxSize) {
+            resizes.add(maxSize);
+            this.maxSize = maxSize;
+            size = Math.min(size, maxSize);
+        }
+    }
+
+    private static final class FixedSource implements PressureSource {
+
+        int pressure;
+
+        @Override
+        public int getPressure() {
+            return pressure;
+        }
+    }
+
+    @Test
+    public void testShrinksInBoundedChunks() throws Exception {
+        FakeCache cache = new FakeCache(6400, 6400);
+        FixedSource source = new FixedSource();
+        MemoryPressureController controller = new MemoryPressureController(cache, source);
+        source.pressure = PressureSource.CRITICAL;
+        controller.adjust();
+        assertEquals(1600, cache.maxSize());
+        int previous = 6400;
+        for (int size : cache.resizes) {
+            assertTrue(previous - size <= 6400 / MemoryPressureController.TRIM_CHUNKS);
+            previous = size;
+        }
+        assertEquals(48, cache.resizes.size());
+        controller.stop();
+    }
+
+    @Test
+    public void testSkipsEmptySpaceWhenShrinking() throws Exception {
+        FakeCache cache = new FakeCache(2000, 6400);
+        FixedSource source = new FixedSource();
+        MemoryPressureController controller = new MemoryPressureController(cache, source);
+        source.pressure = PressureSource.CRITICAL;
+        controller.adjust();
+        assertEquals(Integer.valueOf(2000), cache.resizes.get(0));
+        assertEquals(1600, cache.maxSize());
+        controller.stop();
+    }
+
+    @Test
+    public void testGrowsOneStepPerAdjust() throws Exception {
+        FakeCache cache = new FakeCache(800, 800);
+        FixedSource source = new FixedSource();
+        MemoryPressureController controller = new MemoryPressureController(cache, source);
+        source.pressure = 50;
+        controller.adjust();
+        assertEquals(500, cache.maxSize());
+        source.pressure = PressureSource.NONE;
+        controller.adjust();
+        assertEquals(600, cache.maxSize());
+        controller.adjust();
+        controller.adjust();
+        assertEquals(800, cache.maxSize());
+        controller.adjust();
+        assertEquals(800, cache.maxSize());
+        controller.stop();
+    }
+
+    @Test
+    public void testUsesHighestPressure() throws Exception {
+        FixedSource low = new FixedSource();
+        FixedSource high = new FixedSource();
+        PressureSource broken = new PressureSource() {
+            @Override
+            public int getPressure() {
+                throw new IllegalStateException();
+            }
+        };
+        MemoryPressureController controller = new MemoryPressureController(new FakeCache(0, 100), low, broken, high);
+        low.pressure = 10;
+        high.pressure = 60;
+        assertEquals(60, controller.pressure());
+        high.pressure = 1000;
+        assertEquals(PressureSource.CRITICAL, controller.pressure());
+        controller.stop();
+    }
+
+    @Test
+    public void testPressureMapping() throws Exception {
+        assertEquals(PressureSource.NONE, HeapPressureSource.heapPressure(40, 100));
+        assertEquals(50, HeapPressureSource.heapPressure(725, 1000));
+        assertEquals(PressureSource.CRITICAL, HeapPressureSource.heapPressure(99, 100));
+        assertEquals(PressureSource.CRITICAL,
+                TrimMemoryPressureSource.pressureOf(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        assertEquals(25, TrimMemoryPressureSource.pressureOf(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertTrue(TrimMemoryPressureSource.pressureOf(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+                > TrimMemoryPressureSource.pressureOf(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+    }
+}
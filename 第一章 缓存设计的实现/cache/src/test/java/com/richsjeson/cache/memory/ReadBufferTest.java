@@ -0,0 +1,101 @@
+package com.richsjeson.cache.memory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>ReadBuffer的测试：回放顺序、写满后的丢弃与回放的阈值</p>
+ */
+public class ReadBufferTest {
+
+    private static final class Recorder implements ReadBuffer.Consumer {
+
+        final List<String> keys = new ArrayList<String>();
+
+        @Override
+        public void accept(String key) {
+            keys.add(key);
+        }
+    }
+
+    @Test
+    public void testDrainsInRecordOrder() throws Exception {
+        ReadBuffer buffer = new ReadBuffer();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < ReadBuffer.DRAIN_THRESHOLD - 1; i++) {
+            assertFalse(buffer.record("key" + i));
+            expected.add("key" + i);
+        }
+        assertTrue(buffer.record("last"));
+        expected.add("last");
+
+        Recorder recorder = new Recorder();
+        buffer.drainTo(recorder);
+        assertEquals(expected, recorder.keys);
+
+        //回放过的记录不会再次出现，环绕后顺序不变
+        recorder.keys.clear();
+        buffer.drainTo(recorder);
+        assertTrue(recorder.keys.isEmpty());
+        expected.clear();
+        for (int i = 0; i < ReadBuffer.BUFFER_SIZE - 3; i++) {
+            buffer.record("again" + i);
+            expected.add("again" + i);
+        }
+        buffer.drainTo(recorder);
+        assertEquals(expected, recorder.keys);
+    }
+
+    @Test
+    public void testDropsRecordsWhenFull() throws Exception {
+        ReadBuffer buffer = new ReadBuffer();
+        for (int i = 0; i < ReadBuffer.BUFFER_SIZE; i++) {
+            buffer.record("key" + i);
+        }
+        assertTrue(buffer.record("dropped"));
+        Recorder recorder = new Recorder();
+        buffer.drainTo(recorder);
+        assertEquals(ReadBuffer.BUFFER_SIZE, recorder.keys.size());
+        assertEquals("key0", recorder.keys.get(0));
+        assertFalse(recorder.keys.contains("dropped"));
+    }
+
+    @Test
+    public void testDrainsEveryThread() throws Exception {
+        final ReadBuffer buffer = new ReadBuffer();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String prefix = "thread" + t + "-";
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 8; i++) {
+                        buffer.record(prefix + i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Recorder recorder = new Recorder();
+        buffer.drainTo(recorder);
+        //同一个线程的记录保持顺序；不同线程可能共用一个环，环满后的记录被丢弃
+        for (int t = 0; t < threads.length; t++) {
+            int previous = -1;
+            for (String key : recorder.keys) {
+                if (key.startsWith("thread" + t + "-")) {
+                    int index = Integer.parseInt(key.substring(key.indexOf('-') + 1));
+                    assertTrue(index > previous);
+                    previous = index;
+                }
+            }
+        }
+        assertFalse(recorder.keys.isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.interf.RemovalCause;
+import com.richsjeson.cache.interf.RemovalListener;
+import com.richsjeson.cache.utils.MemoryUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>移除通知的测试：每种RemovalCause恰好通知一次，entryRemoved与监听器收到同一个旧值，
+ * 同步与异步的executor结果相同，回滚的写入不通知也不留下数据</p>
+ */
+public class RemovalNotificationTest {
+
+    /**
+     * @see <p>记录entryRemoved与监听器的每一次回调，格式为key:cause:旧值</p>
+     */
+    private static final class RecordingCache extends LruCache implements RemovalListener<MemoryEntry> {
+
+        final List<String> removed = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> notified = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        RecordingCache(int maxSize, Executor executor) {
+            super(maxSize);
+            setRemovalExecutor(executor);
+            setRemovalListener(this);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Object key, Object oldValue, Object newValue) {
+            removed.add(key + ":" + evicted + ":" + MemoryUtils.get((MemoryEntry) oldValue)
+                    + (newValue != null ? "->" + MemoryUtils.get((MemoryEntry) newValue) : ""));
+        }
+
+        @Override
+        public void onRemoval(String key, MemoryEntry value, RemovalCause cause) {
+            threads.add(Thread.currentThread());
+            notified.add(key + ":" + cause + ":" + MemoryUtils.get(value));
+        }
+    }
+
+    @Test
+    public void testDirectDelivery() throws Exception {
+        RecordingCache cache = new RecordingCache(1 << 20, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        exerciseEveryCause(cache);
+        assertNotifications(cache);
+        for (Thread thread : cache.threads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void testAsyncDelivery() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RecordingCache cache = new RecordingCache(1 << 20, executor);
+        exerciseEveryCause(cache);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertNotifications(cache);
+        for (Thread thread : cache.threads) {
+            assertNotSame(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void testEvictionNotifiesEachVictimOnce() throws Exception {
+        RecordingCache cache = new RecordingCache(1 << 20, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            MemoryUtils.put(cache, "key" + i, "value" + i);
+        }
+        cache.resize(cache.size() / 2);
+        int evictions = cache.evictionCount();
+        assertTrue(evictions > 0);
+        assertEquals(evictions, cache.notified.size());
+        assertEquals(evictions, cache.removed.size());
+        for (int i = 0; i < evictions; i++) {
+            //按LRU顺序淘汰最早写入的数据
+            assertEquals("key" + i + ":EVICTED:value" + i, cache.notified.get(i));
+            assertEquals("key" + i + ":true:value" + i, cache.removed.get(i));
+        }
+    }
+
+    @Test
+    public void testAbortRestoresPreviousValue() throws Exception {
+        RecordingCache cache = new RecordingCache(1 << 20, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        LruCacheExpiryTest.FakeClock clock = new LruCacheExpiryTest.FakeClock();
+        clock.now = 1000;
+        cache.setClock(clock);
+        MemoryUtils.put(cache, "key", "first");
+        int size = cache.size();
+
+        MemoryEntry entry = cache.editor("key");
+        entry.newOutputStream("a much longer uncommitted value");
+        cache.abort(entry);
+        assertEquals("first", MemoryUtils.get(cache, "key"));
+        assertEquals(size, cache.size());
+        assertFalse(entry.isEditing());
+        assertTrue(cache.notified.isEmpty());
+
+        //回滚后再次写入，通知的旧值仍是最后一次提交的数据
+        MemoryUtils.put(cache, "key", "second");
+        assertEquals(Collections.singletonList("key:REPLACED:first"), cache.notified);
+
+        //从未提交过的条目回滚后不再保留
+        size = cache.size();
+        MemoryEntry fresh = cache.editor("fresh");
+        fresh.newOutputStream("value");
+        cache.abort(fresh);
+        assertFalse(cache.has("fresh"));
+        assertEquals(size, cache.size());
+        assertEquals(1, cache.notified.size());
+    }
+
+    private static void exerciseEveryCause(RecordingCache cache) throws Exception {
+        LruCacheExpiryTest.FakeClock clock = new LruCacheExpiryTest.FakeClock();
+        //写入时间为0表示还没有提交过，时钟不能从0开始
+        clock.now = 1000;
+        cache.setClock(clock);
+        MemoryUtils.put(cache, "replaced", "first");
+        MemoryUtils.put(cache, "replaced", "second");
+        MemoryUtils.put(cache, "explicit", "value");
+        cache.remove("explicit");
+        MemoryUtils.put(cache, "expired", "value", 1000);
+        clock.now = 10000;
+        assertNull(cache.getEntry("expired"));
+        //再次读取不会重复通知
+        assertNull(cache.getEntry("expired"));
+        cache.remove("explicit");
+    }
+
+    private static void assertNotifications(RecordingCache cache) {
+        assertEquals(3, cache.notified.size());
+        assertTrue(cache.notified.contains("replaced:REPLACED:first"));
+        assertTrue(cache.notified.contains("explicit:EXPLICIT:value"));
+        assertTrue(cache.notified.contains("expired:EXPIRED:value"));
+        assertEquals(3, cache.removed.size());
+        assertTrue(cache.removed.contains("replaced:false:first->second"));
+        assertTrue(cache.removed.contains("explicit:false:value"));
+        assertTrue(cache.removed.contains("expired:true:value"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.utils.MemoryUtils;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>SegmentedLruCache的测试：key到段的路由、容量的分配与淘汰</p>
+ */
+public class SegmentedLruCacheTest {
+
+    @Test
+    public void testSegmentCountAndBudget() throws Exception {
+        SegmentedLruCache cache = new SegmentedLruCache(1003, 5);
+        assertEquals(8, cache.segmentCount());
+        assertEquals(1003, cache.maxSize());
+
+        //段数只由并发数决定，不因大条目减少
+        cache = new SegmentedLruCache(1 << 20, 64, EvictionPolicy.Type.LRU);
+        assertEquals(64, cache.segmentCount());
+    }
+
+    @Test
+    public void testRoutesKeysToStableSegments() throws Exception {
+        SegmentedLruCache cache = new SegmentedLruCache(1 << 20, 16);
+        Map<LruCache, Integer> used = new IdentityHashMap<LruCache, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            LruCache segment = cache.segmentFor(key);
+            assertSame(segment, cache.segmentFor(key));
+            MemoryUtils.put(cache, key, "value" + i);
+            //数据只写入所在的段
+            assertTrue(segment.has(key));
+            Integer count = used.get(segment);
+            used.put(segment, count == null ? 1 : count + 1);
+        }
+        assertEquals(16, used.size());
+        for (Integer count : used.values()) {
+            assertTrue("unbalanced segment: " + count, count > 1000 / 16 / 2);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, MemoryUtils.get(cache, "key" + i));
+        }
+    }
+
+    @Test
+    public void testEvictsWithinEachSegmentBudget() throws Exception {
+        SegmentedLruCache cache = new SegmentedLruCache(16 * 1024, 4);
+        for (int i = 0; i < 2000; i++) {
+            MemoryUtils.put(cache, "key" + i, "value" + i);
+            assertTrue(cache.size() <= cache.maxSize());
+        }
+        assertTrue(cache.evictionCount() > 0);
+        for (int i = 0; i < 2000; i++) {
+            LruCache segment = cache.segmentFor("key" + i);
+            assertTrue(segment.size() <= segment.maxSize());
+        }
+        //最近写入的数据仍在缓存中
+        assertEquals("value1999", MemoryUtils.get(cache, "key1999"));
+    }
+
+    @Test
+    public void testResizeSplitsBudget() throws Exception {
+        SegmentedLruCache cache = new SegmentedLruCache(16 * 1024, 4);
+        for (int i = 0; i < 2000; i++) {
+            MemoryUtils.put(cache, "key" + i, "value" + i);
+        }
+        cache.resize(4 * 1024 + 3);
+        assertEquals(4 * 1024 + 3, cache.maxSize());
+        assertTrue(cache.size() <= cache.maxSize());
+    }
+
+    @Test
+    public void testMaxEntryPercentFollowsSegmentBudget() throws Exception {
+        //每个段4KB，单个条目最多2KB
+        SegmentedLruCache cache = new SegmentedLruCache(16 * 1024, 4);
+        cache.setMaxEntryPercent(50);
+        MemoryUtils.put(cache, "small", new byte[1000]);
+        MemoryUtils.put(cache, "large", new byte[3000]);
+        assertTrue(cache.has("small"));
+        assertFalse(cache.has("large"));
+        assertEquals(4, cache.segmentCount());
+
+        //段缩小到2KB后上限随之变为1KB
+        cache.resize(8 * 1024);
+        MemoryUtils.put(cache, "small", new byte[1000]);
+        assertFalse(cache.has("small"));
+        MemoryUtils.put(cache, "tiny", new byte[100]);
+        assertTrue(cache.has("tiny"));
+    }
+}
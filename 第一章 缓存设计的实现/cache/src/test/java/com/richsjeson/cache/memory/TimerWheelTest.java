@@ -0,0 +1,112 @@
+package com.richsjeson.cache.memory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>TimerWheel的测试：层与层之间的下沉、桶边界上的过期与移除</p>
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void testExpiresAtTickBoundary() throws Exception {
+        TimerWheel wheel = new TimerWheel(0);
+        TimerWheel.Node node = node("a", 2 * TimerWheel.SPANS[0]);
+        wheel.schedule(node);
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+
+        wheel.advance(2 * TimerWheel.SPANS[0] - 1, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(2 * TimerWheel.SPANS[0], expired);
+        assertEquals(1, expired.size());
+        assertSame(node, expired.get(0));
+    }
+
+    @Test
+    public void testCascadesIntoLowerLevel() throws Exception {
+        TimerWheel wheel = new TimerWheel(0);
+        //第二层的桶，到期前一秒内下沉到第一层
+        long expiresAt = TimerWheel.SPANS[1] + 1000;
+        TimerWheel.Node node = node("a", expiresAt);
+        wheel.schedule(node);
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+
+        wheel.advance(expiresAt - 500, expired);
+        assertTrue(expired.isEmpty());
+        assertNotNull(node.next);
+        //下沉到当前所在的桶，回收最多推迟到下一个桶的边界，读操作按expiresAt判断不受影响
+        long nextTick = ((expiresAt >>> TimerWheel.SHIFT[0]) + 1) << TimerWheel.SHIFT[0];
+        wheel.advance(nextTick, expired);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void testCascadesThroughEveryLevel() throws Exception {
+        TimerWheel wheel = new TimerWheel(0);
+        long[] expiresAt = {
+                500,
+                TimerWheel.SPANS[1] + 7,
+                TimerWheel.SPANS[2] + 11,
+                TimerWheel.SPANS[3] + 13,
+                TimerWheel.SPANS[4] + 17,
+                3 * TimerWheel.SPANS[4] + 19,
+        };
+        TimerWheel.Node[] nodes = new TimerWheel.Node[expiresAt.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = node("key" + i, expiresAt[i]);
+            wheel.schedule(nodes[i]);
+        }
+        //每次前进的步长不整齐，经过每一层的桶边界
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+        long step = TimerWheel.SPANS[0] * 37 + 3;
+        for (long now = 0; now <= expiresAt[expiresAt.length - 1] + step; now += step) {
+            wheel.advance(now, expired);
+            for (TimerWheel.Node node : expired) {
+                assertTrue(node.key + " expired early", node.expiresAt <= now);
+                assertTrue(node.key + " expired late", node.expiresAt > now - step);
+            }
+            expired.clear();
+        }
+        for (TimerWheel.Node node : nodes) {
+            assertNull(node.key + " still scheduled", node.next);
+        }
+    }
+
+    @Test
+    public void testDescheduledNodeNeverExpires() throws Exception {
+        TimerWheel wheel = new TimerWheel(0);
+        TimerWheel.Node kept = node("kept", 3000);
+        TimerWheel.Node removed = node("removed", 3000);
+        wheel.schedule(kept);
+        wheel.schedule(removed);
+        wheel.deschedule(removed);
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+        wheel.advance(TimerWheel.SPANS[4], expired);
+        assertEquals(1, expired.size());
+        assertSame(kept, expired.get(0));
+    }
+
+    @Test
+    public void testRescheduleMovesNode() throws Exception {
+        TimerWheel wheel = new TimerWheel(0);
+        TimerWheel.Node node = node("a", 1000);
+        wheel.schedule(node);
+        node.expiresAt = TimerWheel.SPANS[2];
+        wheel.schedule(node);
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+        wheel.advance(TimerWheel.SPANS[2] - 1, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(TimerWheel.SPANS[2], expired);
+        assertEquals(1, expired.size());
+    }
+
+    private static TimerWheel.Node node(String key, long expiresAt) {
+        TimerWheel.Node node = new TimerWheel.Node(key);
+        node.expiresAt = expiresAt;
+        return node;
+    }
+}
@@ -0,0 +1,96 @@
+package com.richsjeson.cache.memory;
+
+import com.richsjeson.cache.utils.MemoryUtils;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>一级缓存淘汰的条目转入堆外缓存的测试：同步转入、不保留到溢出区，
+ * 以及淘汰之后被删除或重新写入的key不会被写回</p>
+ */
+public class VictimCacheTest {
+
+    @Test
+    public void testEvictedEntriesMoveToVictimCache() throws Exception {
+        LruCache cache = new LruCache(1000);
+        cache.setOverflow(LruCache.Overflow.SOFT);
+        OffHeapCache offHeap = new OffHeapCache(OffHeapCache.SLAB_SIZE);
+        cache.setVictimCache(offHeap);
+        for (int i = 0; i < 20; i++) {
+            MemoryUtils.put(cache, "k" + i, "value" + i);
+        }
+        //写入返回时已经转入堆外缓存
+        assertFalse(cache.has("k0"));
+        assertEquals("value0", MemoryUtils.get(offHeap, "k0"));
+        assertEquals(0, cache.overflowSize());
+        assertTrue(cache.evictionCount() > 0);
+        assertEquals(cache.evictionCount(), offHeap.entryCount());
+    }
+
+    @Test
+    public void testRemovedDuringHandOffIsNotWrittenBack() throws Exception {
+        final OffHeapCache offHeap = new OffHeapCache(OffHeapCache.SLAB_SIZE);
+        LruCache cache = new LruCache(1000);
+        cache.setVictimCache(new LruCache.VictimCache() {
+            @Override
+            public boolean offer(LruCache owner, MemoryEntry entry) {
+                if (entry.getmKey().equals("k0")) {
+                    //淘汰锁释放之后、写入堆外缓存之前，另一个线程删除了该key
+                    owner.removeAll(Collections.singleton("k0"));
+                    offHeap.remove("k0");
+                }
+                return offHeap.offer(owner, entry);
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            MemoryUtils.put(cache, "k" + i, "value" + i);
+        }
+        assertFalse(offHeap.has("k0"));
+        assertEquals("value1", MemoryUtils.get(offHeap, "k1"));
+        assertNull(MemoryUtils.get(cache, "k0"));
+    }
+
+    @Test
+    public void testReplacedDuringHandOffIsNotWrittenBack() throws Exception {
+        final OffHeapCache offHeap = new OffHeapCache(OffHeapCache.SLAB_SIZE);
+        LruCache cache = new LruCache(1000);
+        cache.setVictimCache(new LruCache.VictimCache() {
+            @Override
+            public boolean offer(LruCache owner, MemoryEntry entry) {
+                if (entry.getmKey().equals("k0") && !owner.has("k0")) {
+                    //另一个线程写入了带有效期的新数据，过期后不能读到旧数据
+                    MemoryUtils.put(owner, "k0", "new", 60000);
+                    offHeap.remove("k0");
+                }
+                return offHeap.offer(owner, entry);
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            MemoryUtils.put(cache, "k" + i, "value" + i);
+        }
+        assertFalse(offHeap.has("k0"));
+        assertEquals("new", MemoryUtils.get(cache, "k0"));
+    }
+
+    @Test
+    public void testTimedAndClearedEntriesAreNotHandedOff() throws Exception {
+        LruCache cache = new LruCache(1000);
+        OffHeapCache offHeap = new OffHeapCache(OffHeapCache.SLAB_SIZE);
+        cache.setVictimCache(offHeap);
+        MemoryUtils.put(cache, "timed", "value", 60000);
+        for (int i = 0; i < 20; i++) {
+            MemoryUtils.put(cache, "k" + i, "value" + i);
+        }
+        assertFalse(cache.has("timed"));
+        assertFalse(offHeap.has("timed"));
+
+        int handedOff = offHeap.entryCount();
+        cache.evictAll();
+        assertEquals(handedOff, offHeap.entryCount());
+        assertFalse(offHeap.has("k19"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.richsjeson.cache.stats;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * @see <p>分段计数器、延迟直方图与统计快照的测试</p>
+ */
+public class StatsRecorderTest {
+
+    @Test
+    public void testStripedCounterUnderContention() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final int increments = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < increments; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals((long) threads * increments, counter.sum());
+    }
+
+    @Test
+    public void testBucketsCoverAllValues() throws Exception {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 100, 1023, 1024, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.lowerBound(index) <= value);
+            assertTrue(LatencyHistogram.upperBound(index) >= value);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count());
+        assertEquals(1000000L, snapshot.max());
+        assertEquals(500500.0, snapshot.mean(), 0.001);
+        //每个桶的相对误差不超过12.5%
+        assertEquals(500000, snapshot.percentile(50), 500000 * 0.125);
+        assertEquals(990000, snapshot.percentile(99), 990000 * 0.125);
+        assertEquals(1000000L, snapshot.percentile(100));
+        assertEquals(0, new LatencyHistogram().snapshot().percentile(99));
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() throws Exception {
+        StatsRecorder recorder = new StatsRecorder();
+        recorder.recordHit();
+        recorder.recordHit();
+        recorder.recordMiss();
+        recorder.recordEviction(100);
+        recorder.recordLoadSuccess(2000);
+        recorder.recordLoadFailure(4000);
+        TierStats stats = recorder.snapshot();
+        recorder.recordMiss();
+        assertEquals(2, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(2.0 / 3, stats.hitRate(), 0.0001);
+        assertEquals(100, stats.evictionWeight());
+        assertEquals(6000, stats.totalLoadTime());
+        assertEquals(3000.0, stats.averageLoadPenalty(), 0.001);
+        assertEquals(2, recorder.snapshot().missCount());
+    }
+
+    @Test
+    public void testLatencyIsOptIn() throws Exception {
+        StatsRecorder recorder = new StatsRecorder();
+        recorder.recordGet(recorder.startTimer());
+        assertEquals(0, recorder.snapshot().getLatency().count());
+        recorder.setRecordLatency(true);
+        recorder.recordGet(recorder.startTimer());
+        assertEquals(1, recorder.snapshot().getLatency().count());
+    }
+}